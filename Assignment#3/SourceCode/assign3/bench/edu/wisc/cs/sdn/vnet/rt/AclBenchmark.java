@@ -0,0 +1,132 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.packet.IPv4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ACL lookup through the compiled tuple space classifier, against a scan
+ * of the rule list, at up to 10k rules. Rules look like a firewall's: host
+ * and subnet prefixes of a few common lengths, mostly TCP/UDP with a
+ * well-known destination port or range, and a default at the end.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AclBenchmark
+{
+	@Param({"100", "1000", "10000"})
+	public int ruleCount;
+
+	/** Number of distinct packets cycled through */
+	private static final int WORKING_SET = 4096;
+
+	private static final int[] PREFIX_LENGTHS = {8, 16, 24, 32};
+
+	private AclClassifier classifier;
+	private AclRule[] rules;
+	private int[][] packets;
+	private int next;
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(42);
+		List<AclRule> list = randomRules(ruleCount, random);
+		this.classifier = new AclClassifier(list);
+		this.rules = list.toArray(new AclRule[list.size()]);
+
+		// Half the packets are aimed at a rule, half are random
+		this.packets = new int[WORKING_SET][];
+		for (int i = 0; i < WORKING_SET; i++)
+		{
+			int[] packet = {random.nextInt(), random.nextInt(),
+					random.nextBoolean() ? IPv4.PROTOCOL_TCP : IPv4.PROTOCOL_UDP,
+					1024 + random.nextInt(64512), random.nextInt(1024)};
+			if (random.nextBoolean())
+			{
+				AclRule rule = this.rules[random.nextInt(this.rules.length)];
+				packet[0] = rule.getSourceAddress()
+						| (random.nextInt() & ~AclRule.mask(rule.getSourceLength()));
+				packet[1] = rule.getDestinationAddress()
+						| (random.nextInt() & ~AclRule.mask(rule.getDestinationLength()));
+				if (rule.getProtocol() != AclRule.ANY_PROTOCOL)
+				{ packet[2] = rule.getProtocol(); }
+			}
+			this.packets[i] = packet;
+		}
+	}
+
+	/**
+	 * Build a rule set; the last rule denies everything else.
+	 * @param count number of rules
+	 * @param random source of randomness
+	 * @return the rules, highest priority first
+	 */
+	static List<AclRule> randomRules(int count, Random random)
+	{
+		List<AclRule> rules = new ArrayList<AclRule>();
+		for (int i = 0; i < count - 1; i++)
+		{
+			int sourceLength = (random.nextInt(4) == 0) ? 0
+					: PREFIX_LENGTHS[random.nextInt(PREFIX_LENGTHS.length)];
+			int destinationLength = PREFIX_LENGTHS[random.nextInt(PREFIX_LENGTHS.length)];
+			int roll = random.nextInt(10);
+			int protocol = (roll < 5) ? IPv4.PROTOCOL_TCP
+					: (roll < 8) ? IPv4.PROTOCOL_UDP : AclRule.ANY_PROTOCOL;
+			int low = 0, high = 65535;
+			if (protocol != AclRule.ANY_PROTOCOL && random.nextBoolean())
+			{
+				low = random.nextInt(1024);
+				high = random.nextBoolean() ? low : low + random.nextInt(100);
+			}
+			rules.add(new AclRule(random.nextInt(4) != 0,
+					0x0a000000 | random.nextInt(1 << 24), sourceLength,
+					0x0a000000 | random.nextInt(1 << 24), destinationLength,
+					protocol, 0, 65535, low, high));
+		}
+		rules.add(new AclRule(false, 0, 0, 0, 0, AclRule.ANY_PROTOCOL,
+				0, 65535, 0, 65535));
+		return rules;
+	}
+
+	private int[] nextPacket()
+	{ return this.packets[this.next++ & (WORKING_SET - 1)]; }
+
+	@Benchmark
+	public int tupleSpace()
+	{
+		int[] p = this.nextPacket();
+		return this.classifier.lookup(p[0], p[1], p[2], p[3], p[4]);
+	}
+
+	@Benchmark
+	public int linearScan()
+	{
+		int[] p = this.nextPacket();
+		for (int i = 0; i < this.rules.length; i++)
+		{
+			if (this.rules[i].matches(p[0], p[1], p[2], p[3], p[4]))
+			{ return i; }
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,93 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.packet.FlowKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Connection tracking with millions of flows: packets of established flows
+ * spread at random over the whole table, so most lookups miss the CPU
+ * caches. Run with -prof gc to check that tracking allocates nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+@State(Scope.Thread)
+public class ConnTrackBenchmark
+{
+	@Param({"1000000", "4000000"})
+	public int flowCount;
+
+	/** Number of distinct packets cycled through */
+	private static final int WORKING_SET = 1 << 16;
+
+	private ConnTrack connTrack;
+	private FlowKey[] keys;
+	private int next;
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(42);
+		this.connTrack = new ConnTrack(this.flowCount);
+		byte[] packet = new byte[40];
+		packet[0] = 0x45;
+		packet[9] = 6;
+		packet[32] = 0x50;
+		packet[33] = 0x10;
+		FlowKey key = new FlowKey();
+		for (int i = 0; i < this.flowCount; i++)
+		{
+			fill(packet, 0x0a000000 + i, 0xc0a80001, 1024 + (i & 0x7fff), 443);
+			key.extractIPv4(packet, 0, packet.length);
+			this.connTrack.track(key, packet.length);
+		}
+
+		this.keys = new FlowKey[WORKING_SET];
+		for (int i = 0; i < WORKING_SET; i++)
+		{
+			int flow = random.nextInt(this.flowCount);
+			// Half the packets are replies
+			if (random.nextBoolean())
+			{ fill(packet, 0x0a000000 + flow, 0xc0a80001, 1024 + (flow & 0x7fff), 443); }
+			else
+			{ fill(packet, 0xc0a80001, 0x0a000000 + flow, 443, 1024 + (flow & 0x7fff)); }
+			this.keys[i] = new FlowKey();
+			this.keys[i].extractIPv4(packet, 0, packet.length);
+		}
+	}
+
+	/** Write addresses and ports into an IPv4/TCP header */
+	private static void fill(byte[] packet, int source, int destination,
+			int sourcePort, int destinationPort)
+	{
+		for (int b = 0; b < 4; b++)
+		{
+			packet[12 + b] = (byte)(source >>> (24 - 8 * b));
+			packet[16 + b] = (byte)(destination >>> (24 - 8 * b));
+		}
+		packet[20] = (byte)(sourcePort >>> 8);
+		packet[21] = (byte)sourcePort;
+		packet[22] = (byte)(destinationPort >>> 8);
+		packet[23] = (byte)destinationPort;
+	}
+
+	@Benchmark
+	public int track()
+	{ return this.connTrack.track(this.keys[this.next++ & (WORKING_SET - 1)], 1500); }
+}
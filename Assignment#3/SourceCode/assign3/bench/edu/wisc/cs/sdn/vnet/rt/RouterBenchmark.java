@@ -0,0 +1,186 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+import net.floodlightcontroller.packet.UDP;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.vns.NullVNSComm;
+
+/**
+ * Route table and ARP cache lookups, and whole-packet forwarding through
+ * Router.handlePacket with a {@link NullVNSComm}, at table sizes from 10
+ * to 1M entries. The tables are shared, so run with e.g. "-t 4" to see
+ * how they scale across threads. Throughput and sampled latency (p99 and
+ * friends) are both reported; add "-prof gc" for bytes per packet:
+ *     ant bench -Dbench.args="RouterBenchmark -t 4 -prof gc"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouterBenchmark
+{
+	@Param({"10", "1000", "100000", "1000000"})
+	public int tableSize;
+
+	/** Number of distinct destinations (and frames) cycled through */
+	private static final int WORKING_SET = 4096;
+
+	private static final int GATEWAY = IPv4.toIPv4Address("10.0.2.2");
+
+	private Router router;
+	private NullVNSComm vnsComm;
+	private Iface inIface;
+	private int[] destinations;
+	private int[] arpKeys;
+	private byte[][] frames;
+	private PrintStream stdout;
+
+	/** Per-thread position in the working set */
+	@State(Scope.Thread)
+	public static class Cursor
+	{
+		private int next;
+
+		int next()
+		{ return this.next++ & (WORKING_SET - 1); }
+	}
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		// Routers log every packet; keep that off the terminal
+		this.stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		this.router = new Router("bench", null);
+		this.vnsComm = new NullVNSComm(this.router);
+		this.inIface = addInterface("eth0", "10.0.1.1", "00:00:00:00:01:01");
+		Iface outIface = addInterface("eth1", "10.0.2.1", "00:00:00:00:02:01");
+
+		Random random = new Random(42);
+		RouteTable routeTable = this.router.getRouteTable();
+		ArpCache arpCache = this.router.getArpCache();
+		routeTable.insert(IPv4.toIPv4Address("10.0.1.0"), 0,
+				IPv4.toIPv4Address("255.255.255.0"), this.inIface);
+		routeTable.insert(IPv4.toIPv4Address("10.0.2.0"), 0,
+				IPv4.toIPv4Address("255.255.255.0"), outIface);
+		arpCache.insert(MACAddress.valueOf("00:00:00:00:02:02"), GATEWAY);
+
+		// Remote prefixes of /16 to /24 outside 10/8, all via the gateway
+		Set<Long> prefixes = new HashSet<Long>();
+		int[] prefixAddresses = new int[tableSize];
+		int[] prefixMasks = new int[tableSize];
+		for (int i = 0; i < tableSize; )
+		{
+			int maskLength = 16 + random.nextInt(9);
+			int mask = -1 << (32 - maskLength);
+			int address = ((11 + random.nextInt(212)) << 24 | random.nextInt(1 << 24)) & mask;
+			if (!prefixes.add(((long)address << 32) | (mask & 0xffffffffL)))
+			{ continue; }
+			routeTable.insert(address, GATEWAY, mask, outIface);
+			prefixAddresses[i] = address;
+			prefixMasks[i] = mask;
+			i++;
+		}
+
+		// Hosts in the ARP cache, as if learned on the attached subnet
+		this.arpKeys = new int[WORKING_SET];
+		for (int i = 0; i < tableSize; i++)
+		{
+			int host = IPv4.toIPv4Address("10.0.2.0") | (3 + i);
+			arpCache.insert(MACAddress.valueOf(0x020000000000L | i), host);
+			if (i < WORKING_SET)
+			{ this.arpKeys[i] = host; }
+		}
+		for (int i = tableSize; i < WORKING_SET; i++)
+		{ this.arpKeys[i] = this.arpKeys[i % tableSize]; }
+
+		// Destinations inside random installed prefixes
+		this.destinations = new int[WORKING_SET];
+		this.frames = new byte[WORKING_SET][];
+		for (int i = 0; i < WORKING_SET; i++)
+		{
+			int p = random.nextInt(tableSize);
+			this.destinations[i] = prefixAddresses[p]
+					| (random.nextInt() & ~prefixMasks[p]);
+			this.frames[i] = buildFrame(this.destinations[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{ System.setOut(this.stdout); }
+
+	private Iface addInterface(String name, String ip, String mac)
+	{
+		Iface iface = this.router.addInterface(name);
+		iface.setIpAddress(IPv4.toIPv4Address(ip));
+		iface.setSubnetMask(IPv4.toIPv4Address("255.255.255.0"));
+		iface.setMacAddress(MACAddress.valueOf(mac));
+		return iface;
+	}
+
+	private byte[] buildFrame(int destination)
+	{
+		UDP udp = new UDP();
+		udp.setSourcePort((short)4000);
+		udp.setDestinationPort((short)5000);
+		udp.setPayload(new Data(new byte[18]));
+		IPv4 ip = new IPv4();
+		ip.setTtl((byte)64);
+		ip.setSourceAddress("10.0.1.100");
+		ip.setDestinationAddress(destination);
+		ip.setPayload(udp);
+		Ethernet ether = new Ethernet();
+		ether.setEtherType(Ethernet.TYPE_IPv4);
+		ether.setSourceMACAddress("00:00:00:00:01:64");
+		ether.setDestinationMACAddress(this.inIface.getMacAddress());
+		ether.setPayload(ip);
+		return ether.serialize();
+	}
+
+	@Benchmark
+	public RouteEntry routeLookup(Cursor cursor)
+	{ return this.router.getRouteTable().lookup(this.destinations[cursor.next()]); }
+
+	@Benchmark
+	public ArpEntry arpLookup(Cursor cursor)
+	{ return this.router.getArpCache().lookup(this.arpKeys[cursor.next()]); }
+
+	/** Receive a frame from the wire and forward it */
+	@Benchmark
+	public void handlePacket(Cursor cursor)
+	{
+		byte[] frame = this.frames[cursor.next()];
+		Ethernet etherPacket = new Ethernet();
+		etherPacket.deserialize(frame, 0, frame.length);
+		this.router.handlePacket(etherPacket, this.inIface);
+	}
+}
@@ -0,0 +1,152 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+import net.floodlightcontroller.packet.UDP;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.vns.NullVNSComm;
+
+/**
+ * Forwarding table learning and lookup, and whole-packet forwarding
+ * through Switch.handlePacket with a {@link NullVNSComm}, at table sizes
+ * from 10 to 1M learned MACs. See RouterBenchmark for how to vary threads
+ * and collect allocation numbers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SwitchBenchmark
+{
+	@Param({"10", "1000", "100000", "1000000"})
+	public int tableSize;
+
+	/** Number of distinct MACs (and frames) cycled through */
+	private static final int WORKING_SET = 4096;
+
+	private Switch sw;
+	private Iface inIface;
+	private Iface[] ports;
+	private long[] macs;
+	private byte[][] frames;
+	private PrintStream stdout;
+
+	/** Per-thread position in the working set */
+	@State(Scope.Thread)
+	public static class Cursor
+	{
+		private int next;
+
+		int next()
+		{ return this.next++ & (WORKING_SET - 1); }
+	}
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		// Switches log every packet; keep that off the terminal
+		this.stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		this.sw = new Switch("bench", null);
+		new NullVNSComm(this.sw);
+		this.ports = new Iface[4];
+		for (int i = 0; i < this.ports.length; i++)
+		{
+			this.ports[i] = this.sw.addInterface("eth" + i);
+			this.ports[i].setMacAddress(MACAddress.valueOf(0x000000000100L + i));
+		}
+		this.inIface = this.ports[0];
+
+		// Fill the table directly: learning 1M MACs one by one scans the
+		// table each time. Entries never expire during the run.
+		Random random = new Random(42);
+		long[] learned = new long[tableSize];
+		synchronized (this.sw.ft.fTable)
+		{
+			for (int i = 0; i < tableSize; i++)
+			{
+				learned[i] = 0x020000000000L | i;
+				ForwardingTableRecord record = new ForwardingTableRecord(
+						learned[i], this.ports[1 + random.nextInt(3)]);
+				record.timeOut = Integer.MAX_VALUE;
+				this.sw.ft.fTable.add(record);
+			}
+		}
+
+		this.macs = new long[WORKING_SET];
+		this.frames = new byte[WORKING_SET][];
+		for (int i = 0; i < WORKING_SET; i++)
+		{
+			this.macs[i] = learned[random.nextInt(tableSize)];
+			long source = learned[random.nextInt(tableSize)];
+			this.frames[i] = buildFrame(source, this.macs[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{ System.setOut(this.stdout); }
+
+	private static byte[] buildFrame(long source, long destination)
+	{
+		UDP udp = new UDP();
+		udp.setSourcePort((short)4000);
+		udp.setDestinationPort((short)5000);
+		udp.setPayload(new Data(new byte[18]));
+		IPv4 ip = new IPv4();
+		ip.setTtl((byte)64);
+		ip.setSourceAddress("10.0.1.100");
+		ip.setDestinationAddress("10.0.1.200");
+		ip.setPayload(udp);
+		Ethernet ether = new Ethernet();
+		ether.setEtherType(Ethernet.TYPE_IPv4);
+		ether.setSourceMACAddress(source);
+		ether.setDestinationMACAddress(destination);
+		ether.setPayload(ip);
+		return ether.serialize();
+	}
+
+	/** Refresh an already learned MAC */
+	@Benchmark
+	public void learnForwarding(Cursor cursor)
+	{ this.sw.ft.learnForwarding(this.macs[cursor.next()], this.inIface); }
+
+	@Benchmark
+	public Iface getIFaceForMAC(Cursor cursor)
+	{ return this.sw.ft.getIFaceForMAC(this.macs[cursor.next()]); }
+
+	/** Receive a frame from the wire and forward it to a known port */
+	@Benchmark
+	public void handlePacket(Cursor cursor)
+	{
+		byte[] frame = this.frames[cursor.next()];
+		Ethernet etherPacket = new Ethernet();
+		etherPacket.deserialize(frame, 0, frame.length);
+		this.sw.handlePacket(etherPacket, this.inIface);
+	}
+}
@@ -0,0 +1,46 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+import edu.wisc.cs.sdn.vnet.Device;
+
+/**
+ * A VNS connection with no server behind it. Sent packets are serialized
+ * into VNS commands exactly as for the server and then dropped, so a
+ * device can be driven in-process with the full cost of its send path,
+ * minus the socket.
+ */
+public class NullVNSComm extends VNSComm
+{
+	private final LongAdder packetsSent = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+
+	public NullVNSComm(Device device)
+	{ super(device); }
+
+	@Override
+	public boolean sendPacket(Ethernet etherPacket, String ifaceName)
+	{
+		CommandPacket cmdPacket = new CommandPacket();
+		cmdPacket.mInterfaceName = ifaceName;
+		cmdPacket.etherPacket = etherPacket;
+		byte[] buf = cmdPacket.serialize();
+		this.packetsSent.increment();
+		this.bytesSent.add(buf.length);
+		return true;
+	}
+
+	/**
+	 * @return number of packets the device has sent
+	 */
+	public long getPacketsSent()
+	{ return this.packetsSent.sum(); }
+
+	/**
+	 * @return number of bytes (of VNS commands) the device has sent
+	 */
+	public long getBytesSent()
+	{ return this.bytesSent.sum(); }
+}
@@ -0,0 +1,90 @@
+package net.floodlightcontroller.packet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares extracting a flow's 5-tuple hash with FlowKey (from raw frame
+ * bytes, and from a lazily decoded Ethernet) against a full object model
+ * deserialize. Run with "-prof gc" to confirm the FlowKey paths do not
+ * allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlowKeyBenchmark {
+    @Param({"false", "true"})
+    public boolean vlan;
+
+    @Param({"0", "12"})
+    public int optionsLength;
+
+    private byte[] frame;
+    private Ethernet lazyEther;
+    private final FlowKey key = new FlowKey();
+
+    @Setup
+    public void setup() {
+        TCP tcp = new TCP();
+        tcp.setSourcePort((short) 40000);
+        tcp.setDestinationPort((short) 80);
+        tcp.setPayload(new Data(new byte[64]));
+        IPv4 ip = new IPv4();
+        ip.setTtl((byte) 64);
+        ip.setSourceAddress("10.0.1.1");
+        ip.setDestinationAddress("10.0.2.1");
+        if (optionsLength > 0)
+            ip.setOptions(new byte[optionsLength]);
+        ip.setPayload(tcp);
+        Ethernet ether = new Ethernet();
+        ether.setEtherType(Ethernet.TYPE_IPv4);
+        ether.setSourceMACAddress("00:00:00:00:00:01");
+        ether.setDestinationMACAddress("00:00:00:00:00:02");
+        if (vlan)
+            ether.setVlanID((short) 10);
+        ether.setPayload(ip);
+        frame = ether.serialize();
+        lazyEther = new Ethernet();
+        lazyEther.deserialize(frame, 0, frame.length);
+    }
+
+    @Benchmark
+    public long flowKeyFromBytes() {
+        key.extract(frame, 0, frame.length);
+        return key.hash64();
+    }
+
+    @Benchmark
+    public long flowKeyFromLazyEthernet() {
+        key.extract(lazyEther);
+        return key.hash64();
+    }
+
+    @Benchmark
+    public long objectModel() {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        IPv4 ip = (IPv4) ether.getPayload();
+        TCP tcp = (TCP) ip.getPayload();
+        long addresses = ((long) ip.getSourceAddress() << 32)
+                | (ip.getDestinationAddress() & 0xffffffffL);
+        long ports = ((ip.getProtocol() & 0xffL) << 32)
+                | ((tcp.getSourcePort() & 0xffffL) << 16)
+                | (tcp.getDestinationPort() & 0xffffL);
+        return FlowKey.hash64(addresses, ports);
+    }
+}
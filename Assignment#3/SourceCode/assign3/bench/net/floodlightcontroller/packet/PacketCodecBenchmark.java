@@ -0,0 +1,109 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Deserialize, serialize, checksum and toString throughput of the packet
+ * object model, per packet kind and frame size. Run with
+ * -Dbench.args="PacketCodec -prof gc" to see bytes allocated per packet.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketCodecBenchmark {
+    @Param({"ARP", "ICMP", "UDP", "TCP", "RIP"})
+    public PacketFixtures.Kind kind;
+
+    @Param({"64", "512", "1500"})
+    public int frameSize;
+
+    private byte[] frame;
+    private Ethernet packet;
+    private IPacket innermost;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        packet = PacketFixtures.build(kind, frameSize);
+        frame = packet.serialize();
+        buffer = ByteBuffer.allocate(frame.length);
+        // resetChecksum on the innermost layer resets all its parents too
+        innermost = packet;
+        while (innermost.getPayload() != null)
+            innermost = innermost.getPayload();
+    }
+
+    /** Decode only the Ethernet header; inner layers stay undecoded */
+    @Benchmark
+    public Ethernet deserializeHeader() {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        return ether;
+    }
+
+    /** Decode every layer down to the innermost payload */
+    @Benchmark
+    public void deserializeAll(Blackhole bh) {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        IPacket layer = ether;
+        while (layer != null) {
+            bh.consume(layer);
+            layer = layer.getPayload();
+        }
+    }
+
+    /** Serialize a packet object into a new array, checksums included */
+    @Benchmark
+    public byte[] serialize() {
+        innermost.resetChecksum();
+        return packet.serialize();
+    }
+
+    /** Serialize a packet object into a reused buffer */
+    @Benchmark
+    public ByteBuffer serializeTo() {
+        innermost.resetChecksum();
+        buffer.clear();
+        packet.serializeTo(buffer);
+        return buffer;
+    }
+
+    /** Receive, modify (as a router does) and re-send a frame */
+    @Benchmark
+    public byte[] forward() {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        if (ether.getPayload() instanceof IPv4) {
+            IPv4 ip = (IPv4) ether.getPayload();
+            ip.setTtl((byte) (ip.getTtl() - 1));
+            ip.resetChecksum();
+        }
+        ether.setSourceMACAddress(ether.getDestinationMACLong());
+        return ether.serialize();
+    }
+
+    @Benchmark
+    public String toStringDecoded() {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        return ether.toString();
+    }
+}
@@ -0,0 +1,128 @@
+package net.floodlightcontroller.packet;
+
+import java.util.Random;
+
+/**
+ * Builds the sample frames the packet benchmarks run over.
+ */
+public class PacketFixtures {
+    /** Packet kinds, by outermost interesting layer */
+    public enum Kind { ARP, ICMP, UDP, TCP, RIP }
+
+    private PacketFixtures() {
+    }
+
+    /**
+     * Build a frame of (roughly) the given size. ARP frames are always the
+     * minimum size; RIP frames carry as many route entries as fit.
+     * @param kind the kind of packet
+     * @param frameSize the frame length, including the Ethernet header
+     * @return the frame as a packet object
+     */
+    public static Ethernet build(Kind kind, int frameSize) {
+        Ethernet ether = new Ethernet();
+        ether.setSourceMACAddress("00:00:00:00:01:01");
+        ether.setDestinationMACAddress("00:00:00:00:02:01");
+        if (kind == Kind.ARP) {
+            ARP arp = new ARP();
+            arp.setHardwareType(ARP.HW_TYPE_ETHERNET);
+            arp.setProtocolType(ARP.PROTO_TYPE_IP);
+            arp.setHardwareAddressLength((byte) Ethernet.DATALAYER_ADDRESS_LENGTH);
+            arp.setProtocolAddressLength((byte) 4);
+            arp.setOpCode(ARP.OP_REQUEST);
+            arp.setSenderHardwareAddress(ether.getSourceMACAddress());
+            arp.setSenderProtocolAddress(IPv4.toIPv4Address("10.0.1.1"));
+            arp.setTargetHardwareAddress(new byte[6]);
+            arp.setTargetProtocolAddress(IPv4.toIPv4Address("10.0.1.2"));
+            ether.setEtherType(Ethernet.TYPE_ARP);
+            ether.setDestinationMACAddress(MACAddress.BROADCAST);
+            ether.setPad(true);
+            return (Ethernet) ether.setPayload(arp);
+        }
+
+        int ipPayloadSize = Math.max(frameSize - 14 - 20, 8);
+        IPacket transport;
+        switch (kind) {
+        case ICMP:
+            ICMP icmp = new ICMP();
+            icmp.setIcmpType((byte) 8);
+            icmp.setPayload(new Data(randomBytes(ipPayloadSize - 4)));
+            transport = icmp;
+            break;
+        case TCP:
+            TCP tcp = new TCP();
+            tcp.setSourcePort((short) 40000);
+            tcp.setDestinationPort((short) 80);
+            tcp.setSequence(1);
+            tcp.setAcknowledge(1);
+            tcp.setFlags(TcpView.FLAG_ACK);
+            tcp.setWindowSize((short) 65535);
+            tcp.setPayload(new Data(randomBytes(Math.max(ipPayloadSize - 20, 0))));
+            transport = tcp;
+            break;
+        case RIP:
+            RIPv2 rip = new RIPv2();
+            rip.setCommand(RIPv2.COMMAND_RESPONSE);
+            int entries = Math.max((ipPayloadSize - 8 - 4) / 20, 1);
+            for (int i = 0; i < entries; i++)
+                rip.addEntry(new RIPv2Entry(0x0a000000 + (i << 8), 0xffffff00, i % 16));
+            UDP ripUdp = new UDP();
+            ripUdp.setSourcePort(UDP.RIP_PORT);
+            ripUdp.setDestinationPort(UDP.RIP_PORT);
+            ripUdp.setPayload(rip);
+            transport = ripUdp;
+            break;
+        default:
+            UDP udp = new UDP();
+            udp.setSourcePort((short) 4000);
+            udp.setDestinationPort((short) 5000);
+            udp.setPayload(new Data(randomBytes(ipPayloadSize - 8)));
+            transport = udp;
+            break;
+        }
+
+        IPv4 ip = new IPv4();
+        ip.setTtl((byte) 64);
+        ip.setSourceAddress("10.0.1.1");
+        ip.setDestinationAddress(kind == Kind.RIP ? "224.0.0.9" : "10.0.2.1");
+        ip.setPayload(transport);
+        ether.setEtherType(Ethernet.TYPE_IPv4);
+        return (Ethernet) ether.setPayload(ip);
+    }
+
+    /**
+     * Build a mix of frames resembling router traffic: mostly TCP (full
+     * sized data and minimum sized ACKs), then UDP, ICMP, ARP and RIP.
+     * @param count number of frames
+     * @param seed random seed, so runs see the same mix
+     * @return the serialized frames
+     */
+    public static byte[][] mix(int count, long seed) {
+        Random random = new Random(seed);
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int roll = random.nextInt(100);
+            Ethernet ether;
+            if (roll < 35)
+                ether = build(Kind.TCP, 1500);
+            else if (roll < 60)
+                ether = build(Kind.TCP, 64);
+            else if (roll < 85)
+                ether = build(Kind.UDP, 64 + random.nextInt(1500 - 64));
+            else if (roll < 93)
+                ether = build(Kind.ICMP, 98);
+            else if (roll < 98)
+                ether = build(Kind.ARP, 60);
+            else
+                ether = build(Kind.RIP, 512);
+            frames[i] = ether.serialize();
+        }
+        return frames;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
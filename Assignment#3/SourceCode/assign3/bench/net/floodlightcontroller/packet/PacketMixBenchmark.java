@@ -0,0 +1,81 @@
+package net.floodlightcontroller.packet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packet library throughput over a fixed mix of TCP, UDP, ICMP, ARP and
+ * RIP frames of varying sizes (see {@link PacketFixtures#mix}), so the
+ * numbers reflect type dispatch and branch behaviour of real traffic
+ * rather than one packet shape.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketMixBenchmark {
+    private static final int MIX_SIZE = 4096;
+
+    private byte[][] frames;
+    private int next;
+
+    @Setup
+    public void setup() {
+        frames = PacketFixtures.mix(MIX_SIZE, 42);
+    }
+
+    private byte[] nextFrame() {
+        byte[] frame = frames[next];
+        next = (next + 1) & (MIX_SIZE - 1);
+        return frame;
+    }
+
+    /** What the switch does: read the L2 header only */
+    @Benchmark
+    public long switchPath() {
+        byte[] frame = nextFrame();
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        return ether.getDestinationMACLong() ^ ether.getEtherType();
+    }
+
+    /** What the router does: decode to L3, rewrite and re-serialize */
+    @Benchmark
+    public byte[] routerPath() {
+        byte[] frame = nextFrame();
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        IPacket payload = ether.getPayload();
+        if (payload instanceof IPv4) {
+            IPv4 ip = (IPv4) payload;
+            ip.setTtl((byte) (ip.getTtl() - 1));
+            ip.resetChecksum();
+        }
+        ether.setDestinationMACAddress(ether.getSourceMACLong());
+        return ether.serialize();
+    }
+
+    /** Decode every layer of every frame */
+    @Benchmark
+    public int deserializeAll() {
+        byte[] frame = nextFrame();
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        int layers = 0;
+        for (IPacket layer = ether; layer != null; layer = layer.getPayload())
+            layers++;
+        return layers;
+    }
+}
@@ -0,0 +1,103 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the object model (Ethernet/IPv4/UDP deserialize and serialize)
+ * with the flyweight views reading and writing the same wire bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketViewBenchmark {
+    @Param({"64", "512", "1500"})
+    public int frameSize;
+
+    private byte[] frame;
+    private ByteBuffer buffer;
+
+    private final EthernetView ethView = new EthernetView();
+    private final IPv4View ipView = new IPv4View();
+    private final UdpView udpView = new UdpView();
+
+    @Setup
+    public void setup() {
+        int payloadLength = frameSize - 14 - 20 - 8;
+        UDP udp = new UDP();
+        udp.setSourcePort((short) 4000);
+        udp.setDestinationPort((short) 5000);
+        udp.setPayload(new Data(new byte[payloadLength]));
+        IPv4 ip = new IPv4();
+        ip.setTtl((byte) 64);
+        ip.setSourceAddress("10.0.1.1");
+        ip.setDestinationAddress("10.0.2.1");
+        ip.setPayload(udp);
+        Ethernet ether = new Ethernet();
+        ether.setEtherType(Ethernet.TYPE_IPv4);
+        ether.setSourceMACAddress("00:00:00:00:00:01");
+        ether.setDestinationMACAddress("00:00:00:00:00:02");
+        ether.setPayload(ip);
+        frame = ether.serialize();
+        buffer = ByteBuffer.wrap(frame);
+    }
+
+    @Benchmark
+    public void objectModelParse(Blackhole bh) {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        IPv4 ip = (IPv4) ether.getPayload();
+        UDP udp = (UDP) ip.getPayload();
+        bh.consume(ether.getDestinationMAC());
+        bh.consume(ip.getDestinationAddress());
+        bh.consume(udp.getDestinationPort());
+    }
+
+    @Benchmark
+    public void viewParse(Blackhole bh) {
+        ethView.wrap(buffer, 0);
+        ipView.wrap(buffer, ethView.getPayloadOffset());
+        udpView.wrap(buffer, ipView.getPayloadOffset());
+        bh.consume(ethView.getDestinationMAC());
+        bh.consume(ipView.getDestinationAddress());
+        bh.consume(udpView.getDestinationPort());
+    }
+
+    @Benchmark
+    public byte[] objectModelForward() {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        IPv4 ip = (IPv4) ether.getPayload();
+        ip.setTtl((byte) (ip.getTtl() - 1));
+        ip.resetChecksum();
+        ether.setSourceMACAddress(ether.getDestinationMACAddress());
+        return ether.serialize();
+    }
+
+    @Benchmark
+    public ByteBuffer viewForward() {
+        ethView.wrap(buffer, 0);
+        ipView.wrap(buffer, ethView.getPayloadOffset());
+        // Keep the TTL from draining across invocations
+        if (ipView.decrementTtl() == 1)
+            ipView.setTtl((byte) 64).updateChecksum();
+        ethView.setSourceMAC(ethView.getDestinationMAC());
+        return buffer;
+    }
+}
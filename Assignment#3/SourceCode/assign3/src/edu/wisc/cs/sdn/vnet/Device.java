@@ -25,6 +25,12 @@ public abstract class Device
 	/** Virtual Network Simulator communication manager for the device */
 	private VNSComm vnsComm;
 	
+	/** Link aggregation groups bundling the device's interfaces */
+	protected LinkAggregationTable lagTable;
+	
+	/** Latency of each stage of packet handling; set up by subclasses */
+	protected StageTracer stageTracer;
+	
 	/**
 	 * Creates a device.
 	 * @param host hostname for the device
@@ -36,6 +42,7 @@ public abstract class Device
 		this.logfile = logfile;
 		this.interfaces = new HashMap<String,Iface>();
 		this.vnsComm = null;
+		this.lagTable = new LinkAggregationTable();
 	}
 	
 	/**
@@ -72,10 +79,20 @@ public abstract class Device
 	{ this.vnsComm = vnsComm; }
 	
 	/**
-	 * Close the PCAP dump file for the router, if logging is enabled.
+	 * @return latency tracing of packet handling; null if the device has
+	 *         no stages to trace
+	 */
+	public StageTracer getStageTracer()
+	{ return this.stageTracer; }
+	
+	/**
+	 * Report stage latencies, if any packets were traced, and close the
+	 * PCAP dump file for the router, if logging is enabled.
 	 */
 	public void destroy()
 	{
+		if (stageTracer != null && stageTracer.getCount() > 0)
+		{ System.out.print(stageTracer.toString()); }
 		if (logfile != null)
 		{ this.logfile.close(); }
 	}
@@ -101,13 +118,68 @@ public abstract class Device
 	{ return this.interfaces.get(ifaceName); }
 	
 	/**
-	 * Send an Ethernet packet out a specific interface.
+	 * Load link aggregation groups from a file.
+	 * @param lagFile the name of the file containing the groups
+	 */
+	public void loadLinkAggregation(String lagFile)
+	{
+		if (!lagTable.load(lagFile, this))
+		{
+			System.err.println("Error setting up link aggregation from file "
+					+ lagFile);
+			System.exit(1);
+		}
+		
+		System.out.println("Loaded link aggregation groups");
+		System.out.println("----------------------------------");
+		System.out.print(this.lagTable.toString());
+		System.out.println("----------------------------------");
+	}
+	
+	/**
+	 * @return link aggregation groups configured on the device
+	 */
+	public LinkAggregationTable getLinkAggregationTable()
+	{ return this.lagTable; }
+	
+	/**
+	 * Gets the interface that stands for a physical interface in forwarding
+	 * decisions: the primary member if the interface belongs to a link 
+	 * aggregation group, otherwise the interface itself.
+	 * @param iface a physical interface
+	 * @return the logical interface
+	 */
+	public Iface getLogicalInterface(Iface iface)
+	{
+		LinkAggregationGroup group = this.lagTable.getGroup(iface);
+		return (null == group) ? iface : group.getPrimary();
+	}
+	
+	/**
+	 * Send an Ethernet packet out a specific interface. If the interface
+	 * belongs to a link aggregation group, the packet is sent on the member
+	 * chosen by its flow hash.
 	 * @param etherPacket an Ethernet packet with all fields, encapsulated
 	 * 		  headers, and payloads completed
 	 * @param iface interface on which to send the packet
 	 * @return true if the packet was sent successfully, otherwise false
 	 */
 	public boolean sendPacket(Ethernet etherPacket, Iface iface)
+	{
+		LinkAggregationGroup group = this.lagTable.getGroup(iface);
+		if (group != null)
+		{ return group.send(this, etherPacket); }
+		return this.sendPhysical(etherPacket, iface);
+	}
+	
+	/**
+	 * Send an Ethernet packet out exactly the given interface.
+	 * @param etherPacket an Ethernet packet with all fields, encapsulated
+	 * 		  headers, and payloads completed
+	 * @param iface interface on which to send the packet
+	 * @return true if the packet was sent successfully, otherwise false
+	 */
+	public boolean sendPhysical(Ethernet etherPacket, Iface iface)
 	{ return this.vnsComm.sendPacket(etherPacket, iface.getName()); }
 	
 	public abstract void handlePacket(Ethernet etherPacket, Iface inIface);
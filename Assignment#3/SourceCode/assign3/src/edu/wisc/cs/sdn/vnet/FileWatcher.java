@@ -0,0 +1,127 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches configuration files and, when one changes, calls back on the
+ * watcher's own thread, so the file is read and checked off the threads
+ * that handle packets. A file is only reported once it has stopped
+ * changing for QUIET_PERIOD milliseconds, so an editor writing it in
+ * several steps, or replacing it with a rename, causes one reload.
+ */
+public class FileWatcher implements Runnable
+{
+	private static final long QUIET_PERIOD = 250;
+
+	private final WatchService service;
+
+	/** Callbacks; maps an absolute path to what to do when it changes */
+	private final Map<Path, Runnable> callbacks;
+
+	private Thread thread;
+
+	public FileWatcher() throws IOException
+	{
+		this.service = FileSystems.getDefault().newWatchService();
+		this.callbacks = new ConcurrentHashMap<Path, Runnable>();
+	}
+
+	/**
+	 * Watch a file.
+	 * @param filename name of the file
+	 * @param onChange called on the watcher's thread when the file changes
+	 * @throws IOException if the file's directory cannot be watched
+	 */
+	public void watch(String filename, Runnable onChange) throws IOException
+	{
+		Path path = Paths.get(filename).toAbsolutePath().normalize();
+		path.getParent().register(this.service,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		this.callbacks.put(path, onChange);
+	}
+
+	/**
+	 * Start the watcher's thread.
+	 */
+	public synchronized void start()
+	{
+		if (this.thread != null)
+		{ return; }
+		this.thread = new Thread(this, "file-watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stop watching.
+	 */
+	public void stop()
+	{
+		try { this.service.close(); }
+		catch (IOException e) { System.err.println(e.toString()); }
+	}
+
+	public void run()
+	{
+		Set<Path> changed = new LinkedHashSet<Path>();
+		try
+		{
+			while (true)
+			{
+				WatchKey key = changed.isEmpty() ? this.service.take()
+						: this.service.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+				if (null == key)
+				{
+					// Quiet for long enough: report what changed
+					for (Path path : changed)
+					{ this.reload(path); }
+					changed.clear();
+					continue;
+				}
+
+				Path directory = (Path)key.watchable();
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					if (StandardWatchEventKinds.OVERFLOW == event.kind())
+					{
+						changed.addAll(this.callbacks.keySet());
+						continue;
+					}
+					Path path = directory.resolve((Path)event.context());
+					if (this.callbacks.containsKey(path))
+					{ changed.add(path); }
+				}
+				key.reset();
+			}
+		}
+		catch (InterruptedException e)
+		{ return; }
+		catch (ClosedWatchServiceException e)
+		{ return; }
+	}
+
+	private void reload(Path path)
+	{
+		try
+		{ this.callbacks.get(path).run(); }
+		catch (RuntimeException e)
+		{
+			// A bad reload must not stop the watcher
+			System.err.println("Error reloading " + path + ": " + e);
+		}
+	}
+}
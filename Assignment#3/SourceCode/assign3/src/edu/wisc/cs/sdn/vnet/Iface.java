@@ -24,8 +24,13 @@ public class Iface
 	public String getName()
 	{ return this.name; }
 	
+	/**
+	 * Set the interface's MAC address. The address is interned, since it
+	 * is the source or destination of most frames the device handles.
+	 * @param mac MAC address of the interface
+	 */
 	public void setMacAddress(MACAddress mac)
-	{ this.macAddress = mac; }
+	{ this.macAddress = (null == mac) ? null : MACAddress.intern(mac); }
 	
 	public MACAddress getMacAddress()
 	{ return this.macAddress; }
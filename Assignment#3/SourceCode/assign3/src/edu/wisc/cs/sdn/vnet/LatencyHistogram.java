@@ -0,0 +1,126 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, laid out like HdrHistogram:
+ * values below SUB_BUCKETS are counted exactly, and each power of two
+ * above is split into SUB_BUCKETS / 2 linear buckets, so every value is
+ * counted to within 1/64 (1.6%) of itself. Recording is one atomic
+ * increment and never allocates, so it can be done on the packet path
+ * from several threads. Values above about 18 minutes are counted as 18
+ * minutes.
+ */
+public class LatencyHistogram
+{
+	/** log2 of the number of exact buckets */
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS / 2;
+
+	/** log2 of the largest value tracked */
+	private static final int MAX_BITS = 40;
+	private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong total = new AtomicLong();
+
+	public LatencyHistogram()
+	{ this.counts = new AtomicLongArray(index(MAX_VALUE) + 1); }
+
+	/** Bucket of a value */
+	static int index(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{ return (int)value; }
+		// Shift the value down until it has SUB_BUCKET_BITS bits
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + (shift - 1) * HALF + (int)(value >>> shift) - HALF;
+	}
+
+	/** Largest value counted in a bucket */
+	static long highestValue(int index)
+	{
+		if (index < SUB_BUCKETS)
+		{ return index; }
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long mantissa = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/**
+	 * Count a latency.
+	 * @param nanos the latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos)
+	{
+		long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		this.counts.incrementAndGet(index(value));
+		this.total.addAndGet(value);
+	}
+
+	/**
+	 * Forget every latency counted.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < this.counts.length(); i++)
+		{ this.counts.set(i, 0); }
+		this.total.set(0);
+	}
+
+	/**
+	 * Summarize the histogram. Recording may go on meanwhile; the summary
+	 * is taken from one copy of the counts.
+	 * @param percentiles percentiles to report, each from 0 to 100
+	 * @return the number of latencies counted, their mean, the latency
+	 *         at each percentile and the largest latency, in that order;
+	 *         latencies are the highest value of their bucket
+	 */
+	public long[] summarize(double... percentiles)
+	{
+		long[] copy = new long[this.counts.length()];
+		long count = 0;
+		for (int i = 0; i < copy.length; i++)
+		{
+			copy[i] = this.counts.get(i);
+			count += copy[i];
+		}
+		long[] result = new long[percentiles.length + 3];
+		result[0] = count;
+		result[1] = (0 == count) ? 0 : this.total.get() / count;
+		if (0 == count)
+		{ return result; }
+
+		for (int p = 0; p < percentiles.length; p++)
+		{
+			long rank = Math.max(1, (long)Math.ceil(percentiles[p] / 100.0 * count));
+			long seen = 0;
+			for (int i = 0; i < copy.length; i++)
+			{
+				seen += copy[i];
+				if (seen >= rank)
+				{
+					result[p + 2] = highestValue(i);
+					break;
+				}
+			}
+		}
+		for (int i = copy.length - 1; i >= 0; i--)
+		{
+			if (copy[i] != 0)
+			{
+				result[result.length - 1] = highestValue(i);
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of latencies counted
+	 */
+	public long getCount()
+	{ return this.summarize()[0]; }
+}
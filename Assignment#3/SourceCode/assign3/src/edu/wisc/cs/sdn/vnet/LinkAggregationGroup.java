@@ -0,0 +1,169 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.util.List;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.FlowKey;
+
+/**
+ * A group of interfaces bundled into one logical link. Packets sent on the
+ * group are spread over the members by a hash of their L2/L3/L4 headers, so
+ * all packets of a flow leave on the same member and stay in order.
+ */
+public class LinkAggregationGroup
+{
+	/** Time (in milliseconds) a member is skipped after a failed send */
+	public static final long HOLD_DOWN_TIME = 3000;
+
+	/** Scratch keys for flowHash, which runs on several threads */
+	private static final ThreadLocal<FlowKey> flowKeys =
+			ThreadLocal.withInitial(FlowKey::new);
+
+	/** Name of the group */
+	private String name;
+
+	/** Member interfaces; the first member represents the group */
+	private Iface[] members;
+
+	/** Time (in milliseconds since the epoch) until which each member is
+	 *  considered down */
+	private long[] downUntil;
+
+	/**
+	 * Create a link aggregation group.
+	 * @param name name of the group
+	 * @param members member interfaces, at least one
+	 */
+	public LinkAggregationGroup(String name, List<Iface> members)
+	{
+		this.name = name;
+		this.members = members.toArray(new Iface[members.size()]);
+		this.downUntil = new long[this.members.length];
+	}
+
+	/**
+	 * @return name of the group
+	 */
+	public String getName()
+	{ return this.name; }
+
+	/**
+	 * @return the member interfaces
+	 */
+	public Iface[] getMembers()
+	{ return this.members; }
+
+	/**
+	 * @return the member which stands for the whole group in forwarding
+	 *         tables, route tables and floods
+	 */
+	public Iface getPrimary()
+	{ return this.members[0]; }
+
+	/**
+	 * @param iface an interface
+	 * @return true if the interface is a member of the group
+	 */
+	public boolean contains(Iface iface)
+	{
+		for (Iface member : this.members)
+		{
+			if (member == iface)
+			{ return true; }
+		}
+		return false;
+	}
+
+	/**
+	 * @param index index of a member
+	 * @param now current time in milliseconds since the epoch
+	 * @return true if the member is not being held down
+	 */
+	public boolean isUp(int index, long now)
+	{ return this.downUntil[index] <= now; }
+
+	/**
+	 * Take a member out of service for {@link #HOLD_DOWN_TIME}.
+	 * @param index index of the member
+	 */
+	public void markDown(int index)
+	{
+		this.downUntil[index] = System.currentTimeMillis() + HOLD_DOWN_TIME;
+		System.err.println(String.format("LAG %s: member %s down", this.name,
+				this.members[index].getName()));
+	}
+
+	/**
+	 * Pick the member a packet should be sent on.
+	 * @param hash flow hash of the packet
+	 * @param now current time in milliseconds since the epoch
+	 * @return index of the chosen member; -1 if all members are down
+	 */
+	public int selectMember(int hash, long now)
+	{
+		int upCount = 0;
+		for (int i = 0; i < this.members.length; i++)
+		{
+			if (this.isUp(i, now))
+			{ upCount++; }
+		}
+		if (0 == upCount)
+		{ return -1; }
+
+		int pick = (hash & 0x7fffffff) % upCount;
+		for (int i = 0; i < this.members.length; i++)
+		{
+			if (this.isUp(i, now) && (0 == pick--))
+			{ return i; }
+		}
+		return -1;
+	}
+
+	/**
+	 * Send a packet on the group, failing over to the remaining members if
+	 * the chosen member cannot send.
+	 * @param device the device the group belongs to
+	 * @param etherPacket the packet to send
+	 * @return true if the packet was sent on some member, otherwise false
+	 */
+	public boolean send(Device device, Ethernet etherPacket)
+	{
+		int hash = flowHash(etherPacket);
+		while (true)
+		{
+			int index = this.selectMember(hash, System.currentTimeMillis());
+			if (index < 0)
+			{ return false; }
+			if (device.sendPhysical(etherPacket, this.members[index]))
+			{ return true; }
+			this.markDown(index);
+		}
+	}
+
+	/**
+	 * Compute a hash over the flow identifying fields of a packet: the IP
+	 * 5-tuple for IPv4 packets, the MAC addresses otherwise.
+	 * @param etherPacket the packet
+	 * @return the flow hash
+	 */
+	public static int flowHash(Ethernet etherPacket)
+	{
+		FlowKey key = flowKeys.get();
+		if (key.extract(etherPacket))
+		{ return key.hash(); }
+		return (int)FlowKey.mix64(etherPacket.getSourceMACLong() * 31
+				+ etherPacket.getDestinationMACLong());
+	}
+
+	public String toString()
+	{
+		String result = this.name + "\t";
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < this.members.length; i++)
+		{
+			result += this.members[i].getName()
+					+ (this.isUp(i, now) ? "" : "(down)") + " ";
+		}
+		return result;
+	}
+}
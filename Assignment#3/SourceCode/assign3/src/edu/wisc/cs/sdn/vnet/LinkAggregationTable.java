@@ -0,0 +1,141 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Link aggregation groups configured on a device.
+ */
+public class LinkAggregationTable
+{
+	/** Groups; maps a group name to the group */
+	private Map<String,LinkAggregationGroup> groups;
+
+	/** Maps each member interface to the group it belongs to */
+	private Map<Iface,LinkAggregationGroup> memberOf;
+
+	/**
+	 * Initialize an empty link aggregation table.
+	 */
+	public LinkAggregationTable()
+	{
+		this.groups = new HashMap<String,LinkAggregationGroup>();
+		this.memberOf = new HashMap<Iface,LinkAggregationGroup>();
+	}
+
+	/**
+	 * @param iface an interface on the device
+	 * @return the group the interface is a member of; null if none
+	 */
+	public LinkAggregationGroup getGroup(Iface iface)
+	{ return this.memberOf.get(iface); }
+
+	/**
+	 * @return true if no groups are configured
+	 */
+	public boolean isEmpty()
+	{ return this.groups.isEmpty(); }
+
+	/**
+	 * Add a group to the table.
+	 * @param group the group to add
+	 */
+	public void insert(LinkAggregationGroup group)
+	{
+		this.groups.put(group.getName(), group);
+		for (Iface member : group.getMembers())
+		{ this.memberOf.put(member, group); }
+	}
+
+	/**
+	 * Populate the table from a file. Each line names a group followed by
+	 * two or more member interfaces, e.g. "lag0 eth1 eth2".
+	 * @param filename name of the file containing the groups
+	 * @param device the device the groups are configured on
+	 * @return true if the groups were successfully loaded, otherwise false
+	 */
+	public boolean load(String filename, Device device)
+	{
+		// Open the file
+		BufferedReader reader;
+		try
+		{
+			FileReader fileReader = new FileReader(filename);
+			reader = new BufferedReader(fileReader);
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+
+		while (true)
+		{
+			// Read a group from the file
+			String line = null;
+			try
+			{ line = reader.readLine(); }
+			catch (IOException e)
+			{
+				System.err.println(e.toString());
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			// Stop if we have reached the end of the file
+			if (null == line)
+			{ break; }
+
+			line = line.trim();
+			if (0 == line.length() || line.startsWith("#"))
+			{ continue; }
+
+			// Parse fields for group
+			String[] fields = line.split("\\s+");
+			if (fields.length < 3)
+			{
+				System.err.println("Invalid entry in link aggregation file");
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			List<Iface> members = new ArrayList<Iface>();
+			for (int i = 1; i < fields.length; i++)
+			{
+				Iface iface = device.getInterface(fields[i]);
+				if (null == iface || this.memberOf.containsKey(iface))
+				{
+					System.err.println("Error loading link aggregation, invalid "
+							+ "or duplicate interface " + fields[i]);
+					try { reader.close(); } catch (IOException f) {};
+					return false;
+				}
+				members.add(iface);
+			}
+
+			// Add the group to the table
+			this.insert(new LinkAggregationGroup(fields[0], members));
+		}
+
+		// Close the file
+		try { reader.close(); } catch (IOException f) {};
+		return true;
+	}
+
+	public String toString()
+	{
+		if (0 == this.groups.size())
+		{ return " WARNING: no link aggregation groups"; }
+
+		String result = "Group\tMembers\n";
+		for (LinkAggregationGroup group : this.groups.values())
+		{ result += group.toString()+"\n"; }
+		return result;
+	}
+}
@@ -1,6 +1,13 @@
 package edu.wisc.cs.sdn.vnet;
 
+import java.io.IOException;
+
+import edu.wisc.cs.sdn.vnet.rt.EgressScheduler;
+import edu.wisc.cs.sdn.vnet.rt.FlowMeter;
+import edu.wisc.cs.sdn.vnet.rt.IcmpRateLimiter;
+import edu.wisc.cs.sdn.vnet.rt.IpfixExporter;
 import edu.wisc.cs.sdn.vnet.rt.Router;
+import edu.wisc.cs.sdn.vnet.rt.RouterSnapshot;
 import edu.wisc.cs.sdn.vnet.sw.Switch;
 import edu.wisc.cs.sdn.vnet.vns.Command;
 import edu.wisc.cs.sdn.vnet.vns.VNSComm;
@@ -17,6 +24,23 @@ public class Main
 		String routeTableFile = null;
 		String arpCacheFile = null;
 		String logfile = null;
+		String lagFile = null;
+		String aclFile = null;
+		long stormPps = 0;
+		long stormBps = 0;
+		long icmpRate = IcmpRateLimiter.DEFAULT_GLOBAL_RATE;
+		long icmpDestinationRate = IcmpRateLimiter.DEFAULT_DESTINATION_RATE;
+		int[] queueWeights = null;
+		int queueLimit = EgressScheduler.DEFAULT_QUEUE_LIMIT;
+		boolean queueRed = false;
+		int connTrackCapacity = 0;
+		String flowCollector = null;
+		String flowFile = null;
+		int flowSampling = FlowMeter.DEFAULT_SAMPLING_INTERVAL;
+		boolean traceStages = false;
+		boolean watchFiles = false;
+		String snapshotFile = null;
+		boolean compressFib = false;
 		short port = DEFAULT_PORT;
 		VNSComm vnsComm = null;
 		Device dev = null;
@@ -42,6 +66,40 @@ public class Main
 			{ routeTableFile = args[++i]; }
 			else if (arg.equals("-a"))
 			{ arpCacheFile = args[++i]; }
+			else if (arg.equals("-g"))
+			{ lagFile = args[++i]; }
+			else if (arg.equals("-f"))
+			{ aclFile = args[++i]; }
+			else if (arg.equals("-b"))
+			{ stormPps = Long.parseLong(args[++i]); }
+			else if (arg.equals("-B"))
+			{ stormBps = Long.parseLong(args[++i]); }
+			else if (arg.equals("-i"))
+			{ icmpRate = Long.parseLong(args[++i]); }
+			else if (arg.equals("-I"))
+			{ icmpDestinationRate = Long.parseLong(args[++i]); }
+			else if (arg.equals("-q"))
+			{ queueWeights = parseWeights(args[++i]); }
+			else if (arg.equals("-Q"))
+			{ queueLimit = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-e"))
+			{ queueRed = true; }
+			else if (arg.equals("-c"))
+			{ connTrackCapacity = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-x"))
+			{ flowCollector = args[++i]; }
+			else if (arg.equals("-X"))
+			{ flowFile = args[++i]; }
+			else if (arg.equals("-n"))
+			{ flowSampling = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-t"))
+			{ traceStages = true; }
+			else if (arg.equals("-w"))
+			{ watchFiles = true; }
+			else if (arg.equals("-S"))
+			{ snapshotFile = args[++i]; }
+			else if (arg.equals("-z"))
+			{ compressFib = true; }
 		}
 		
 		if (null == host)
@@ -75,6 +133,13 @@ public class Main
 			return;
 		}
 		
+		// Stage latency tracing can be switched on and off over JMX
+		if (dev.getStageTracer() != null)
+		{
+			dev.getStageTracer().register(host);
+			dev.getStageTracer().setEnabled(traceStages);
+		}
+		
 		// Connect to Virtual Network Simulator server and negotiate session
 		System.out.println(String.format("Connecting to server %s:%d", 
 				server, port));
@@ -83,6 +148,17 @@ public class Main
 		{ System.exit(1); }
 		vnsComm.readFromServerExpect(Command.VNS_HW_INFO);	
 		
+		// Read link aggregation groups
+		if (lagFile != null)
+		{ dev.loadLinkAggregation(lagFile); }
+		
+		if (dev instanceof Switch)
+		{
+			// Enable storm control
+			if (stormPps > 0 || stormBps > 0)
+			{ ((Switch)dev).setStormControl(stormPps, stormBps); }
+		}
+
 		if (dev instanceof Router) 
 		{
 			// Read static route table
@@ -90,9 +166,54 @@ public class Main
 			{ ((Router)dev).loadRouteTable(routeTableFile); }
 			else { ((Router)dev).initRouterTable(); }
 			
+			// Forward by a compressed copy of the route table
+			if (compressFib)
+			{ ((Router)dev).setFibCompression(true); }
+			
 			// Read static ACP cache
 			if (arpCacheFile != null)
 			{ ((Router)dev).loadArpCache(arpCacheFile); }
+
+			// Read packet filter
+			if (aclFile != null && !((Router)dev).loadAcl(aclFile))
+			{ System.exit(1); }
+
+			// Limit the rate of ICMP errors
+			((Router)dev).setIcmpRateLimit(icmpRate, icmpDestinationRate);
+
+			// Track connections
+			if (connTrackCapacity > 0)
+			{ ((Router)dev).setConnTrack(connTrackCapacity); }
+
+			// Export sampled flows
+			if (flowCollector != null || flowFile != null)
+			{
+				FlowMeter meter = createFlowMeter(flowCollector, flowFile,
+						flowSampling);
+				if (null == meter)
+				{ System.exit(1); }
+				((Router)dev).setFlowMeter(meter);
+			}
+
+			// Queue packets by DSCP class
+			if (queueWeights != null)
+			{ ((Router)dev).setEgressQueuing(queueWeights, queueLimit, queueRed); }
+
+			// Restore the state learned before a restart, and keep saving
+			// it; learned routes only exist when RIP is running
+			if (snapshotFile != null)
+			{
+				RouterSnapshot snapshot = new RouterSnapshot((Router)dev,
+						snapshotFile, RouterSnapshot.DEFAULT_INTERVAL);
+				snapshot.restore(null == routeTableFile);
+				((Router)dev).setSnapshot(snapshot);
+			}
+
+			// Reload the static tables and packet filter when their files
+			// change
+			if (watchFiles && !watchFiles((Router)dev, routeTableFile,
+					arpCacheFile, aclFile))
+			{ System.exit(1); }
 		}
 
 		// Read messages from the server until the server closes the connection
@@ -103,12 +224,108 @@ public class Main
 		dev.destroy();
 	}
 	
+	/**
+	 * Watch the router's route table, ARP cache and packet filter files,
+	 * any of which may be null, and reload each when it changes.
+	 */
+	static boolean watchFiles(final Router router, final String routeTableFile,
+			final String arpCacheFile, final String aclFile)
+	{
+		try
+		{
+			FileWatcher watcher = new FileWatcher();
+			if (routeTableFile != null)
+			{ watcher.watch(routeTableFile, () -> router.reloadRouteTable(routeTableFile)); }
+			if (arpCacheFile != null)
+			{ watcher.watch(arpCacheFile, () -> router.reloadArpCache(arpCacheFile)); }
+			if (aclFile != null)
+			{ watcher.watch(aclFile, () -> router.loadAcl(aclFile)); }
+			watcher.start();
+			return true;
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error watching files: " + e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Parse comma separated queue weights, e.g. "8,4,1".
+	 */
+	static int[] parseWeights(String weights)
+	{
+		String[] fields = weights.split(",");
+		int[] result = new int[fields.length];
+		for (int i = 0; i < fields.length; i++)
+		{ result[i] = Integer.parseInt(fields[i].trim()); }
+		return result;
+	}
+	
+	/**
+	 * Create a flow meter exporting to a collector ("host[:port]") or, if
+	 * no collector is given, to a file.
+	 */
+	static FlowMeter createFlowMeter(String collector, String filename,
+			int sampling)
+	{
+		IpfixExporter exporter;
+		try
+		{
+			if (collector != null)
+			{
+				int colon = collector.lastIndexOf(':');
+				String collectorHost = (colon < 0) ? collector
+						: collector.substring(0, colon);
+				int collectorPort = (colon < 0) ? IpfixExporter.DEFAULT_PORT
+						: Integer.parseInt(collector.substring(colon + 1));
+				exporter = IpfixExporter.toCollector(collectorHost,
+						collectorPort, 0);
+			}
+			else
+			{ exporter = IpfixExporter.toFile(filename, 0); }
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error opening flow export: " + e.getMessage());
+			return null;
+		}
+		return new FlowMeter(sampling, FlowMeter.DEFAULT_CACHE_SIZE,
+				FlowMeter.DEFAULT_ACTIVE_TIMEOUT, FlowMeter.DEFAULT_IDLE_TIMEOUT,
+				exporter);
+	}
+	
 	static void usage()
 	{
 		System.out.println("Virtual Network Client");
 		System.out.println("VNet -v host [-s server] [-p port] [-h]");
 		System.out.println("     [-r routing_table] [-a arp_cache] [-l log_file]");
+		System.out.println("     [-f acl_rules] [-c conntrack_flows]");
+		System.out.println("     [-x ipfix_collector[:port] | -X ipfix_file] [-n sampling]");
+		System.out.println("     [-g lag_groups] [-b storm_pps] [-B storm_bps]");
+		System.out.println("     [-i icmp_error_pps] [-I icmp_error_pps_per_dest]");
+		System.out.println("     [-q ef,be,bulk_weights] [-Q queue_limit] [-e] [-t] [-w]");
+		System.out.println("     [-S snapshot_file] [-z]");
 		System.out.println(String.format("  defaults server=%s port=%d", 
 				DEFAULT_SERVER, DEFAULT_PORT));
+		System.out.println(String.format(
+				"           icmp_error_pps=%d icmp_error_pps_per_dest=%d",
+				IcmpRateLimiter.DEFAULT_GLOBAL_RATE,
+				IcmpRateLimiter.DEFAULT_DESTINATION_RATE));
+		System.out.println(String.format(
+				"           queue_limit=%d; -e selects RED instead of tail drop",
+				EgressScheduler.DEFAULT_QUEUE_LIMIT));
+		System.out.println(String.format(
+				"           sampling=%d (meter one packet in sampling)",
+				FlowMeter.DEFAULT_SAMPLING_INTERVAL));
+		System.out.println("  -t traces stage latencies from the start; "
+				+ "see the StageTracer MBean");
+		System.out.println("  -r also takes a route image compiled with "
+				+ "edu.wisc.cs.sdn.vnet.rt.RouteImage");
+		System.out.println("  -w reloads the -r, -a and -f files when they change");
+		System.out.println("  -z forwards by a compressed copy of the route table");
+		System.out.println(String.format(
+				"  -S restores learned ARP entries and routes at startup and "
+				+ "saves them every %d s", RouterSnapshot.DEFAULT_INTERVAL));
 	}
 }
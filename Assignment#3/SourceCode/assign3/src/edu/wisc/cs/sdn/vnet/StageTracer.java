@@ -0,0 +1,135 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Times the stages a device takes a packet through, into one latency
+ * histogram per stage and one for the whole of each packet that completes
+ * every stage. A packet's timestamp is threaded through the stages:
+ *
+ *     long t = tracer.start();
+ *     ...parse...
+ *     t = tracer.mark(PARSE, t);
+ *     ...send...
+ *     tracer.end(SEND, t, start);
+ *
+ * While tracing is off, start() returns 0 and the other calls return at
+ * once, so the cost is one volatile read per packet. Tracing is switched
+ * on and off, and the histograms read, through JMX.
+ */
+public class StageTracer implements StageTracerMBean
+{
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+	private final String[] stages;
+	private final LatencyHistogram[] histograms;
+	private final LatencyHistogram total;
+	private volatile boolean enabled;
+
+	/**
+	 * Create a tracer; tracing is off until enabled.
+	 * @param stages names of the stages, in order
+	 */
+	public StageTracer(String... stages)
+	{
+		this.stages = stages.clone();
+		this.histograms = new LatencyHistogram[stages.length];
+		for (int s = 0; s < stages.length; s++)
+		{ this.histograms[s] = new LatencyHistogram(); }
+		this.total = new LatencyHistogram();
+	}
+
+	public boolean isEnabled()
+	{ return this.enabled; }
+
+	public void setEnabled(boolean enabled)
+	{ this.enabled = enabled; }
+
+	/**
+	 * Start timing a packet.
+	 * @return the packet's start time, or 0 if tracing is off
+	 */
+	public long start()
+	{ return this.enabled ? System.nanoTime() : 0; }
+
+	/**
+	 * Record the end of a stage.
+	 * @param stage index of the stage
+	 * @param since when the stage began, as returned by start() or mark()
+	 * @return when the stage ended, or 0 if the packet is not traced
+	 */
+	public long mark(int stage, long since)
+	{
+		if (0 == since)
+		{ return 0; }
+		long now = System.nanoTime();
+		this.histograms[stage].record(now - since);
+		return now;
+	}
+
+	/**
+	 * Record the end of the last stage, and of the packet.
+	 * @param stage index of the stage
+	 * @param since when the stage began
+	 * @param start when the packet started, as returned by start()
+	 */
+	public void end(int stage, long since, long start)
+	{
+		long now = this.mark(stage, since);
+		if (now != 0)
+		{ this.total.record(now - start); }
+	}
+
+	public void reset()
+	{
+		for (LatencyHistogram histogram : this.histograms)
+		{ histogram.reset(); }
+		this.total.reset();
+	}
+
+	/**
+	 * @return number of packets that completed every stage while traced
+	 */
+	public long getCount()
+	{ return this.total.getCount(); }
+
+	/**
+	 * Register the tracer with the platform MBean server, so it can be
+	 * managed over JMX.
+	 * @param host name of the device, which names the MBean
+	 */
+	public void register(String host)
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("edu.wisc.cs.sdn.vnet:type=StageTracer,name="
+							+ ObjectName.quote(host)));
+		}
+		catch (JMException e)
+		{ System.err.println("Error registering stage tracer: " + e); }
+	}
+
+	public String snapshot()
+	{
+		String result = "Stage\t\tCount\tMean\tp50\tp90\tp99\tp99.9\tMax (ns)\n";
+		for (int s = 0; s <= this.stages.length; s++)
+		{
+			LatencyHistogram histogram = (s < this.stages.length)
+					? this.histograms[s] : this.total;
+			long[] summary = histogram.summarize(PERCENTILES);
+			result += String.format("%-12s", (s < this.stages.length)
+					? this.stages[s] : "total");
+			for (long value : summary)
+			{ result += "\t" + value; }
+			result += "\n";
+		}
+		return result;
+	}
+
+	public String toString()
+	{ return "Stage latency\n" + this.snapshot(); }
+}
@@ -0,0 +1,22 @@
+package edu.wisc.cs.sdn.vnet;
+
+/**
+ * Management interface of a {@link StageTracer}, for switching tracing on
+ * and off and reading the histograms at runtime, e.g. from jconsole.
+ */
+public interface StageTracerMBean
+{
+	public boolean isEnabled();
+
+	public void setEnabled(boolean enabled);
+
+	/**
+	 * @return a table of the latency of each stage
+	 */
+	public String snapshot();
+
+	/**
+	 * Forget the latencies recorded so far.
+	 */
+	public void reset();
+}
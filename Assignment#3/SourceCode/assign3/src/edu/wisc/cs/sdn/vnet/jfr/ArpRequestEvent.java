@@ -0,0 +1,43 @@
+package edu.wisc.cs.sdn.vnet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.floodlightcontroller.packet.IPv4;
+
+/**
+ * An ARP request sent for a next hop whose MAC address is not cached.
+ */
+@Name("edu.wisc.cs.sdn.vnet.ArpRequest")
+@Label("ARP Request")
+@Category({"VNet", "Control Plane"})
+@Description("An ARP request sent to resolve a next hop")
+@StackTrace(false)
+public class ArpRequestEvent extends Event
+{
+	@Label("Interface")
+	public String iface;
+
+	@Label("Target")
+	public String target;
+
+	/**
+	 * Record a request, if the event is being recorded.
+	 * @param iface name of the interface the request is sent on
+	 * @param target IP address being resolved
+	 */
+	public static void emit(String iface, int target)
+	{
+		ArpRequestEvent event = new ArpRequestEvent();
+		if (event.shouldCommit())
+		{
+			event.iface = iface;
+			event.target = IPv4.fromIPv4Address(target);
+			event.commit();
+		}
+	}
+}
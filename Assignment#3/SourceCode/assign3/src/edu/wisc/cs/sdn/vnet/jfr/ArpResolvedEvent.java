@@ -0,0 +1,44 @@
+package edu.wisc.cs.sdn.vnet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+
+/**
+ * An IP address bound to a MAC address in the ARP cache.
+ */
+@Name("edu.wisc.cs.sdn.vnet.ArpResolved")
+@Label("ARP Resolved")
+@Category({"VNet", "Control Plane"})
+@Description("An entry added to the ARP cache")
+@StackTrace(false)
+public class ArpResolvedEvent extends Event
+{
+	@Label("Address")
+	public String address;
+
+	@Label("MAC Address")
+	public String mac;
+
+	/**
+	 * Record a binding, if the event is being recorded.
+	 * @param address the IP address
+	 * @param mac the MAC address it is bound to
+	 */
+	public static void emit(int address, MACAddress mac)
+	{
+		ArpResolvedEvent event = new ArpResolvedEvent();
+		if (event.shouldCommit())
+		{
+			event.address = IPv4.fromIPv4Address(address);
+			event.mac = mac.toString();
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package edu.wisc.cs.sdn.vnet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A packet the device dropped, and why.
+ */
+@Name("edu.wisc.cs.sdn.vnet.PacketDropped")
+@Label("Packet Dropped")
+@Category({"VNet", "Data Plane"})
+@Description("A packet dropped instead of being forwarded")
+@StackTrace(false)
+public class PacketDroppedEvent extends Event
+{
+	public static final String NOT_IP = "not IPv4";
+	public static final String BAD_CHECKSUM = "bad checksum";
+	public static final String ACL_DENY = "denied by ACL";
+	public static final String TTL_EXCEEDED = "TTL exceeded";
+	public static final String NO_ROUTE = "no route";
+	public static final String SAME_INTERFACE = "route back out the input interface";
+	public static final String STORM_CONTROL = "storm control";
+
+	@Label("Interface")
+	@Description("Interface the packet arrived on")
+	public String iface;
+
+	@Label("Reason")
+	public String reason;
+
+	/**
+	 * Record a drop, if the event is being recorded.
+	 * @param iface name of the interface the packet arrived on
+	 * @param reason why it was dropped
+	 */
+	public static void emit(String iface, String reason)
+	{
+		PacketDroppedEvent event = new PacketDroppedEvent();
+		if (event.shouldCommit())
+		{
+			event.iface = iface;
+			event.reason = reason;
+			event.commit();
+		}
+	}
+}
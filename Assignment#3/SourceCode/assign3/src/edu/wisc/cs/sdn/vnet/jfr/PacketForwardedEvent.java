@@ -0,0 +1,73 @@
+package edu.wisc.cs.sdn.vnet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+
+/**
+ * A packet forwarded, timed from its arrival to its hand-off for sending.
+ * Only packets slower than the threshold are recorded by default, so
+ * normal forwarding costs a timestamp and a comparison.
+ */
+@Name("edu.wisc.cs.sdn.vnet.PacketForwarded")
+@Label("Packet Forwarded")
+@Category({"VNet", "Data Plane"})
+@Description("A packet forwarded, from arrival to hand-off for sending")
+@Threshold("1 ms")
+@StackTrace(false)
+public class PacketForwardedEvent extends Event
+{
+	@Label("Input Interface")
+	public String inIface;
+
+	@Label("Output Interface")
+	public String outIface;
+
+	@Label("Destination")
+	@Description("Destination IP address, or MAC address for a frame a switch forwards")
+	public String destination;
+
+	/**
+	 * End the event and record it, if it is being recorded and took
+	 * longer than the threshold.
+	 * @param inIface name of the interface the packet arrived on
+	 * @param outIface name of the interface the packet is sent on, or
+	 *        "flood" if it is sent on several
+	 * @param destination the frame's destination MAC address, in the lower
+	 *        48 bits of a long
+	 */
+	public void forwarded(String inIface, String outIface, long destination)
+	{
+		this.end();
+		if (this.shouldCommit())
+		{
+			this.inIface = inIface;
+			this.outIface = outIface;
+			this.destination = MACAddress.toString(destination);
+			this.commit();
+		}
+	}
+
+	/**
+	 * End the event for an IP packet; see the other forwarded().
+	 * @param destination the packet's destination IP address
+	 */
+	public void forwarded(String inIface, String outIface, int destination)
+	{
+		this.end();
+		if (this.shouldCommit())
+		{
+			this.inIface = inIface;
+			this.outIface = outIface;
+			this.destination = IPv4.fromIPv4Address(destination);
+			this.commit();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package edu.wisc.cs.sdn.vnet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.MACAddress;
+
+/**
+ * A frame handed to the device. There is one per packet, so the event is
+ * off unless a recording turns it on.
+ */
+@Name("edu.wisc.cs.sdn.vnet.PacketReceived")
+@Label("Packet Received")
+@Category({"VNet", "Data Plane"})
+@Description("A frame received on an interface")
+@Enabled(false)
+@StackTrace(false)
+public class PacketReceivedEvent extends Event
+{
+	@Label("Interface")
+	public String iface;
+
+	@Label("EtherType")
+	public int etherType;
+
+	@Label("Source MAC")
+	public String source;
+
+	@Label("Destination MAC")
+	public String destination;
+
+	/**
+	 * Record a received frame, if the event is being recorded.
+	 * @param iface name of the interface the frame arrived on
+	 * @param etherPacket the frame
+	 */
+	public static void emit(String iface, Ethernet etherPacket)
+	{
+		PacketReceivedEvent event = new PacketReceivedEvent();
+		if (event.shouldCommit())
+		{
+			event.iface = iface;
+			event.etherType = etherPacket.getEtherType() & 0xffff;
+			event.source = MACAddress.toString(etherPacket.getSourceMACLong());
+			event.destination = MACAddress.toString(etherPacket.getDestinationMACLong());
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package edu.wisc.cs.sdn.vnet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.floodlightcontroller.packet.IPv4;
+
+/**
+ * A RIP message from a neighbour, and whether it changed any route.
+ */
+@Name("edu.wisc.cs.sdn.vnet.RipUpdateReceived")
+@Label("RIP Update Received")
+@Category({"VNet", "Control Plane"})
+@Description("A RIP message received from a neighbour")
+@StackTrace(false)
+public class RipUpdateReceivedEvent extends Event
+{
+	@Label("Interface")
+	public String iface;
+
+	@Label("Source")
+	public String source;
+
+	@Label("Command")
+	@Description("1 for a request, 2 for a response")
+	public byte command;
+
+	@Label("Routes")
+	public int routes;
+
+	@Label("Changed")
+	@Description("Whether the message changed the distance vector table")
+	public boolean changed;
+
+	/**
+	 * Record a message received, if the event is being recorded.
+	 * @param iface name of the interface the message arrived on
+	 * @param source IP address of the neighbour
+	 * @param command RIP command
+	 * @param routes number of routes in the message
+	 * @param changed true if the message changed any route
+	 */
+	public static void emit(String iface, int source, byte command, int routes,
+			boolean changed)
+	{
+		RipUpdateReceivedEvent event = new RipUpdateReceivedEvent();
+		if (event.shouldCommit())
+		{
+			event.iface = iface;
+			event.source = IPv4.fromIPv4Address(source);
+			event.command = command;
+			event.routes = routes;
+			event.changed = changed;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package edu.wisc.cs.sdn.vnet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.floodlightcontroller.packet.IPv4;
+
+/**
+ * A RIP request or response sent on one interface.
+ */
+@Name("edu.wisc.cs.sdn.vnet.RipUpdateSent")
+@Label("RIP Update Sent")
+@Category({"VNet", "Control Plane"})
+@Description("A RIP message sent to neighbours")
+@StackTrace(false)
+public class RipUpdateSentEvent extends Event
+{
+	@Label("Interface")
+	public String iface;
+
+	@Label("Destination")
+	public String destination;
+
+	@Label("Command")
+	@Description("1 for a request, 2 for a response")
+	public byte command;
+
+	@Label("Routes")
+	public int routes;
+
+	/**
+	 * Record a message sent, if the event is being recorded.
+	 * @param iface name of the interface the message is sent on
+	 * @param destination IP address the message is sent to
+	 * @param command RIP command
+	 * @param routes number of routes in the message
+	 */
+	public static void emit(String iface, int destination, byte command, int routes)
+	{
+		RipUpdateSentEvent event = new RipUpdateSentEvent();
+		if (event.shouldCommit())
+		{
+			event.iface = iface;
+			event.destination = IPv4.fromIPv4Address(destination);
+			event.command = command;
+			event.routes = routes;
+			event.commit();
+		}
+	}
+}
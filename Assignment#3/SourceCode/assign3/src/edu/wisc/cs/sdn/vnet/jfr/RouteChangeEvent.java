@@ -0,0 +1,66 @@
+package edu.wisc.cs.sdn.vnet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.floodlightcontroller.packet.IPv4;
+
+/**
+ * A change to the route table.
+ */
+@Name("edu.wisc.cs.sdn.vnet.RouteChange")
+@Label("Route Change")
+@Category({"VNet", "Control Plane"})
+@Description("An entry or path added to, changed in or removed from the route table")
+@StackTrace(false)
+public class RouteChangeEvent extends Event
+{
+	public static final String INSERT = "insert";
+	public static final String UPDATE = "update";
+	public static final String REMOVE = "remove";
+	public static final String ADD_PATH = "add path";
+	public static final String REMOVE_PATH = "remove path";
+
+	@Label("Operation")
+	public String operation;
+
+	@Label("Destination")
+	public String destination;
+
+	@Label("Mask")
+	public String mask;
+
+	@Label("Gateway")
+	public String gateway;
+
+	@Label("Interface")
+	public String iface;
+
+	/**
+	 * Record a change, if the event is being recorded.
+	 * @param operation what was done
+	 * @param destination destination of the entry
+	 * @param mask subnet mask of the entry
+	 * @param gateway gateway of the entry or path; 0 if none or not known
+	 * @param iface name of the interface of the entry or path; null if not
+	 *        known
+	 */
+	public static void emit(String operation, int destination, int mask,
+			int gateway, String iface)
+	{
+		RouteChangeEvent event = new RouteChangeEvent();
+		if (event.shouldCommit())
+		{
+			event.operation = operation;
+			event.destination = IPv4.fromIPv4Address(destination);
+			event.mask = IPv4.fromIPv4Address(mask);
+			event.gateway = IPv4.fromIPv4Address(gateway);
+			event.iface = iface;
+			event.commit();
+		}
+	}
+}
@@ -32,8 +32,11 @@ public class ARPRequestEntry {
 	public ARPRequestEntry(int IP, Ethernet pkt, Iface outIface, Iface inIface) {
 		this.IPAddress = IP;
 		this.etherPktQ = new LinkedList<EthernetPktInfo>();
-		EthernetPktInfo infoNode = new EthernetPktInfo(pkt, inIface);
-		this.etherPktQ.add(infoNode);
+		/* No packet when a stale ARP cache entry is probed */
+		if(pkt != null) {
+			EthernetPktInfo infoNode = new EthernetPktInfo(pkt, inIface);
+			this.etherPktQ.add(infoNode);
+		}
 		this.outIface = outIface;
 		this.nTry = 3;
 		this.destinationMAC = null;
@@ -0,0 +1,306 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.floodlightcontroller.packet.FlowKey;
+
+/**
+ * An access list compiled for tuple space search. Rules are grouped into
+ * tuples by their source prefix length, destination prefix length and
+ * whether they name a protocol. Within a tuple, rules are found with one
+ * hash probe on the masked addresses (and protocol), so a lookup costs one
+ * probe per tuple rather than one comparison per rule; port ranges are
+ * checked only on the few rules that share a bucket. Tuples are searched
+ * best rule first and the search stops as soon as no later tuple can hold
+ * a better match.
+ *
+ * The first rule in the list that matches a packet decides it; a packet no
+ * rule matches is permitted. A classifier is immutable once compiled (apart
+ * from its hit counters), so a new rule set is swapped in by replacing the
+ * reference to it.
+ */
+public class AclClassifier
+{
+	/** Rules in priority order */
+	private final AclRule[] rules;
+
+	/** Tuples, in order of the best rule they hold */
+	private final Tuple[] tuples;
+
+	/** Packets matched, per rule */
+	private final AtomicLongArray hits;
+
+	/**
+	 * Compile a list of rules.
+	 * @param rules the rules, highest priority first
+	 */
+	public AclClassifier(List<AclRule> rules)
+	{
+		this.rules = rules.toArray(new AclRule[rules.size()]);
+		this.hits = new AtomicLongArray(this.rules.length);
+
+		Map<Integer, List<Integer>> byShape = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < this.rules.length; i++)
+		{
+			AclRule rule = this.rules[i];
+			int shape = (rule.getSourceLength() << 16)
+					| (rule.getDestinationLength() << 8)
+					| ((AclRule.ANY_PROTOCOL == rule.getProtocol()) ? 0 : 1);
+			List<Integer> members = byShape.get(shape);
+			if (null == members)
+			{
+				members = new ArrayList<Integer>();
+				byShape.put(shape, members);
+			}
+			members.add(i);
+		}
+
+		List<Tuple> compiled = new ArrayList<Tuple>();
+		for (List<Integer> members : byShape.values())
+		{ compiled.add(new Tuple(this.rules, members)); }
+		compiled.sort(new Comparator<Tuple>()
+		{
+			public int compare(Tuple a, Tuple b)
+			{ return Integer.compare(a.best, b.best); }
+		});
+		this.tuples = compiled.toArray(new Tuple[compiled.size()]);
+	}
+
+	/**
+	 * Load and compile rules from a file, one rule per line (see
+	 * {@link AclRule}). Blank lines and lines starting with # are skipped.
+	 * @param filename name of the file containing the rules
+	 * @return the classifier, or null if the file could not be loaded
+	 */
+	public static AclClassifier load(String filename)
+	{
+		// Open the file
+		BufferedReader reader;
+		try
+		{
+			FileReader fileReader = new FileReader(filename);
+			reader = new BufferedReader(fileReader);
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println(e.toString());
+			return null;
+		}
+
+		List<AclRule> rules = new ArrayList<AclRule>();
+		while (true)
+		{
+			// Read a rule from the file
+			String line = null;
+			try
+			{ line = reader.readLine(); }
+			catch (IOException e)
+			{
+				System.err.println(e.toString());
+				try { reader.close(); } catch (IOException f) {};
+				return null;
+			}
+
+			// Stop if we have reached the end of the file
+			if (null == line)
+			{ break; }
+
+			line = line.trim();
+			if (0 == line.length() || line.startsWith("#"))
+			{ continue; }
+
+			try
+			{ rules.add(AclRule.parse(line)); }
+			catch (IllegalArgumentException e)
+			{
+				System.err.println("Error loading ACL: " + e.getMessage());
+				try { reader.close(); } catch (IOException f) {};
+				return null;
+			}
+		}
+
+		// Close the file
+		try { reader.close(); } catch (IOException f) {};
+		return new AclClassifier(rules);
+	}
+
+	/**
+	 * @return number of rules
+	 */
+	public int size()
+	{ return this.rules.length; }
+
+	/**
+	 * @return number of tuples searched, at most, per lookup
+	 */
+	public int getTupleCount()
+	{ return this.tuples.length; }
+
+	/**
+	 * Find the first rule matching a packet.
+	 * @param source source IP address
+	 * @param destination destination IP address
+	 * @param protocol IP protocol
+	 * @param sourcePort source port, 0 if none
+	 * @param destinationPort destination port, 0 if none
+	 * @return index of the matching rule, or -1 if none matches
+	 */
+	public int lookup(int source, int destination, int protocol,
+			int sourcePort, int destinationPort)
+	{
+		int best = Integer.MAX_VALUE;
+		for (Tuple tuple : this.tuples)
+		{
+			// Tuples are in order of their best rule, so none of the rest
+			// can beat the match found so far
+			if (tuple.best >= best)
+			{ break; }
+			int match = tuple.lookup(source, destination, protocol,
+					sourcePort, destinationPort, best);
+			if (match < best)
+			{ best = match; }
+		}
+		return (Integer.MAX_VALUE == best) ? -1 : best;
+	}
+
+	/**
+	 * Decide whether a packet may pass, counting a hit on the rule that
+	 * decided it.
+	 * @param key the packet's 5-tuple
+	 * @return true if the packet is permitted
+	 */
+	public boolean permits(FlowKey key)
+	{
+		int match = this.lookup(key.getSourceAddress(), key.getDestinationAddress(),
+				key.getProtocol() & 0xff, key.getSourcePort() & 0xffff,
+				key.getDestinationPort() & 0xffff);
+		if (match < 0)
+		{ return true; }
+		this.hits.incrementAndGet(match);
+		return this.rules[match].isPermit();
+	}
+
+	/**
+	 * @param index index of a rule
+	 * @return the rule
+	 */
+	public AclRule getRule(int index)
+	{ return this.rules[index]; }
+
+	/**
+	 * @param index index of a rule
+	 * @return number of packets the rule has decided
+	 */
+	public long getHits(int index)
+	{ return this.hits.get(index); }
+
+	public String toString()
+	{
+		if (0 == this.rules.length)
+		{ return " WARNING: ACL empty\n"; }
+		String result = String.format("%d rules in %d tuples\nHits\tRule\n",
+				this.rules.length, this.tuples.length);
+		for (int i = 0; i < this.rules.length; i++)
+		{ result += this.hits.get(i) + "\t" + this.rules[i] + "\n"; }
+		return result;
+	}
+
+	/**
+	 * Rules of one shape, hashed on their masked addresses and protocol.
+	 * Buckets are open addressed; each holds the indexes of the rules with
+	 * one key, in priority order.
+	 */
+	private static class Tuple
+	{
+		final int sourceMask;
+		final int destinationMask;
+		final boolean hasProtocol;
+		/** Index of the best rule in the tuple */
+		final int best;
+
+		final AclRule[] rules;
+		final long[] addresses;
+		final int[] protocols;
+		final int[][] buckets;
+		final int slotMask;
+
+		Tuple(AclRule[] rules, List<Integer> members)
+		{
+			AclRule first = rules[members.get(0)];
+			this.sourceMask = AclRule.mask(first.getSourceLength());
+			this.destinationMask = AclRule.mask(first.getDestinationLength());
+			this.hasProtocol = first.getProtocol() != AclRule.ANY_PROTOCOL;
+			this.best = members.get(0);
+			this.rules = rules;
+
+			// At most half full, so probe sequences stay short
+			int slots = Integer.highestOneBit(Math.max(members.size(), 1) * 4 - 1);
+			this.addresses = new long[slots];
+			this.protocols = new int[slots];
+			this.buckets = new int[slots][];
+			this.slotMask = slots - 1;
+			for (int index : members)
+			{
+				AclRule rule = rules[index];
+				long address = pack(rule.getSourceAddress(), rule.getDestinationAddress());
+				int slot = this.find(address, rule.getProtocol());
+				if (null == this.buckets[slot])
+				{
+					this.addresses[slot] = address;
+					this.protocols[slot] = rule.getProtocol();
+					this.buckets[slot] = new int[] {index};
+				}
+				else
+				{
+					int[] bucket = Arrays.copyOf(this.buckets[slot],
+							this.buckets[slot].length + 1);
+					bucket[bucket.length - 1] = index;
+					this.buckets[slot] = bucket;
+				}
+			}
+		}
+
+		static long pack(int source, int destination)
+		{ return ((long)source << 32) | (destination & 0xffffffffL); }
+
+		/** Slot holding a key, or the empty slot where it belongs */
+		int find(long address, int protocol)
+		{
+			int slot = (int)FlowKey.mix64(address + protocol) & this.slotMask;
+			while (this.buckets[slot] != null && (this.addresses[slot] != address
+					|| this.protocols[slot] != protocol))
+			{ slot = (slot + 1) & this.slotMask; }
+			return slot;
+		}
+
+		/** Best matching rule better than limit, or MAX_VALUE */
+		int lookup(int source, int destination, int protocol,
+				int sourcePort, int destinationPort, int limit)
+		{
+			int slot = this.find(pack(source & this.sourceMask,
+					destination & this.destinationMask),
+					this.hasProtocol ? protocol : AclRule.ANY_PROTOCOL);
+			int[] bucket = this.buckets[slot];
+			if (null == bucket)
+			{ return Integer.MAX_VALUE; }
+			for (int index : bucket)
+			{
+				if (index >= limit)
+				{ break; }
+				if (this.rules[index].matchesPorts(sourcePort, destinationPort))
+				{ return index; }
+			}
+			return Integer.MAX_VALUE;
+		}
+	}
+}
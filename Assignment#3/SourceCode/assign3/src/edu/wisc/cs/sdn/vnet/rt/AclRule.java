@@ -0,0 +1,226 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import net.floodlightcontroller.packet.IPv4;
+
+/**
+ * A packet filter rule: source and destination prefixes, an optional
+ * protocol and, for TCP and UDP, source and destination port ranges. Rules
+ * are written one per line as
+ *     permit|deny src/len dst/len [protocol [sport[-sport] [dport[-dport]]]]
+ * where a prefix, protocol or port range may be "any", and a protocol is
+ * tcp, udp, icmp or a number, e.g. "deny any 10.0.2.0/24 tcp any 22".
+ */
+public class AclRule
+{
+	/** Protocol of a rule that matches any protocol */
+	public static final int ANY_PROTOCOL = -1;
+
+	private final boolean permit;
+	private final int sourceAddress;
+	private final int sourceLength;
+	private final int destinationAddress;
+	private final int destinationLength;
+	private final int protocol;
+	private final int sourcePortLow;
+	private final int sourcePortHigh;
+	private final int destinationPortLow;
+	private final int destinationPortHigh;
+
+	/**
+	 * Create a rule. Addresses are masked to their prefix length.
+	 * @param permit true to let matching packets through, false to drop them
+	 * @param sourceAddress source prefix
+	 * @param sourceLength source prefix length, 0 to 32
+	 * @param destinationAddress destination prefix
+	 * @param destinationLength destination prefix length, 0 to 32
+	 * @param protocol IP protocol, or ANY_PROTOCOL
+	 * @param sourcePortLow lowest source port matched
+	 * @param sourcePortHigh highest source port matched
+	 * @param destinationPortLow lowest destination port matched
+	 * @param destinationPortHigh highest destination port matched
+	 */
+	public AclRule(boolean permit, int sourceAddress, int sourceLength,
+			int destinationAddress, int destinationLength, int protocol,
+			int sourcePortLow, int sourcePortHigh,
+			int destinationPortLow, int destinationPortHigh)
+	{
+		this.permit = permit;
+		this.sourceLength = sourceLength;
+		this.sourceAddress = sourceAddress & mask(sourceLength);
+		this.destinationLength = destinationLength;
+		this.destinationAddress = destinationAddress & mask(destinationLength);
+		this.protocol = protocol;
+		this.sourcePortLow = sourcePortLow;
+		this.sourcePortHigh = sourcePortHigh;
+		this.destinationPortLow = destinationPortLow;
+		this.destinationPortHigh = destinationPortHigh;
+	}
+
+	/**
+	 * @param length a prefix length, 0 to 32
+	 * @return the subnet mask with that many leading ones
+	 */
+	public static int mask(int length)
+	{ return (0 == length) ? 0 : -1 << (32 - length); }
+
+	/**
+	 * Parse a rule written as described above.
+	 * @param line the rule
+	 * @return the rule
+	 * @throws IllegalArgumentException if the rule is malformed
+	 */
+	public static AclRule parse(String line)
+	{
+		String[] fields = line.trim().split("\\s+");
+		if (fields.length < 3 || fields.length > 6)
+		{ throw new IllegalArgumentException("Invalid ACL rule: " + line); }
+
+		boolean permit;
+		if (fields[0].equalsIgnoreCase("permit"))
+		{ permit = true; }
+		else if (fields[0].equalsIgnoreCase("deny"))
+		{ permit = false; }
+		else
+		{ throw new IllegalArgumentException("Invalid ACL action: " + fields[0]); }
+
+		int[] source = parsePrefix(fields[1]);
+		int[] destination = parsePrefix(fields[2]);
+		int protocol = (fields.length > 3) ? parseProtocol(fields[3]) : ANY_PROTOCOL;
+		int[] sourcePorts = (fields.length > 4) ? parsePorts(fields[4]) : new int[] {0, 65535};
+		int[] destinationPorts = (fields.length > 5) ? parsePorts(fields[5]) : new int[] {0, 65535};
+		if ((fields.length > 4) && protocol != IPv4.PROTOCOL_TCP
+				&& protocol != IPv4.PROTOCOL_UDP)
+		{ throw new IllegalArgumentException("Ports need tcp or udp: " + line); }
+
+		return new AclRule(permit, source[0], source[1], destination[0],
+				destination[1], protocol, sourcePorts[0], sourcePorts[1],
+				destinationPorts[0], destinationPorts[1]);
+	}
+
+	private static int[] parsePrefix(String field)
+	{
+		if (field.equalsIgnoreCase("any"))
+		{ return new int[] {0, 0}; }
+		int slash = field.indexOf('/');
+		String address = (slash < 0) ? field : field.substring(0, slash);
+		int length = (slash < 0) ? 32 : Integer.parseInt(field.substring(slash + 1));
+		if (!address.matches("\\d+\\.\\d+\\.\\d+\\.\\d+") || length < 0 || length > 32)
+		{ throw new IllegalArgumentException("Invalid prefix: " + field); }
+		return new int[] {IPv4.toIPv4Address(address), length};
+	}
+
+	private static int parseProtocol(String field)
+	{
+		if (field.equalsIgnoreCase("any"))
+		{ return ANY_PROTOCOL; }
+		if (field.equalsIgnoreCase("tcp"))
+		{ return IPv4.PROTOCOL_TCP; }
+		if (field.equalsIgnoreCase("udp"))
+		{ return IPv4.PROTOCOL_UDP; }
+		if (field.equalsIgnoreCase("icmp"))
+		{ return IPv4.PROTOCOL_ICMP; }
+		int protocol = Integer.parseInt(field);
+		if (protocol < 0 || protocol > 255)
+		{ throw new IllegalArgumentException("Invalid protocol: " + field); }
+		return protocol;
+	}
+
+	private static int[] parsePorts(String field)
+	{
+		if (field.equalsIgnoreCase("any"))
+		{ return new int[] {0, 65535}; }
+		int dash = field.indexOf('-');
+		int low = Integer.parseInt((dash < 0) ? field : field.substring(0, dash));
+		int high = (dash < 0) ? low : Integer.parseInt(field.substring(dash + 1));
+		if (low < 0 || high > 65535 || low > high)
+		{ throw new IllegalArgumentException("Invalid port range: " + field); }
+		return new int[] {low, high};
+	}
+
+	/**
+	 * @return true if matching packets are let through
+	 */
+	public boolean isPermit()
+	{ return this.permit; }
+
+	public int getSourceAddress()
+	{ return this.sourceAddress; }
+
+	public int getSourceLength()
+	{ return this.sourceLength; }
+
+	public int getDestinationAddress()
+	{ return this.destinationAddress; }
+
+	public int getDestinationLength()
+	{ return this.destinationLength; }
+
+	/**
+	 * @return the IP protocol, or ANY_PROTOCOL
+	 */
+	public int getProtocol()
+	{ return this.protocol; }
+
+	/**
+	 * @param source source port
+	 * @param destination destination port
+	 * @return true if both ports are in the rule's ranges
+	 */
+	public boolean matchesPorts(int source, int destination)
+	{
+		return source >= this.sourcePortLow && source <= this.sourcePortHigh
+				&& destination >= this.destinationPortLow
+				&& destination <= this.destinationPortHigh;
+	}
+
+	/**
+	 * Check a packet against the rule field by field.
+	 * @param source source IP address
+	 * @param destination destination IP address
+	 * @param protocol IP protocol
+	 * @param sourcePort source port, 0 if none
+	 * @param destinationPort destination port, 0 if none
+	 * @return true if the packet matches
+	 */
+	public boolean matches(int source, int destination, int protocol,
+			int sourcePort, int destinationPort)
+	{
+		return (source & mask(this.sourceLength)) == this.sourceAddress
+				&& (destination & mask(this.destinationLength)) == this.destinationAddress
+				&& (ANY_PROTOCOL == this.protocol || protocol == this.protocol)
+				&& this.matchesPorts(sourcePort, destinationPort);
+	}
+
+	/** Format a port range the way parse() reads it */
+	private static String formatPorts(int low, int high)
+	{
+		if (0 == low && 65535 == high)
+		{ return "any"; }
+		return (low == high) ? String.valueOf(low) : low + "-" + high;
+	}
+
+	/**
+	 * @return the rule in the form parse() reads
+	 */
+	public String toString()
+	{
+		String result = String.format("%s %s/%d %s/%d", permit ? "permit" : "deny",
+				IPv4.fromIPv4Address(this.sourceAddress), this.sourceLength,
+				IPv4.fromIPv4Address(this.destinationAddress), this.destinationLength);
+		if (IPv4.PROTOCOL_TCP == this.protocol)
+		{ result += " tcp"; }
+		else if (IPv4.PROTOCOL_UDP == this.protocol)
+		{ result += " udp"; }
+		else if (IPv4.PROTOCOL_ICMP == this.protocol)
+		{ result += " icmp"; }
+		else
+		{ result += " " + ((ANY_PROTOCOL == this.protocol) ? "any" : this.protocol); }
+		if (this.sourcePortLow != 0 || this.sourcePortHigh != 65535
+				|| this.destinationPortLow != 0 || this.destinationPortHigh != 65535)
+		{
+			result += " " + formatPorts(this.sourcePortLow, this.sourcePortHigh)
+					+ " " + formatPorts(this.destinationPortLow, this.destinationPortHigh);
+		}
+		return result;
+	}
+}
@@ -4,7 +4,10 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -12,6 +15,8 @@ import java.util.regex.Pattern;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.MACAddress;
 
+import edu.wisc.cs.sdn.vnet.jfr.ArpResolvedEvent;
+
 /**
  * A cache of MAC address to IP address mappings.
  * @author Aaron Gember-Jacobson
@@ -20,12 +25,22 @@ public class ArpCache
 {		
 	/** Entries in the cache; maps an IP address to an entry */
 	private Map<Integer,ArpEntry> entries;
+
+	/** IP addresses of the entries loaded from a file */
+	private Set<Integer> loaded;
+
+	/** The cache that replaced this one when the file was reloaded; null
+	 * while this cache is in use */
+	private ArpCache replacement;
 	
 	/**
 	 * Initializes an empty ARP cache for a router.
 	 */
 	public ArpCache()
-	{ this.entries = new ConcurrentHashMap<Integer,ArpEntry>(); }
+	{
+		this.entries = new ConcurrentHashMap<Integer,ArpEntry>();
+		this.loaded = ConcurrentHashMap.newKeySet();
+	}
 	
 	/**
 	 * Insert an entry in the ARP cache for a specific IP address, MAC address
@@ -34,7 +49,82 @@ public class ArpCache
 	 * @param ip IP address corresponding to MAC address
 	 */
 	public void insert(MACAddress mac, int ip)
-	{ this.entries.put(ip, new ArpEntry(mac, ip)); }
+	{
+		ArpCache target;
+		synchronized (this)
+		{
+			target = this.replacement;
+			if (null == target)
+			{ this.entries.put(ip, new ArpEntry(mac, ip)); }
+		}
+		if (target != null)
+		{
+			// Learned by a packet handled while the cache was replaced
+			target.insert(mac, ip);
+			return;
+		}
+		ArpResolvedEvent.emit(ip, mac);
+	}
+	
+	/**
+	 * Insert a stale entry, restored from an earlier run, unless the cache
+	 * has one for the IP address. It is used until an ARP reply replaces it
+	 * or it is evicted with removeStale().
+	 * @param mac MAC address corresponding to IP address
+	 * @param ip IP address corresponding to MAC address
+	 * @return true if the entry was inserted
+	 */
+	public boolean insertStale(MACAddress mac, int ip)
+	{
+		ArpCache target;
+		synchronized (this)
+		{
+			target = this.replacement;
+			if (null == target && this.entries.putIfAbsent(ip,
+					new ArpEntry(mac, ip, true)) != null)
+			{ return false; }
+		}
+		if (target != null)
+		{ return target.insertStale(mac, ip); }
+		ArpResolvedEvent.emit(ip, mac);
+		return true;
+	}
+
+	/**
+	 * Remove the entry for an IP address if it is still stale, i.e. no ARP
+	 * reply confirmed it.
+	 * @param ip IP address of the entry
+	 * @return true if a stale entry was removed
+	 */
+	public boolean removeStale(int ip)
+	{
+		ArpEntry entry = this.entries.get(ip);
+		return (entry != null) && entry.isStale() && this.entries.remove(ip, entry);
+	}
+
+	/**
+	 * @return the entries in the cache
+	 */
+	public Collection<ArpEntry> getEntries()
+	{ return Collections.unmodifiableCollection(this.entries.values()); }
+	
+	/**
+	 * Hand this cache over to one reloaded from a file. The entries this
+	 * cache learned from ARP replies, rather than loaded, are copied unless
+	 * the new cache has an entry for the address; entries learned after
+	 * the hand-over are inserted in the new cache, so none are lost while
+	 * packets are still being handled with this one.
+	 * @param other the cache replacing this one, not yet in use
+	 */
+	public synchronized void replaceWith(ArpCache other)
+	{
+		for (ArpEntry entry : this.entries.values())
+		{
+			if (!this.loaded.contains(entry.getIp()))
+			{ other.entries.putIfAbsent(entry.getIp(), entry); }
+		}
+		this.replacement = other;
+	}
 	
 	/**
 	 * Checks if an IP->MAC mapping is the in the cache.
@@ -119,6 +209,7 @@ public class ArpCache
 			
 			// Add an entry to the ACP cache
 			this.insert(mac, ip);
+			this.loaded.add(ip);
 		}
 	
 		// Close the file
@@ -17,6 +17,10 @@ public class ArpEntry
 	
 	/** Time (in milliseconds since the epoch) the mapping was created */
 	private long timeAdded;
+
+	/** True if the mapping was restored from an earlier run and has not
+	 * been confirmed since */
+	private boolean stale;
 	
 	/**
 	 * Create an ARP table entry that maps an IP address to a MAC address.
@@ -29,6 +33,19 @@ public class ArpEntry
 		this.ip = ip;
 		this.timeAdded = System.currentTimeMillis();
 	}
+
+	/**
+	 * Create an ARP table entry restored from an earlier run, which is used
+	 * until an ARP reply confirms or replaces it.
+	 * @param mac MAC address corresponding to IP address
+	 * @param ip IP address corresponding to MAC address
+	 * @param stale true if the mapping is not confirmed
+	 */
+	public ArpEntry(MACAddress mac, int ip, boolean stale)
+	{
+		this(mac, ip);
+		this.stale = stale;
+	}
 	
 	/**
 	 * @return MAC address corresponding to IP address
@@ -47,10 +64,16 @@ public class ArpEntry
 	 */
 	public long getTimeAdded()
 	{ return this.timeAdded; }
+
+	/**
+	 * @return true if the mapping was restored and not yet confirmed
+	 */
+	public boolean isStale()
+	{ return this.stale; }
 	
 	public String toString()
 	{
-		return String.format("%s \t%s", IPv4.fromIPv4Address(this.ip),
-				this.mac.toString());
+		return String.format("%s \t%s%s", IPv4.fromIPv4Address(this.ip),
+				this.mac.toString(), this.stale ? " \t(stale)" : "");
 	}
 }
@@ -0,0 +1,369 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A forwarding table compressed from a route table with the Optimal Routing
+ * Table Constructor (Draves et al., "Constructing Optimal IP Routing
+ * Tables", INFOCOM 1999). ORTC finds the fewest prefixes that forward every
+ * address to the same next hop as the route table does, by merging
+ * adjacent and nested prefixes with the same next hop; "no route" is a next
+ * hop like any other, so addresses without a route stay without one. Two
+ * routes have the same next hop when they have the same equal-cost paths.
+ *
+ * The prefixes are built into a binary trie held in arrays, so a lookup is
+ * at most 32 steps through an int array and finds the longest match
+ * correctly, including a default route.
+ */
+public class CompressedFib
+{
+	/** No prefix at a trie node */
+	private static final int NONE = -1;
+
+	/** Next hop meaning no route */
+	private static final int NO_ROUTE = 0;
+
+	/** Next hops by number; nextHops[NO_ROUTE] is null */
+	private final RouteEntry[] nextHops;
+
+	/** Lookup trie: children of node n at 2n and 2n + 1, 0 if none (the
+	 * root is never a child); next hop of the prefix at each node, or NONE */
+	private final int[] children;
+	private final int[] hops;
+
+	private final int prefixes;
+	private final int routes;
+	private final long buildNanos;
+
+	private CompressedFib(RouteEntry[] nextHops, int[] children, int[] hops,
+			int prefixes, int routes, long buildNanos)
+	{
+		this.nextHops = nextHops;
+		this.children = children;
+		this.hops = hops;
+		this.prefixes = prefixes;
+		this.routes = routes;
+		this.buildNanos = buildNanos;
+	}
+
+	/**
+	 * Find the next hop for an address.
+	 * @param ip IP address
+	 * @return an entry whose gateway, interface and equal-cost paths are the
+	 *         next hop; its destination and mask are those of one of the
+	 *         routes it stands for. Null if there is no route.
+	 */
+	public RouteEntry lookup(int ip)
+	{
+		int node = 0;
+		int best = this.hops[0];
+		for (int bit = 31; bit >= 0; bit--)
+		{
+			node = this.children[2 * node + ((ip >>> bit) & 1)];
+			if (0 == node)
+			{ break; }
+			if (this.hops[node] != NONE)
+			{ best = this.hops[node]; }
+		}
+		return (NONE == best) ? null : this.nextHops[best];
+	}
+
+	/**
+	 * @return number of prefixes in the compressed table
+	 */
+	public int size()
+	{ return this.prefixes; }
+
+	/**
+	 * @return number of routes the table was compressed from
+	 */
+	public int getRouteCount()
+	{ return this.routes; }
+
+	public String toString()
+	{
+		return String.format("Compressed FIB: %d prefixes for %d routes (%.1f%%), "
+				+ "built in %d us\n", this.prefixes, this.routes,
+				(0 == this.routes) ? 100.0 : 100.0 * this.prefixes / this.routes,
+				this.buildNanos / 1000);
+	}
+
+	/**
+	 * Compress a route table.
+	 * @param entries the routes
+	 * @return the compressed table; null if a route has a mask that is not a
+	 *         prefix, which a trie cannot hold
+	 */
+	public static CompressedFib build(List<RouteEntry> entries)
+	{
+		long start = System.nanoTime();
+		Builder builder = new Builder();
+		for (RouteEntry entry : entries)
+		{
+			int maskIp = entry.getMaskAddress();
+			int length = Integer.bitCount(maskIp);
+			if (RouteImage.mask(length) != maskIp)
+			{ return null; }
+			builder.insert(entry.getDestinationAddress() & maskIp, length,
+					builder.nextHop(entry));
+		}
+		return builder.compress(entries.size(), start);
+	}
+
+	/**
+	 * Runs ORTC over a binary trie of the routes, held in growable arrays.
+	 */
+	private static class Builder
+	{
+		private final Map<String, Integer> hopNumbers = new HashMap<String, Integer>();
+		private final List<RouteEntry> nextHops = new ArrayList<RouteEntry>();
+
+		private int[] left = new int[1024];
+		private int[] right = new int[1024];
+		private int[] hop = new int[1024];
+		private int[][] sets;
+		private int nodes;
+
+		/** One-element next hop sets, shared by every node with that set */
+		private int[][] singletons = new int[0][];
+
+		/** The compressed prefixes, as address, length and next hop */
+		private int[] emitted = new int[3 * 64];
+		private int emittedCount;
+
+		Builder()
+		{
+			this.nextHops.add(null);
+			this.newNode();
+		}
+
+		private int newNode()
+		{
+			if (this.nodes == this.left.length)
+			{
+				int capacity = this.nodes * 2;
+				this.left = Arrays.copyOf(this.left, capacity);
+				this.right = Arrays.copyOf(this.right, capacity);
+				this.hop = Arrays.copyOf(this.hop, capacity);
+			}
+			this.left[this.nodes] = 0;
+			this.right[this.nodes] = 0;
+			this.hop[this.nodes] = NONE;
+			return this.nodes++;
+		}
+
+		/**
+		 * Number a route's next hop. The route table's own entries may
+		 * change, so each next hop is a copy.
+		 */
+		int nextHop(RouteEntry entry)
+		{
+			RouteEntry[] paths = entry.getPaths();
+			StringBuilder key = new StringBuilder();
+			for (RouteEntry path : paths)
+			{
+				key.append(path.getGatewayAddress()).append('@')
+						.append(path.getInterface().getName()).append(' ');
+			}
+			Integer number = this.hopNumbers.get(key.toString());
+			if (number != null)
+			{ return number; }
+
+			RouteEntry copy = new RouteEntry(entry.getDestinationAddress(),
+					paths[0].getGatewayAddress(), entry.getMaskAddress(),
+					paths[0].getInterface());
+			for (int p = 1; p < paths.length; p++)
+			{ copy.addPath(paths[p].getGatewayAddress(), paths[p].getInterface()); }
+			number = this.nextHops.size();
+			this.nextHops.add(copy);
+			this.hopNumbers.put(key.toString(), number);
+			return number;
+		}
+
+		/** Add a route; the first route to a prefix wins, as in the table */
+		void insert(int prefix, int length, int nextHop)
+		{
+			int node = 0;
+			for (int depth = 0; depth < length; depth++)
+			{
+				boolean one = ((prefix >>> (31 - depth)) & 1) != 0;
+				int child = one ? this.right[node] : this.left[node];
+				if (0 == child)
+				{
+					child = this.newNode();
+					if (one)
+					{ this.right[node] = child; }
+					else
+					{ this.left[node] = child; }
+				}
+				node = child;
+			}
+			if (NONE == this.hop[node])
+			{ this.hop[node] = nextHop; }
+		}
+
+		CompressedFib compress(int routes, long start)
+		{
+			// ORTC passes 1 and 2, then 3
+			this.sets = new int[this.left.length][];
+			this.merge(0, NO_ROUTE);
+			this.select(0, NO_ROUTE, 0, 0);
+			this.sets = null;
+
+			// Build the lookup trie of the compressed prefixes
+			int[] children = new int[2 * 64];
+			int[] hops = new int[64];
+			Arrays.fill(hops, NONE);
+			int lookupNodes = 1;
+			for (int e = 0; e < this.emittedCount; e++)
+			{
+				int prefix = this.emitted[3 * e];
+				int length = this.emitted[3 * e + 1];
+				int node = 0;
+				for (int depth = 0; depth < length; depth++)
+				{
+					int slot = 2 * node + ((prefix >>> (31 - depth)) & 1);
+					if (0 == children[slot])
+					{
+						if (lookupNodes == hops.length)
+						{
+							children = Arrays.copyOf(children, 4 * lookupNodes);
+							hops = Arrays.copyOf(hops, 2 * lookupNodes);
+							Arrays.fill(hops, lookupNodes, hops.length, NONE);
+						}
+						children[slot] = lookupNodes++;
+					}
+					node = children[slot];
+				}
+				hops[node] = this.emitted[3 * e + 2];
+			}
+			return new CompressedFib(this.nextHops.toArray(new RouteEntry[0]),
+					children, hops, this.emittedCount, routes,
+					System.nanoTime() - start);
+		}
+
+		/**
+		 * Pass 1: push next hops down so every node is a leaf or has two
+		 * children, and every leaf has a next hop. Pass 2: on the way back
+		 * up, give each node the next hops that are best for its subtree:
+		 * its children's common ones if there are any, or else all of them.
+		 */
+		private void merge(int node, int inherited)
+		{
+			int nextHop = (this.hop[node] != NONE) ? this.hop[node] : inherited;
+			if (0 == this.left[node] && 0 == this.right[node])
+			{
+				this.sets[node] = this.singleton(nextHop);
+				return;
+			}
+			if (0 == this.left[node])
+			{
+				int child = this.newNode();
+				this.left[node] = child;
+			}
+			if (0 == this.right[node])
+			{
+				int child = this.newNode();
+				this.right[node] = child;
+			}
+			if (this.sets.length < this.left.length)
+			{ this.sets = Arrays.copyOf(this.sets, this.left.length); }
+			this.merge(this.left[node], nextHop);
+			this.merge(this.right[node], nextHop);
+
+			int[] a = this.sets[this.left[node]];
+			int[] b = this.sets[this.right[node]];
+			int[] common = intersect(a, b);
+			this.sets[node] = (common.length > 0) ? common : union(a, b);
+		}
+
+		/**
+		 * Pass 3: going down, keep the next hop chosen above if it is among
+		 * a node's best ones; otherwise choose one of them and emit a
+		 * prefix for it.
+		 */
+		private void select(int node, int chosen, int prefix, int length)
+		{
+			int[] set = this.sets[node];
+			if (Arrays.binarySearch(set, chosen) < 0)
+			{
+				chosen = set[0];
+				this.emit(prefix, length, chosen);
+			}
+			if (this.left[node] != 0)
+			{
+				this.select(this.left[node], chosen, prefix, length + 1);
+				this.select(this.right[node], chosen,
+						prefix | (1 << (31 - length)), length + 1);
+			}
+		}
+
+		private void emit(int prefix, int length, int nextHop)
+		{
+			if (3 * this.emittedCount == this.emitted.length)
+			{ this.emitted = Arrays.copyOf(this.emitted, 2 * this.emitted.length); }
+			this.emitted[3 * this.emittedCount] = prefix;
+			this.emitted[3 * this.emittedCount + 1] = length;
+			this.emitted[3 * this.emittedCount + 2] = nextHop;
+			this.emittedCount++;
+		}
+
+		private int[] singleton(int nextHop)
+		{
+			if (nextHop >= this.singletons.length)
+			{ this.singletons = Arrays.copyOf(this.singletons, this.nextHops.size()); }
+			if (null == this.singletons[nextHop])
+			{ this.singletons[nextHop] = new int[] { nextHop }; }
+			return this.singletons[nextHop];
+		}
+
+		/** Intersection of two sorted sets */
+		private static int[] intersect(int[] a, int[] b)
+		{
+			if (a == b)
+			{ return a; }
+			int[] result = new int[Math.min(a.length, b.length)];
+			int count = 0;
+			for (int i = 0, j = 0; i < a.length && j < b.length; )
+			{
+				if (a[i] < b[j])
+				{ i++; }
+				else if (a[i] > b[j])
+				{ j++; }
+				else
+				{
+					result[count++] = a[i];
+					i++;
+					j++;
+				}
+			}
+			return (count == result.length) ? result : Arrays.copyOf(result, count);
+		}
+
+		/** Union of two sorted sets */
+		private static int[] union(int[] a, int[] b)
+		{
+			int[] result = new int[a.length + b.length];
+			int count = 0;
+			int i = 0;
+			int j = 0;
+			while (i < a.length || j < b.length)
+			{
+				if (j == b.length || (i < a.length && a[i] < b[j]))
+				{ result[count++] = a[i++]; }
+				else if (i == a.length || b[j] < a[i])
+				{ result[count++] = b[j++]; }
+				else
+				{
+					result[count++] = a[i++];
+					j++;
+				}
+			}
+			return (count == result.length) ? result : Arrays.copyOf(result, count);
+		}
+	}
+}
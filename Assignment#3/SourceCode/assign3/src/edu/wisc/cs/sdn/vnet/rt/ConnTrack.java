@@ -0,0 +1,536 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.util.function.LongSupplier;
+
+import net.floodlightcontroller.packet.FlowKey;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.TcpView;
+
+/**
+ * Connection tracking: per-flow state for the packets a router handles,
+ * keyed by 5-tuple, with both directions of a connection sharing one entry.
+ * TCP state is inferred from the flags seen in each direction; other
+ * protocols only distinguish flows that have seen a reply. Each entry
+ * expires after an idle timeout that depends on its state.
+ *
+ * Each entry is a record of five longs in one array, so a packet touches
+ * one or two cache lines of the table beyond its index slot, and entries
+ * are found through an open addressing table of entry numbers: millions of
+ * flows cost about 70 bytes each and no objects. Timeouts are kept on a
+ * timing wheel of one second slots. A packet that pushes an entry's
+ * deadline later only changes the deadline; the entry is moved to the slot
+ * of its new deadline when its old slot comes round, so refreshing a flow
+ * does no list work. A deadline brought sooner, as when a connection is
+ * reset or closes, moves the entry at once. When the table is full, a flow
+ * that has not seen a reply or has closed is evicted to make room, if one
+ * is close by.
+ */
+public class ConnTrack
+{
+	/** TCP states, and the states of other protocols */
+	public static final byte SYN_SENT = 0;
+	public static final byte SYN_RECV = 1;
+	public static final byte ESTABLISHED = 2;
+	public static final byte FIN_WAIT = 3;
+	public static final byte LAST_ACK = 4;
+	public static final byte TIME_WAIT = 5;
+	public static final byte CLOSE = 6;
+	public static final byte UNREPLIED = 7;
+	public static final byte REPLIED = 8;
+	static final String[] STATE_NAMES = {"SYN_SENT", "SYN_RECV", "ESTABLISHED",
+			"FIN_WAIT", "LAST_ACK", "TIME_WAIT", "CLOSE", "UNREPLIED", "REPLIED"};
+
+	/** Idle timeouts in seconds, by TCP state (RFC 5382 for established) */
+	private static final int[] TCP_TIMEOUTS = {120, 60, 7440, 120, 30, 120, 10};
+	private static final int UDP_UNREPLIED_TIMEOUT = 30;
+	private static final int UDP_REPLIED_TIMEOUT = 180;
+	private static final int ICMP_TIMEOUT = 30;
+	private static final int OTHER_TIMEOUT = 600;
+
+	/** Entry record: the key is stored with the lower (address, port)
+	 * endpoint first, so both directions map to the same key; the status
+	 * word holds the deadline in its low 32 bits, then the state and the
+	 * flags */
+	private static final int ADDRESSES = 0;
+	private static final int PORTS = 1;
+	private static final int STATUS = 2;
+	private static final int PACKETS = 3;
+	private static final int BYTES = 4;
+	private static final int RECORD = 5;
+
+	/** Entry flags */
+	private static final byte ORIGIN_LOW = 0x1;
+	private static final byte SEEN_REPLY = 0x2;
+	private static final byte FIN_ORIGINAL = 0x4;
+	private static final byte FIN_REPLY = 0x8;
+
+	/** Slots in the timing wheel; a power of two */
+	private static final int WHEEL_SIZE = 1024;
+
+	/** Occupied index slots looked at when the table is full */
+	private static final int EARLY_DROP_SCAN = 8;
+
+	private final int capacity;
+	private final LongSupplier nanoClock;
+	private final long startNanos;
+
+	/** Entry number + 1 of each slot, 0 if the slot is empty */
+	private final int[] index;
+	private final int indexMask;
+
+	/** Entry records, RECORD longs each */
+	private final long[] entries;
+
+	/** Timing wheel lists, doubly linked through the entries; free entries
+	 * are chained through wheelNext */
+	private final int[] wheel;
+	private final int[] wheelNext;
+	private final int[] wheelPrev;
+	/** Wheel slot each entry is linked in */
+	private final short[] wheelSlot;
+	private int wheelTime;
+	private int freeHead;
+	private int size;
+
+	private long created;
+	private long expired;
+	private long earlyDropped;
+	private long insertFailed;
+
+	/**
+	 * Create an empty table.
+	 * @param capacity most flows tracked at once
+	 */
+	public ConnTrack(int capacity)
+	{ this(capacity, System::nanoTime); }
+
+	/**
+	 * Create an empty table with its own clock.
+	 * @param capacity most flows tracked at once
+	 * @param nanoClock source of time, in nanoseconds
+	 */
+	public ConnTrack(int capacity, LongSupplier nanoClock)
+	{
+		if (capacity < 1 || capacity > (1 << 28))
+		{ throw new IllegalArgumentException("Invalid capacity " + capacity); }
+		this.capacity = capacity;
+		this.nanoClock = nanoClock;
+		this.startNanos = nanoClock.getAsLong();
+
+		// At most half full, so probe sequences stay short
+		int slots = Integer.highestOneBit(capacity * 4 - 1);
+		this.index = new int[slots];
+		this.indexMask = slots - 1;
+
+		this.entries = new long[capacity * RECORD];
+
+		this.wheel = new int[WHEEL_SIZE];
+		java.util.Arrays.fill(this.wheel, -1);
+		this.wheelNext = new int[capacity];
+		this.wheelPrev = new int[capacity];
+		this.wheelSlot = new short[capacity];
+		for (int i = 0; i < capacity; i++)
+		{ this.wheelNext[i] = i + 1; }
+		this.wheelNext[capacity - 1] = -1;
+		this.freeHead = 0;
+	}
+
+	/**
+	 * @return seconds since the table was created
+	 */
+	private int now()
+	{ return (int)((this.nanoClock.getAsLong() - this.startNanos) / 1000000000L); }
+
+	private byte state(int entry)
+	{ return (byte)(this.entries[entry * RECORD + STATUS] >>> 32); }
+
+	private int flags(int entry)
+	{ return (int)(this.entries[entry * RECORD + STATUS] >>> 40) & 0xff; }
+
+	private int deadline(int entry)
+	{ return (int)this.entries[entry * RECORD + STATUS]; }
+
+	/**
+	 * Account a packet to its flow, creating the flow if it is new, and
+	 * advance its state.
+	 * @param key the packet's 5-tuple and TCP flags
+	 * @param length length of the packet in bytes
+	 * @return the flow's entry number; -1 if the table is full
+	 */
+	public synchronized int track(FlowKey key, int length)
+	{
+		int now = this.now();
+		this.advance(now);
+
+		int protocol = key.getProtocol() & 0xff;
+		long source = ((key.getSourceAddress() & 0xffffffffL) << 16)
+				| (key.getSourcePort() & 0xffff);
+		long destination = ((key.getDestinationAddress() & 0xffffffffL) << 16)
+				| (key.getDestinationPort() & 0xffff);
+		boolean low = source <= destination;
+		long lower = low ? source : destination;
+		long upper = low ? destination : source;
+		long address = ((lower >>> 16) << 32) | (upper >>> 16);
+		long port = ((long)protocol << 32) | ((lower & 0xffff) << 16)
+				| (upper & 0xffff);
+
+		int slot = this.find(address, port);
+		int entry = this.index[slot] - 1;
+		boolean fresh = entry < 0;
+		byte state;
+		int flags;
+		if (fresh)
+		{
+			entry = this.allocate(slot);
+			if (entry < 0)
+			{
+				this.insertFailed++;
+				return -1;
+			}
+			// Eviction may have shifted the key's slot
+			slot = this.find(address, port);
+			this.index[slot] = entry + 1;
+			int base = entry * RECORD;
+			this.entries[base + ADDRESSES] = address;
+			this.entries[base + PORTS] = port;
+			this.entries[base + PACKETS] = 0;
+			this.entries[base + BYTES] = 0;
+			state = (IPv4.PROTOCOL_TCP == protocol)
+					? this.initialTcpState(key.getTcpFlags()) : UNREPLIED;
+			flags = low ? ORIGIN_LOW : 0;
+			this.created++;
+		}
+		else
+		{
+			state = this.state(entry);
+			flags = this.flags(entry);
+		}
+
+		boolean original = low == ((flags & ORIGIN_LOW) != 0);
+		if (!original)
+		{ flags |= SEEN_REPLY; }
+		if (IPv4.PROTOCOL_TCP == protocol)
+		{
+			int updated = this.updateTcp(state, flags, original, key.getTcpFlags());
+			state = (byte)updated;
+			flags = updated >>> 8;
+		}
+		else if (!original)
+		{ state = REPLIED; }
+
+		int base = entry * RECORD;
+		int deadline = now + this.timeout(protocol, state);
+		this.entries[base + STATUS] = (deadline & 0xffffffffL)
+				| ((long)state << 32) | ((long)flags << 40);
+		this.entries[base + PACKETS]++;
+		this.entries[base + BYTES] += length;
+		if (fresh)
+		{ this.link(entry, deadline); }
+		else if (deadline < this.due(this.wheelSlot[entry]))
+		{
+			// Its slot comes round too late for the new deadline
+			this.unlink(entry);
+			this.link(entry, deadline);
+		}
+		return entry;
+	}
+
+	/** State of a TCP flow first seen with these flags */
+	private byte initialTcpState(short tcpFlags)
+	{
+		if ((tcpFlags & TcpView.FLAG_RST) != 0)
+		{ return CLOSE; }
+		if ((tcpFlags & (TcpView.FLAG_SYN | TcpView.FLAG_ACK)) == TcpView.FLAG_SYN)
+		{ return SYN_SENT; }
+		// Picked up mid-stream, e.g. after a restart
+		return ESTABLISHED;
+	}
+
+	/**
+	 * Advance a TCP flow's state for a packet in one direction.
+	 * @return the new flags shifted left 8 bits, or'ed with the new state
+	 */
+	private int updateTcp(byte state, int flags, boolean original, short tcpFlags)
+	{
+		if ((tcpFlags & TcpView.FLAG_RST) != 0)
+		{ return (flags << 8) | CLOSE; }
+		boolean syn = (tcpFlags & TcpView.FLAG_SYN) != 0;
+		boolean ack = (tcpFlags & TcpView.FLAG_ACK) != 0;
+		boolean fin = (tcpFlags & TcpView.FLAG_FIN) != 0;
+		if (fin)
+		{ flags |= original ? FIN_ORIGINAL : FIN_REPLY; }
+
+		switch (state)
+		{
+		case SYN_SENT:
+			if (!original && syn && ack)
+			{ state = SYN_RECV; }
+			break;
+		case SYN_RECV:
+			if (original && ack && !syn)
+			{ state = ESTABLISHED; }
+			break;
+		case CLOSE:
+		case TIME_WAIT:
+			// A new SYN reopens the connection
+			if (original && syn && !ack)
+			{
+				state = SYN_SENT;
+				flags &= ~(FIN_ORIGINAL | FIN_REPLY);
+			}
+			break;
+		default:
+			if ((flags & (FIN_ORIGINAL | FIN_REPLY)) == (FIN_ORIGINAL | FIN_REPLY))
+			{
+				// The ACK of the second FIN closes the connection
+				state = (LAST_ACK == state && ack && !fin) ? TIME_WAIT : LAST_ACK;
+			}
+			else if (fin)
+			{ state = FIN_WAIT; }
+			break;
+		}
+		return (flags << 8) | state;
+	}
+
+	private int timeout(int protocol, byte state)
+	{
+		switch (protocol)
+		{
+		case IPv4.PROTOCOL_TCP:
+			return TCP_TIMEOUTS[state];
+		case IPv4.PROTOCOL_UDP:
+			return (REPLIED == state) ? UDP_REPLIED_TIMEOUT : UDP_UNREPLIED_TIMEOUT;
+		case IPv4.PROTOCOL_ICMP:
+			return ICMP_TIMEOUT;
+		default:
+			return OTHER_TIMEOUT;
+		}
+	}
+
+	/**
+	 * Find a flow's entry.
+	 * @param key the 5-tuple, in either direction
+	 * @return the entry number, or -1 if the flow is not tracked
+	 */
+	public synchronized int lookup(FlowKey key)
+	{
+		long source = ((key.getSourceAddress() & 0xffffffffL) << 16)
+				| (key.getSourcePort() & 0xffff);
+		long destination = ((key.getDestinationAddress() & 0xffffffffL) << 16)
+				| (key.getDestinationPort() & 0xffff);
+		long lower = Math.min(source, destination);
+		long upper = Math.max(source, destination);
+		long address = ((lower >>> 16) << 32) | (upper >>> 16);
+		long port = ((key.getProtocol() & 0xffL) << 32)
+				| ((lower & 0xffff) << 16) | (upper & 0xffff);
+		return this.index[this.find(address, port)] - 1;
+	}
+
+	/**
+	 * @param entry an entry number
+	 * @return the flow's state
+	 */
+	public synchronized byte getState(int entry)
+	{ return this.state(entry); }
+
+	/**
+	 * @param entry an entry number
+	 * @return true if the flow has seen a packet from the responder
+	 */
+	public synchronized boolean isReplied(int entry)
+	{ return (this.flags(entry) & SEEN_REPLY) != 0; }
+
+	/**
+	 * @param entry an entry number
+	 * @return packets seen in both directions
+	 */
+	public synchronized long getPackets(int entry)
+	{ return this.entries[entry * RECORD + PACKETS]; }
+
+	/**
+	 * @param entry an entry number
+	 * @return bytes seen in both directions
+	 */
+	public synchronized long getBytes(int entry)
+	{ return this.entries[entry * RECORD + BYTES]; }
+
+	/**
+	 * @return number of flows tracked
+	 */
+	public synchronized int size()
+	{ return this.size; }
+
+	/**
+	 * @return most flows tracked at once
+	 */
+	public int getCapacity()
+	{ return this.capacity; }
+
+	/**
+	 * Expire idle flows up to the current time. Expiry also happens as
+	 * packets are tracked; this only needs calling when traffic stops.
+	 */
+	public synchronized void expire()
+	{ this.advance(this.now()); }
+
+	/** Slot holding a key, or the empty slot where it belongs */
+	private int find(long address, long port)
+	{
+		int slot = this.home(address, port);
+		while (true)
+		{
+			int entry = this.index[slot] - 1;
+			if (entry < 0 || (this.entries[entry * RECORD + ADDRESSES] == address
+					&& this.entries[entry * RECORD + PORTS] == port))
+			{ return slot; }
+			slot = (slot + 1) & this.indexMask;
+		}
+	}
+
+	private int home(long address, long port)
+	{ return (int)FlowKey.hash64(address, port) & this.indexMask; }
+
+	/** Take a free entry, evicting an unreplied or closed flow if the table
+	 * is full */
+	private int allocate(int slot)
+	{
+		if (this.freeHead < 0)
+		{
+			int victim = -1;
+			for (int i = 0, seen = 0; seen < EARLY_DROP_SCAN && i <= this.indexMask; i++)
+			{
+				int entry = this.index[(slot + i) & this.indexMask] - 1;
+				if (entry < 0)
+				{ continue; }
+				seen++;
+				byte state = this.state(entry);
+				if ((this.flags(entry) & SEEN_REPLY) == 0 || CLOSE == state
+						|| TIME_WAIT == state)
+				{
+					victim = entry;
+					break;
+				}
+			}
+			if (victim < 0)
+			{ return -1; }
+			this.remove(victim);
+			this.earlyDropped++;
+		}
+		int entry = this.freeHead;
+		this.freeHead = this.wheelNext[entry];
+		this.size++;
+		return entry;
+	}
+
+	/** Drop an entry from the index and the wheel, and free it */
+	private void remove(int entry)
+	{
+		// Backward shift deletion: pull later entries of the probe
+		// sequence into the hole, so lookups never need tombstones
+		int hole = this.find(this.entries[entry * RECORD + ADDRESSES],
+				this.entries[entry * RECORD + PORTS]);
+		int next = hole;
+		while (true)
+		{
+			next = (next + 1) & this.indexMask;
+			int moved = this.index[next] - 1;
+			if (moved < 0)
+			{ break; }
+			int home = this.home(this.entries[moved * RECORD + ADDRESSES],
+					this.entries[moved * RECORD + PORTS]);
+			// Move it unless its home lies cyclically in (hole, next]
+			if (((next - home) & this.indexMask) >= ((next - hole) & this.indexMask))
+			{
+				this.index[hole] = this.index[next];
+				hole = next;
+			}
+		}
+		this.index[hole] = 0;
+
+		this.unlink(entry);
+		this.wheelNext[entry] = this.freeHead;
+		this.freeHead = entry;
+		this.size--;
+	}
+
+	private void link(int entry, int time)
+	{
+		int slot = time & (WHEEL_SIZE - 1);
+		int head = this.wheel[slot];
+		this.wheelSlot[entry] = (short)slot;
+		this.wheelPrev[entry] = -1 - slot;
+		this.wheelNext[entry] = head;
+		if (head >= 0)
+		{ this.wheelPrev[head] = entry; }
+		this.wheel[slot] = entry;
+	}
+
+	private void unlink(int entry)
+	{
+		int prev = this.wheelPrev[entry];
+		int next = this.wheelNext[entry];
+		// A negative prev is -1 - the slot the entry heads
+		if (prev < 0)
+		{ this.wheel[-1 - prev] = next; }
+		else
+		{ this.wheelNext[prev] = next; }
+		if (next >= 0)
+		{ this.wheelPrev[next] = prev; }
+	}
+
+	/** Next time a wheel slot is visited */
+	private int due(int slot)
+	{ return this.wheelTime + 1 + ((slot - this.wheelTime - 1) & (WHEEL_SIZE - 1)); }
+
+	/** Visit the wheel slots passed since the last call */
+	private void advance(int now)
+	{
+		if (now <= this.wheelTime)
+		{ return; }
+		// After a long idle spell one turn of the wheel covers everything
+		int steps = Math.min(now - this.wheelTime, WHEEL_SIZE);
+		for (int step = 1; step <= steps; step++)
+		{
+			int slot = (this.wheelTime + step) & (WHEEL_SIZE - 1);
+			int entry = this.wheel[slot];
+			while (entry >= 0)
+			{
+				int next = this.wheelNext[entry];
+				int deadline = this.deadline(entry);
+				if (deadline <= now)
+				{
+					this.remove(entry);
+					this.expired++;
+				}
+				else if ((deadline & (WHEEL_SIZE - 1)) != slot)
+				{
+					this.unlink(entry);
+					this.link(entry, deadline);
+				}
+				entry = next;
+			}
+		}
+		this.wheelTime = now;
+	}
+
+	public synchronized String toString()
+	{
+		int[] counts = new int[STATE_NAMES.length];
+		for (int slot = 0; slot <= this.indexMask; slot++)
+		{
+			int entry = this.index[slot] - 1;
+			if (entry >= 0)
+			{ counts[this.state(entry)]++; }
+		}
+		String result = String.format("Connection tracking: %d/%d flows, "
+				+ "%d created, %d expired, %d evicted, %d not tracked (full)\n",
+				this.size, this.capacity, this.created, this.expired,
+				this.earlyDropped, this.insertFailed);
+		for (int s = 0; s < STATE_NAMES.length; s++)
+		{
+			if (counts[s] > 0)
+			{ result += "\t" + STATE_NAMES[s] + "\t" + counts[s] + "\n"; }
+		}
+		return result;
+	}
+}
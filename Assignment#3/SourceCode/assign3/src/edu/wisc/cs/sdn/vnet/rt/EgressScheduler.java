@@ -0,0 +1,360 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * Per-interface egress queues for a router, drained by a dedicated
+ * scheduler thread. Packets are queued by traffic class: the control class
+ * is served with strict priority and the other classes share what is left
+ * by deficit round robin, in proportion to their weights. A full queue
+ * drops arrivals at its tail or, with RED, starts dropping early as its
+ * average length grows.
+ */
+public class EgressScheduler implements Runnable
+{
+	/** Router control traffic (ARP, RIP, ICMP) and DSCP CS6/CS7 */
+	public static final int CONTROL = 0;
+	/** EF, CS4/CS5 and AF4x: latency sensitive */
+	public static final int EXPEDITED = 1;
+	/** Default forwarding and everything not otherwise classified */
+	public static final int BEST_EFFORT = 2;
+	/** CS1: scavenger/bulk traffic */
+	public static final int BULK = 3;
+	static final String[] CLASS_NAMES = {"control", "expedited", "best-effort", "bulk"};
+
+	/** Default DRR weights of the expedited, best-effort and bulk classes */
+	public static final int[] DEFAULT_WEIGHTS = {8, 4, 1};
+
+	/** Default queue limit, in packets per class and interface */
+	public static final int DEFAULT_QUEUE_LIMIT = 64;
+
+	/** Bytes a class may send per round for each unit of weight */
+	private static final int QUANTUM = 1514;
+
+	/** RED: weight of a new sample in the average queue length, and the
+	 * drop probability at the maximum threshold */
+	private static final double RED_WEIGHT = 0.002;
+	private static final double RED_MAX_PROBABILITY = 0.1;
+
+	private final Router router;
+	private final int[] weights;
+	private final int queueLimit;
+	private final boolean red;
+
+	/** Interface -> queues, in round robin order; guarded by this */
+	private final Map<Iface, PortQueues> ports;
+	private List<PortQueues> order;
+	private int nextPort;
+	private int queued;
+
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * Create a scheduler; it does nothing until started.
+	 * @param router the router whose packets are sent
+	 * @param weights DRR weights of the expedited, best-effort and bulk
+	 *        classes; each at least 1
+	 * @param queueLimit most packets queued per class and interface
+	 * @param red true to drop early with RED, false for tail drop only
+	 */
+	public EgressScheduler(Router router, int[] weights, int queueLimit,
+			boolean red)
+	{
+		if (weights.length != CLASS_NAMES.length - 1)
+		{
+			throw new IllegalArgumentException("Expected "
+					+ (CLASS_NAMES.length - 1) + " weights");
+		}
+		this.router = router;
+		this.weights = new int[CLASS_NAMES.length];
+		for (int c = 1; c < CLASS_NAMES.length; c++)
+		{ this.weights[c] = Math.max(weights[c - 1], 1); }
+		this.queueLimit = Math.max(queueLimit, 1);
+		this.red = red;
+		this.ports = new LinkedHashMap<Iface, PortQueues>();
+		this.order = new ArrayList<PortQueues>();
+	}
+
+	/**
+	 * Map a DSCP value to a traffic class.
+	 * @param diffServ the IPv4 differentiated services byte
+	 * @return the traffic class
+	 */
+	public static int classify(byte diffServ)
+	{
+		int dscp = (diffServ & 0xff) >>> 2;
+		if (dscp >= 48)
+		{ return CONTROL; }
+		if (dscp >= 32)
+		{ return EXPEDITED; }
+		if (dscp == 8)
+		{ return BULK; }
+		return BEST_EFFORT;
+	}
+
+	/**
+	 * Start the scheduler thread.
+	 */
+	public synchronized void start()
+	{
+		if (this.thread != null)
+		{ return; }
+		this.running = true;
+		this.thread = new Thread(this, "egress-scheduler");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stop the scheduler thread; packets still queued are discarded.
+	 */
+	public void stop()
+	{
+		Thread t;
+		synchronized (this)
+		{
+			this.running = false;
+			t = this.thread;
+			this.thread = null;
+			this.notifyAll();
+		}
+		if (t != null)
+		{
+			try { t.join(1000); }
+			catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+		}
+	}
+
+	/**
+	 * Queue a packet to be sent.
+	 * @param etherPacket the packet
+	 * @param iface interface on which to send the packet
+	 * @param trafficClass class of the packet
+	 * @return true if the packet was queued, false if it was dropped
+	 */
+	public synchronized boolean enqueue(Ethernet etherPacket, Iface iface,
+			int trafficClass)
+	{
+		PortQueues port = this.ports.get(iface);
+		if (null == port)
+		{
+			port = new PortQueues(iface);
+			this.ports.put(iface, port);
+			this.order = new ArrayList<PortQueues>(this.ports.values());
+		}
+		if (!port.admit(trafficClass))
+		{ return false; }
+		port.queues[trafficClass].add(new QueuedPacket(etherPacket,
+				etherPacket.encodedLength(), System.nanoTime()));
+		port.enqueued[trafficClass]++;
+		if (0 == this.queued++)
+		{ this.notifyAll(); }
+		return true;
+	}
+
+	public void run()
+	{
+		while (this.running)
+		{
+			PortQueues port;
+			QueuedPacket packet;
+			int trafficClass;
+			synchronized (this)
+			{
+				while (this.running && 0 == this.queued)
+				{
+					try { this.wait(); }
+					catch (InterruptedException e) { return; }
+				}
+				if (!this.running)
+				{ break; }
+
+				// One packet per interface per turn, so a busy interface
+				// cannot hold up the others
+				do
+				{
+					port = this.order.get(this.nextPort);
+					this.nextPort = (this.nextPort + 1) % this.order.size();
+				} while (0 == port.size());
+				trafficClass = port.select();
+				packet = port.queues[trafficClass].poll();
+				this.queued--;
+				port.sent[trafficClass]++;
+				port.latency[trafficClass] += System.nanoTime() - packet.enqueued;
+			}
+			this.router.transmit(packet.etherPacket, port.iface);
+		}
+	}
+
+	public synchronized String toString()
+	{
+		String result = String.format(
+				"Egress queues weights=%d/%d/%d limit=%d drop=%s\n",
+				this.weights[EXPEDITED], this.weights[BEST_EFFORT],
+				this.weights[BULK], this.queueLimit, this.red ? "red" : "tail");
+		result += "Iface\tClass\t\tSent\tTail\tRED\tAvg delay (us)\n";
+		for (PortQueues port : this.ports.values())
+		{
+			for (int c = 0; c < CLASS_NAMES.length; c++)
+			{
+				if (0 == port.enqueued[c] + port.tailDrops[c] + port.redDrops[c])
+				{ continue; }
+				result += String.format("%s\t%-12s\t%d\t%d\t%d\t%.1f\n",
+						port.iface.getName(), CLASS_NAMES[c], port.sent[c],
+						port.tailDrops[c], port.redDrops[c],
+						(0 == port.sent[c]) ? 0.0
+								: port.latency[c] / 1e3 / port.sent[c]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param iface an interface
+	 * @param trafficClass a traffic class
+	 * @return packets of the class dropped on the interface, tail and RED
+	 */
+	public synchronized long getDrops(Iface iface, int trafficClass)
+	{
+		PortQueues port = this.ports.get(iface);
+		return (null == port) ? 0
+				: port.tailDrops[trafficClass] + port.redDrops[trafficClass];
+	}
+
+	/**
+	 * @param iface an interface
+	 * @param trafficClass a traffic class
+	 * @return packets of the class sent on the interface
+	 */
+	public synchronized long getSent(Iface iface, int trafficClass)
+	{
+		PortQueues port = this.ports.get(iface);
+		return (null == port) ? 0 : port.sent[trafficClass];
+	}
+
+	/**
+	 * @param iface an interface
+	 * @param trafficClass a traffic class
+	 * @return mean time packets of the class sent on the interface spent
+	 *         queued, in nanoseconds
+	 */
+	public synchronized long getMeanLatency(Iface iface, int trafficClass)
+	{
+		PortQueues port = this.ports.get(iface);
+		return (null == port || 0 == port.sent[trafficClass]) ? 0
+				: port.latency[trafficClass] / port.sent[trafficClass];
+	}
+
+	/** A packet waiting in a queue */
+	private static class QueuedPacket
+	{
+		final Ethernet etherPacket;
+		final int length;
+		final long enqueued;
+
+		QueuedPacket(Ethernet etherPacket, int length, long enqueued)
+		{
+			this.etherPacket = etherPacket;
+			this.length = length;
+			this.enqueued = enqueued;
+		}
+	}
+
+	/** Queues and counters of one interface; guarded by the scheduler */
+	private class PortQueues
+	{
+		final Iface iface;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final ArrayDeque<QueuedPacket>[] queues = new ArrayDeque[CLASS_NAMES.length];
+		final int[] deficit = new int[CLASS_NAMES.length];
+		final double[] average = new double[CLASS_NAMES.length];
+		/** Weighted class whose turn it is; starts as if bulk had just had
+		 * its turn, so expedited gets the first quantum */
+		int current = BULK;
+
+		final long[] enqueued = new long[CLASS_NAMES.length];
+		final long[] sent = new long[CLASS_NAMES.length];
+		final long[] tailDrops = new long[CLASS_NAMES.length];
+		final long[] redDrops = new long[CLASS_NAMES.length];
+		/** Total time, in nanoseconds, sent packets spent queued */
+		final long[] latency = new long[CLASS_NAMES.length];
+
+		PortQueues(Iface iface)
+		{
+			this.iface = iface;
+			for (int c = 0; c < CLASS_NAMES.length; c++)
+			{ this.queues[c] = new ArrayDeque<QueuedPacket>(); }
+		}
+
+		int size()
+		{
+			int size = 0;
+			for (ArrayDeque<QueuedPacket> queue : this.queues)
+			{ size += queue.size(); }
+			return size;
+		}
+
+		/** Decide whether a packet of a class may join its queue */
+		boolean admit(int c)
+		{
+			int length = this.queues[c].size();
+			this.average[c] += RED_WEIGHT * (length - this.average[c]);
+			if (length >= queueLimit)
+			{
+				this.tailDrops[c]++;
+				return false;
+			}
+			// Control traffic is small and must not be dropped early
+			if (!red || CONTROL == c)
+			{ return true; }
+
+			double min = queueLimit / 4.0;
+			double max = queueLimit * 3 / 4.0;
+			if (this.average[c] < min)
+			{ return true; }
+			double p = (this.average[c] >= max) ? 1.0
+					: RED_MAX_PROBABILITY * (this.average[c] - min) / (max - min);
+			if (ThreadLocalRandom.current().nextDouble() < p)
+			{
+				this.redDrops[c]++;
+				return false;
+			}
+			return true;
+		}
+
+		/** Choose the class to send from; the port must not be empty */
+		int select()
+		{
+			if (!this.queues[CONTROL].isEmpty())
+			{ return CONTROL; }
+			while (true)
+			{
+				int c = this.current;
+				QueuedPacket head = this.queues[c].peek();
+				if (head != null && this.deficit[c] >= head.length)
+				{
+					this.deficit[c] -= head.length;
+					return c;
+				}
+				// An idle class keeps no credit
+				if (null == head)
+				{ this.deficit[c] = 0; }
+
+				// Next class's turn: it gets one quantum per unit of weight
+				this.current = (c == BULK) ? EXPEDITED : c + 1;
+				if (!this.queues[this.current].isEmpty())
+				{ this.deficit[this.current] += weights[this.current] * QUANTUM; }
+			}
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.floodlightcontroller.packet.FlowKey;
+
+/**
+ * Sampled flow metering for export as IPFIX. One packet in N, chosen at
+ * random, is counted against its unidirectional 5-tuple in a bounded flow
+ * cache; packets not sampled cost one random number. A flow is exported and
+ * removed when it has been idle for the idle timeout, or has been cached for
+ * the active timeout, by a thread that sweeps the cache once a second.
+ *
+ * The cache is a table of records of RECORD longs, in buckets of BUCKET
+ * records, so no objects are created per flow. A flow lives in the bucket
+ * its hash picks; when the bucket is full, the flow idle the longest is
+ * exported early to make room.
+ */
+public class FlowMeter implements Runnable
+{
+	/** Default sampling interval; metering every packet adds about 6% to
+	 * the cost of forwarding it, one in 100 well under 1% */
+	public static final int DEFAULT_SAMPLING_INTERVAL = 100;
+
+	/** Default active and idle timeouts, in seconds */
+	public static final int DEFAULT_ACTIVE_TIMEOUT = 60;
+	public static final int DEFAULT_IDLE_TIMEOUT = 15;
+
+	/** Default number of flows cached */
+	public static final int DEFAULT_CACHE_SIZE = 65536;
+
+	/** Flow record: the key as packed by FlowKey, with the TCP flags seen
+	 * or'ed into bits 40-47 of the ports and the end reason in bits 56-63
+	 * once the flow is exported; counts; and first and last packet times,
+	 * in milliseconds since the epoch. An empty record has no packets. */
+	static final int ADDRESSES = 0;
+	static final int PORTS = 1;
+	static final int PACKETS = 2;
+	static final int BYTES = 3;
+	static final int FIRST = 4;
+	static final int LAST = 5;
+	static final int RECORD = 6;
+
+	/** Flow end reasons (RFC 5102) */
+	static final int IDLE_TIMEOUT = 1;
+	static final int ACTIVE_TIMEOUT = 2;
+	static final int FORCED_END = 4;
+	static final int LACK_OF_RESOURCES = 5;
+
+	/** Records per bucket */
+	private static final int BUCKET = 4;
+
+	/** Records swept per hold of the lock */
+	private static final int SWEEP_CHUNK = 1024;
+
+	/** Most records waiting for the export thread; flows evicted faster
+	 * than they are exported are lost */
+	private static final int QUEUE_SIZE = 4096;
+
+	private final int samplingInterval;
+	private final long activeTimeout;
+	private final long idleTimeout;
+	private final IpfixExporter exporter;
+
+	/** Flow records; guarded by this */
+	private final long[] cache;
+	private final int bucketMask;
+	private int flows;
+
+	/** Records waiting to be exported; guarded by this */
+	private long[] queue;
+	private int queued;
+	/** Records the export thread is exporting */
+	private long[] exporting;
+
+	private long sampled;
+	private long evicted;
+	private long exportDropped;
+
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * Create a meter; flows are not exported until it is started.
+	 * @param samplingInterval one in how many packets is metered; 1 to
+	 *        meter every packet
+	 * @param cacheSize most flows cached; rounded up to a power of two
+	 * @param activeTimeout seconds after which a flow is exported even if
+	 *        it is still active
+	 * @param idleTimeout seconds without a sampled packet after which a
+	 *        flow is exported
+	 * @param exporter where flows are exported to
+	 */
+	public FlowMeter(int samplingInterval, int cacheSize, int activeTimeout,
+			int idleTimeout, IpfixExporter exporter)
+	{
+		if (samplingInterval < 1 || cacheSize < BUCKET || cacheSize > (1 << 24))
+		{ throw new IllegalArgumentException("Invalid flow meter settings"); }
+		this.samplingInterval = samplingInterval;
+		this.activeTimeout = activeTimeout * 1000L;
+		this.idleTimeout = idleTimeout * 1000L;
+		this.exporter = exporter;
+		int buckets = Integer.highestOneBit(cacheSize * 2 - 1) / BUCKET;
+		this.cache = new long[buckets * BUCKET * RECORD];
+		this.bucketMask = buckets - 1;
+		this.queue = new long[QUEUE_SIZE * RECORD];
+		this.exporting = new long[QUEUE_SIZE * RECORD];
+	}
+
+	/**
+	 * Decide whether to meter a packet.
+	 * @return true if the packet is sampled
+	 */
+	public boolean sample()
+	{
+		return 1 == this.samplingInterval
+				|| 0 == ThreadLocalRandom.current().nextInt(this.samplingInterval);
+	}
+
+	/**
+	 * Count a sampled packet against its flow.
+	 * @param key the packet's 5-tuple and TCP flags
+	 * @param length length of the packet in bytes
+	 */
+	public synchronized void meter(FlowKey key, int length)
+	{
+		long now = System.currentTimeMillis();
+		long addresses = key.getAddresses();
+		long ports = key.getPorts();
+		int first = (int)(key.hash64() & this.bucketMask) * BUCKET * RECORD;
+		int free = -1;
+		int oldest = first;
+		for (int base = first; base < first + BUCKET * RECORD; base += RECORD)
+		{
+			if (0 == this.cache[base + PACKETS])
+			{
+				if (free < 0)
+				{ free = base; }
+				continue;
+			}
+			if (this.cache[base + ADDRESSES] == addresses
+					&& (this.cache[base + PORTS] & 0xffffffffffL) == ports)
+			{
+				this.cache[base + PORTS] |= (long)(key.getTcpFlags() & 0xff) << 40;
+				this.cache[base + PACKETS]++;
+				this.cache[base + BYTES] += length;
+				this.cache[base + LAST] = now;
+				this.sampled++;
+				return;
+			}
+			if (this.cache[base + LAST] < this.cache[oldest + LAST])
+			{ oldest = base; }
+		}
+
+		if (free < 0)
+		{
+			this.expire(oldest, LACK_OF_RESOURCES);
+			this.evicted++;
+			free = oldest;
+		}
+		this.cache[free + ADDRESSES] = addresses;
+		this.cache[free + PORTS] = ports | (long)(key.getTcpFlags() & 0xff) << 40;
+		this.cache[free + PACKETS] = 1;
+		this.cache[free + BYTES] = length;
+		this.cache[free + FIRST] = now;
+		this.cache[free + LAST] = now;
+		this.flows++;
+		this.sampled++;
+	}
+
+	/** Move a record to the export queue and empty it */
+	private void expire(int base, int reason)
+	{
+		if (this.queued < QUEUE_SIZE)
+		{
+			int to = this.queued * RECORD;
+			System.arraycopy(this.cache, base, this.queue, to, RECORD);
+			this.queue[to + PORTS] |= (long)reason << 56;
+			this.queued++;
+		}
+		else
+		{ this.exportDropped++; }
+		this.cache[base + PACKETS] = 0;
+		this.flows--;
+	}
+
+	/**
+	 * Start the export thread.
+	 */
+	public synchronized void start()
+	{
+		if (this.thread != null)
+		{ return; }
+		this.running = true;
+		this.thread = new Thread(this, "flow-export");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stop the export thread, export every cached flow and close the
+	 * exporter.
+	 */
+	public void stop()
+	{
+		Thread t;
+		synchronized (this)
+		{
+			this.running = false;
+			t = this.thread;
+			this.thread = null;
+			this.notifyAll();
+		}
+		if (t != null)
+		{
+			try { t.join(1000); }
+			catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+		}
+		this.sweep(Long.MAX_VALUE);
+		this.exporter.close();
+	}
+
+	public void run()
+	{
+		while (this.running)
+		{
+			synchronized (this)
+			{
+				try { this.wait(1000); }
+				catch (InterruptedException e) { return; }
+			}
+			if (this.running)
+			{ this.sweep(System.currentTimeMillis()); }
+		}
+	}
+
+	/**
+	 * Export the flows that have timed out; with a time of MAX_VALUE,
+	 * export them all.
+	 */
+	private void sweep(long now)
+	{
+		for (int start = 0; start < this.cache.length; start += SWEEP_CHUNK * RECORD)
+		{
+			synchronized (this)
+			{
+				int end = Math.min(start + SWEEP_CHUNK * RECORD, this.cache.length);
+				for (int base = start; base < end; base += RECORD)
+				{
+					if (0 == this.cache[base + PACKETS])
+					{ continue; }
+					if (Long.MAX_VALUE == now)
+					{ this.expire(base, FORCED_END); }
+					else if (now - this.cache[base + LAST] >= this.idleTimeout)
+					{ this.expire(base, IDLE_TIMEOUT); }
+					else if (now - this.cache[base + FIRST] >= this.activeTimeout)
+					{ this.expire(base, ACTIVE_TIMEOUT); }
+				}
+			}
+			this.flush();
+		}
+	}
+
+	/** Export the queued records, outside the lock */
+	private void flush()
+	{
+		long[] records;
+		int count;
+		synchronized (this)
+		{
+			if (0 == this.queued)
+			{ return; }
+			records = this.queue;
+			count = this.queued;
+			this.queue = this.exporting;
+			this.exporting = records;
+			this.queued = 0;
+		}
+		this.exporter.export(records, count, this.samplingInterval);
+	}
+
+	/**
+	 * @return number of flows cached
+	 */
+	public synchronized int size()
+	{ return this.flows; }
+
+	/**
+	 * @return the exporter flows are sent to
+	 */
+	public IpfixExporter getExporter()
+	{ return this.exporter; }
+
+	public synchronized String toString()
+	{
+		return String.format("Flow metering 1 in %d: %d packets sampled, %d flows cached, "
+				+ "%d exported early (cache full), %d lost (export queue full)\n",
+				this.samplingInterval, this.sampled, this.flows, this.evicted,
+				this.exportDropped)
+				+ this.exporter.toString();
+	}
+}
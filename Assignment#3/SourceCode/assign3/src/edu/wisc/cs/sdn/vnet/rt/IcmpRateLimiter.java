@@ -0,0 +1,164 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rate limits the ICMP error messages a router originates (RFC 1812,
+ * section 4.3.2.8). An error must get a token from a global bucket and from
+ * a bucket for its destination, so neither a scan of many hosts nor a
+ * flood from one host can keep the router busy generating errors. The check
+ * is made before any route or ARP lookup is done for the error.
+ */
+public class IcmpRateLimiter
+{
+	/** Default limit on all errors, in messages per second */
+	public static final long DEFAULT_GLOBAL_RATE = 1000;
+
+	/** Default limit on errors to one destination, in messages per second */
+	public static final long DEFAULT_DESTINATION_RATE = 10;
+
+	/** Most destinations tracked; the least recently used is forgotten */
+	private static final int MAX_DESTINATIONS = 4096;
+
+	private final long globalRate;
+	private final long destinationRate;
+
+	private final TokenBucket global;
+
+	/** Destination IP address -> bucket, in least recently used order */
+	private final Map<Integer, TokenBucket> destinations;
+
+	private long sent;
+	private long suppressedGlobal;
+	private long suppressedDestination;
+
+	/**
+	 * Create a rate limiter. Each bucket holds a burst of one second's worth
+	 * of messages (at least one).
+	 * @param globalRate errors per second for the whole router; 0 for no
+	 *        global limit
+	 * @param destinationRate errors per second to any one destination; 0
+	 *        for no per-destination limit
+	 */
+	public IcmpRateLimiter(long globalRate, long destinationRate)
+	{
+		this.globalRate = globalRate;
+		this.destinationRate = destinationRate;
+		this.global = new TokenBucket(globalRate, System.nanoTime());
+		this.destinations = new LinkedHashMap<Integer, TokenBucket>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Integer, TokenBucket> eldest)
+			{ return this.size() > MAX_DESTINATIONS; }
+		};
+	}
+
+	/**
+	 * @return true if any limit is set
+	 */
+	public boolean isEnabled()
+	{ return this.globalRate > 0 || this.destinationRate > 0; }
+
+	/**
+	 * Decide whether an error may be sent, taking tokens if so. A message
+	 * refused by the per-destination bucket does not use up a global token.
+	 * @param destination IP address the error would be sent to
+	 * @return true if the error may be sent; false if it is suppressed
+	 */
+	public synchronized boolean admit(int destination)
+	{
+		long now = System.nanoTime();
+		TokenBucket bucket = null;
+		if (this.destinationRate > 0)
+		{
+			bucket = this.destinations.get(destination);
+			if (null == bucket)
+			{
+				bucket = new TokenBucket(this.destinationRate, now);
+				this.destinations.put(destination, bucket);
+			}
+			if (!bucket.available(now))
+			{
+				this.suppressedDestination++;
+				return false;
+			}
+		}
+		if (this.globalRate > 0)
+		{
+			if (!this.global.available(now))
+			{
+				this.suppressedGlobal++;
+				return false;
+			}
+			this.global.take();
+		}
+		if (bucket != null)
+		{ bucket.take(); }
+		this.sent++;
+		return true;
+	}
+
+	/**
+	 * @return number of errors allowed through
+	 */
+	public synchronized long getSent()
+	{ return this.sent; }
+
+	/**
+	 * @return number of errors suppressed by the global limit
+	 */
+	public synchronized long getSuppressedGlobal()
+	{ return this.suppressedGlobal; }
+
+	/**
+	 * @return number of errors suppressed by a per-destination limit
+	 */
+	public synchronized long getSuppressedDestination()
+	{ return this.suppressedDestination; }
+
+	/**
+	 * @return number of errors suppressed by either limit
+	 */
+	public synchronized long getSuppressed()
+	{ return this.suppressedGlobal + this.suppressedDestination; }
+
+	public synchronized String toString()
+	{
+		return String.format("ICMP error rate limit global=%d/s destination=%d/s\n"
+				+ "Sent %d, suppressed %d (global %d, per destination %d)\n",
+				this.globalRate, this.destinationRate, this.sent,
+				this.getSuppressed(), this.suppressedGlobal,
+				this.suppressedDestination);
+	}
+
+	/**
+	 * A packet token bucket refilled at a fixed rate. Callers synchronize.
+	 */
+	private static class TokenBucket
+	{
+		private final long rate;
+		private double tokens;
+		private long lastRefill;
+
+		TokenBucket(long rate, long now)
+		{
+			this.rate = rate;
+			this.tokens = Math.max(rate, 1);
+			this.lastRefill = now;
+		}
+
+		boolean available(long now)
+		{
+			double elapsed = (now - this.lastRefill) / 1e9;
+			this.lastRefill = now;
+			this.tokens = Math.min(Math.max(this.rate, 1),
+					this.tokens + elapsed * this.rate);
+			return this.tokens >= 1;
+		}
+
+		void take()
+		{ this.tokens -= 1; }
+	}
+}
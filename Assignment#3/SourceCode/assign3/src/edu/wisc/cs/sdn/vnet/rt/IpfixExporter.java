@@ -0,0 +1,221 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes flow records as IPFIX messages (RFC 7011) and writes them to a
+ * collector over UDP or, for testing, to a file. A file holds the messages
+ * back to back, which is the IPFIX file format (RFC 5655). All records use
+ * one template, which is sent in the first message and again every
+ * TEMPLATE_REFRESH milliseconds, since a UDP collector may miss it.
+ * Messages are sized to fit in one Ethernet frame. An exporter is used by
+ * one thread at a time.
+ */
+public class IpfixExporter
+{
+	/** Default IPFIX collector port */
+	public static final int DEFAULT_PORT = 4739;
+
+	private static final int VERSION = 10;
+	private static final int TEMPLATE_SET = 2;
+	private static final int TEMPLATE_ID = 256;
+	private static final long TEMPLATE_REFRESH = 60000;
+	private static final int MAX_MESSAGE = 1400;
+	private static final int SET_HEADER = 4;
+
+	/** Template fields: information element and length; see RFC 7012 */
+	private static final int[][] FIELDS = {
+		{8, 4},    // sourceIPv4Address
+		{12, 4},   // destinationIPv4Address
+		{4, 1},    // protocolIdentifier
+		{7, 2},    // sourceTransportPort
+		{11, 2},   // destinationTransportPort
+		{6, 2},    // tcpControlBits
+		{2, 8},    // packetDeltaCount
+		{1, 8},    // octetDeltaCount
+		{152, 8},  // flowStartMilliseconds
+		{153, 8},  // flowEndMilliseconds
+		{136, 1},  // flowEndReason
+		{305, 4},  // samplingPacketInterval
+	};
+	private static final int RECORD_LENGTH = 52;
+
+	private final WritableByteChannel channel;
+	private final String destination;
+	private final int observationDomain;
+	private final ByteBuffer message;
+	private long lastTemplate;
+
+	private long messages;
+	private long records;
+	private long errors;
+
+	private IpfixExporter(WritableByteChannel channel, String destination,
+			int observationDomain)
+	{
+		this.channel = channel;
+		this.destination = destination;
+		this.observationDomain = observationDomain;
+		this.message = ByteBuffer.allocate(MAX_MESSAGE);
+	}
+
+	/**
+	 * Create an exporter that sends to a collector.
+	 * @param host the collector's host name or address
+	 * @param port the collector's UDP port
+	 * @param observationDomain identifies the router to the collector
+	 * @return the exporter
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public static IpfixExporter toCollector(String host, int port,
+			int observationDomain) throws IOException
+	{
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.isUnresolved())
+		{ throw new IOException("Unknown collector host " + host); }
+		DatagramChannel channel = DatagramChannel.open();
+		channel.connect(address);
+		return new IpfixExporter(channel, "udp " + host + ":" + port,
+				observationDomain);
+	}
+
+	/**
+	 * Create an exporter that appends messages to a file.
+	 * @param filename name of the file
+	 * @param observationDomain identifies the router in the messages
+	 * @return the exporter
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static IpfixExporter toFile(String filename, int observationDomain)
+			throws IOException
+	{
+		FileChannel channel = new FileOutputStream(filename, true).getChannel();
+		return new IpfixExporter(channel, "file " + filename, observationDomain);
+	}
+
+	/**
+	 * Export flow records, in as many messages as needed.
+	 * @param flows records laid out as described in {@link FlowMeter}
+	 * @param count number of records
+	 * @param samplingInterval one in how many packets were metered
+	 */
+	public void export(long[] flows, int count, int samplingInterval)
+	{
+		int record = 0;
+		while (record < count)
+		{
+			long now = System.currentTimeMillis();
+			this.begin(now);
+			int setStart = this.message.position();
+			this.message.putShort((short)TEMPLATE_ID);
+			this.message.putShort((short)0);
+			while (record < count && this.message.remaining() >= RECORD_LENGTH)
+			{
+				this.putRecord(flows, record * FlowMeter.RECORD, samplingInterval);
+				record++;
+			}
+			this.message.putShort(setStart + 2,
+					(short)(this.message.position() - setStart));
+			this.send();
+		}
+	}
+
+	/** Start a message, with the template if it is due */
+	private void begin(long now)
+	{
+		this.message.clear();
+		this.message.putShort((short)VERSION);
+		this.message.putShort((short)0);
+		this.message.putInt((int)(now / 1000));
+		// Sequence number: data records exported before this message
+		this.message.putInt((int)this.records);
+		this.message.putInt(this.observationDomain);
+		if (now - this.lastTemplate >= TEMPLATE_REFRESH)
+		{
+			this.message.putShort((short)TEMPLATE_SET);
+			this.message.putShort((short)(SET_HEADER + 4 + FIELDS.length * 4));
+			this.message.putShort((short)TEMPLATE_ID);
+			this.message.putShort((short)FIELDS.length);
+			for (int[] field : FIELDS)
+			{
+				this.message.putShort((short)field[0]);
+				this.message.putShort((short)field[1]);
+			}
+			this.lastTemplate = now;
+		}
+	}
+
+	private void putRecord(long[] flows, int base, int samplingInterval)
+	{
+		long addresses = flows[base + FlowMeter.ADDRESSES];
+		long ports = flows[base + FlowMeter.PORTS];
+		this.message.putLong(addresses);
+		this.message.put((byte)(ports >>> 32));
+		this.message.putInt((int)ports);
+		this.message.putShort((short)((ports >>> 40) & 0xff));
+		this.message.putLong(flows[base + FlowMeter.PACKETS]);
+		this.message.putLong(flows[base + FlowMeter.BYTES]);
+		this.message.putLong(flows[base + FlowMeter.FIRST]);
+		this.message.putLong(flows[base + FlowMeter.LAST]);
+		this.message.put((byte)(ports >>> 56));
+		this.message.putInt(samplingInterval);
+		this.records++;
+	}
+
+	/** Fill in the message length and write the message */
+	private void send()
+	{
+		this.message.putShort(2, (short)this.message.position());
+		this.message.flip();
+		try
+		{
+			this.channel.write(this.message);
+			this.messages++;
+		}
+		catch (IOException e)
+		{
+			// A collector that is down must not stop metering
+			if (0 == this.errors++)
+			{ System.err.println("Error exporting flows: " + e); }
+		}
+	}
+
+	/**
+	 * Close the socket or file.
+	 */
+	public void close()
+	{
+		try { this.channel.close(); }
+		catch (IOException e) { System.err.println(e.toString()); }
+	}
+
+	/**
+	 * @return messages written
+	 */
+	public long getMessages()
+	{ return this.messages; }
+
+	/**
+	 * @return flow records exported
+	 */
+	public long getRecords()
+	{ return this.records; }
+
+	/**
+	 * @return messages that could not be written
+	 */
+	public long getErrors()
+	{ return this.errors; }
+
+	public String toString()
+	{
+		return String.format("IPFIX export to %s: %d records in %d messages, %d errors\n",
+				this.destination, this.records, this.messages, this.errors);
+	}
+}
@@ -0,0 +1,208 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.ArpView;
+import net.floodlightcontroller.packet.Checksum;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.ICMP;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.IPv4View;
+import net.floodlightcontroller.packet.MACAddress;
+
+/**
+ * Pre-encoded ARP and ICMP frames sent by one router interface. Each reply
+ * is a copy of a template with the per-reply fields patched in place, so
+ * it costs a few array copies rather than a graph of packet objects.
+ * Templates are immutable and may be used from any thread.
+ */
+class ReplyTemplates
+{
+	private static final int IP_OFFSET = EthernetView.HEADER_LENGTH;
+	private static final int IP_HEADER_LENGTH = 20;
+	private static final int ICMP_OFFSET = IP_OFFSET + IP_HEADER_LENGTH;
+	private static final int ICMP_HEADER_LENGTH = 4;
+
+	/** Offsets of fields not exposed by IPv4View */
+	private static final int IP_TOTAL_LENGTH = IP_OFFSET + 2;
+	private static final int ICMP_CHECKSUM = ICMP_OFFSET + 2;
+
+	/** Bytes of the offending datagram quoted after its header (RFC 792) */
+	public static final int ICMP_QUOTE_LENGTH = 8;
+
+	private final long macAddress;
+	private final int ipAddress;
+
+	private final byte[] arpReply;
+	private final byte[] arpRequest;
+	private final byte[] icmp;
+
+	/** Identification for the IPv4 headers this interface originates */
+	private final AtomicInteger identification = new AtomicInteger();
+
+	/**
+	 * Encode the templates for an interface.
+	 * @param iface the interface replies are sent from
+	 */
+	public ReplyTemplates(Iface iface)
+	{
+		this.macAddress = iface.getMacAddress().toLong();
+		this.ipAddress = iface.getIpAddress();
+
+		this.arpReply = encodeArp(ARP.OP_REPLY, 0);
+		this.arpRequest = encodeArp(ARP.OP_REQUEST, MACAddress.BROADCAST_VALUE);
+
+		IPv4 ip = new IPv4();
+		ip.setTtl((byte)64);
+		ip.setProtocol(IPv4.PROTOCOL_ICMP);
+		ip.setSourceAddress(this.ipAddress);
+		ip.setPayload(new ICMP());
+		Ethernet ether = new Ethernet();
+		ether.setEtherType(Ethernet.TYPE_IPv4);
+		ether.setSourceMACAddress(this.macAddress);
+		ether.setPayload(ip);
+		this.icmp = ether.serialize();
+	}
+
+	private byte[] encodeArp(short opCode, long destination)
+	{
+		ARP arp = new ARP();
+		arp.setHardwareType(ARP.HW_TYPE_ETHERNET);
+		arp.setProtocolType(ARP.PROTO_TYPE_IP);
+		arp.setHardwareAddressLength((byte)Ethernet.DATALAYER_ADDRESS_LENGTH);
+		arp.setProtocolAddressLength((byte)4);
+		arp.setOpCode(opCode);
+		arp.setSenderHardwareAddress(MACAddress.toBytes(this.macAddress));
+		arp.setSenderProtocolAddress(this.ipAddress);
+		arp.setTargetHardwareAddress(new byte[Ethernet.DATALAYER_ADDRESS_LENGTH]);
+		arp.setTargetProtocolAddress(0);
+		Ethernet ether = new Ethernet();
+		ether.setEtherType(Ethernet.TYPE_ARP);
+		ether.setSourceMACAddress(this.macAddress);
+		ether.setDestinationMACAddress(destination);
+		ether.setPayload(arp);
+		return ether.serialize();
+	}
+
+	/**
+	 * @param iface an interface
+	 * @return true if these templates still carry the interface's addresses
+	 */
+	public boolean matches(Iface iface)
+	{
+		MACAddress mac = iface.getMacAddress();
+		return (mac != null) && (mac.toLong() == this.macAddress)
+				&& (iface.getIpAddress() == this.ipAddress);
+	}
+
+	/**
+	 * Build an ARP reply announcing this interface.
+	 * @param destination MAC address of the requester, as an Ethernet
+	 *        destination
+	 * @param targetMac hardware address of the requester
+	 * @param targetIp protocol address of the requester
+	 * @return the reply
+	 */
+	public Ethernet arpReply(long destination, byte[] targetMac, int targetIp)
+	{
+		byte[] frame = this.arpReply.clone();
+		ByteBuffer bb = ByteBuffer.wrap(frame);
+		EthernetView.putMAC(bb, 0, destination);
+		ArpView arp = new ArpView().wrap(bb, EthernetView.HEADER_LENGTH);
+		System.arraycopy(targetMac, 0, frame, EthernetView.HEADER_LENGTH + 18,
+				Ethernet.DATALAYER_ADDRESS_LENGTH);
+		arp.setTargetProtocolAddress(targetIp);
+		return wrap(frame);
+	}
+
+	/**
+	 * Build a broadcast ARP request from this interface.
+	 * @param targetIp the address to resolve
+	 * @return the request
+	 */
+	public Ethernet arpRequest(int targetIp)
+	{
+		byte[] frame = this.arpRequest.clone();
+		new ArpView().wrap(ByteBuffer.wrap(frame), EthernetView.HEADER_LENGTH)
+				.setTargetProtocolAddress(targetIp);
+		return wrap(frame);
+	}
+
+	/**
+	 * Build an ICMP error from this interface, quoting the IP header and
+	 * first bytes of the offending datagram.
+	 * @param destination the address to report to
+	 * @param type ICMP type
+	 * @param code ICMP code
+	 * @param datagram the offending datagram as received; read from its
+	 *        position, which is left unchanged
+	 * @param headerLength length of the datagram's IP header in bytes
+	 * @return the error message
+	 */
+	public Ethernet icmpError(int destination, byte type, byte code,
+			ByteBuffer datagram, int headerLength)
+	{
+		int quoted = Math.min(datagram.remaining(),
+				headerLength + ICMP_QUOTE_LENGTH);
+		// The 4 bytes after the ICMP header are unused and stay zero
+		byte[] frame = newIcmpFrame(4 + quoted);
+		datagram.duplicate().get(frame, ICMP_OFFSET + ICMP_HEADER_LENGTH + 4,
+				quoted);
+		return finishIcmp(frame, this.ipAddress, destination, type, code);
+	}
+
+	/**
+	 * Build an echo reply. The reply is sourced from the address that was
+	 * pinged, which need not be this interface's.
+	 * @param source the address that was pinged
+	 * @param destination the address of the pinger
+	 * @param echo identifier, sequence number and data of the request; read
+	 *        from its position, which is left unchanged
+	 * @return the echo reply
+	 */
+	public Ethernet echoReply(int source, int destination, ByteBuffer echo)
+	{
+		byte[] frame = newIcmpFrame(echo.remaining());
+		echo.duplicate().get(frame, ICMP_OFFSET + ICMP_HEADER_LENGTH,
+				echo.remaining());
+		return finishIcmp(frame, source, destination, (byte)0, (byte)0);
+	}
+
+	private byte[] newIcmpFrame(int bodyLength)
+	{
+		byte[] frame = new byte[this.icmp.length + bodyLength];
+		System.arraycopy(this.icmp, 0, frame, 0, this.icmp.length);
+		return frame;
+	}
+
+	private Ethernet finishIcmp(byte[] frame, int source, int destination,
+			byte type, byte code)
+	{
+		ByteBuffer bb = ByteBuffer.wrap(frame);
+		bb.putShort(IP_TOTAL_LENGTH, (short)(frame.length - IP_OFFSET));
+		new IPv4View().wrap(bb, IP_OFFSET)
+				.setIdentification((short)this.identification.getAndIncrement())
+				.setSourceAddress(source)
+				.setDestinationAddress(destination)
+				.updateChecksum();
+		frame[ICMP_OFFSET] = type;
+		frame[ICMP_OFFSET + 1] = code;
+		bb.putShort(ICMP_CHECKSUM, (short)0);
+		bb.putShort(ICMP_CHECKSUM, Checksum.compute(bb, ICMP_OFFSET,
+				frame.length - ICMP_OFFSET));
+		return wrap(frame);
+	}
+
+	/** Wrap a finished frame; its payload stays encoded until read */
+	private static Ethernet wrap(byte[] frame)
+	{
+		Ethernet ether = new Ethernet();
+		ether.deserialize(frame, 0, frame.length);
+		return ether;
+	}
+}
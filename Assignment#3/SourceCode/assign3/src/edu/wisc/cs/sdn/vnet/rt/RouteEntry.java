@@ -1,5 +1,8 @@
 package edu.wisc.cs.sdn.vnet.rt;
 
+import java.util.Arrays;
+
+import net.floodlightcontroller.packet.FlowKey;
 import net.floodlightcontroller.packet.IPv4;
 import edu.wisc.cs.sdn.vnet.Iface;
 
@@ -21,6 +24,15 @@ public class RouteEntry
 	/** Router interface out which packets should be sent to reach
 	 * the destination or gateway */
 	private Iface iface;
+
+	/** Equal-cost paths to the destination, this entry's own first; null
+	 * if this entry is the only path. Replaced, never modified, so lookups
+	 * need not lock it. */
+	private volatile RouteEntry[] paths;
+
+	/** When this path's gateway last advertised the destination, in
+	 * milliseconds; 0 for a path that is not learned, which never ages */
+	private volatile long lastHeard;
 	
 	/**
 	 * Create a new route table entry.
@@ -69,13 +81,145 @@ public class RouteEntry
 
     public void setInterface(Iface iface)
     { this.iface = iface; }
+
+	/**
+	 * @return true if there is more than one equal-cost path
+	 */
+	public boolean isMultipath()
+	{ return this.paths != null; }
+
+	/**
+	 * @return the equal-cost paths to the destination, each as an entry
+	 *         with a single gateway and interface
+	 */
+	public RouteEntry[] getPaths()
+	{
+		RouteEntry[] current = this.paths;
+		return (null == current) ? new RouteEntry[] { this } : current.clone();
+	}
+
+	/**
+	 * @return when this path's gateway last advertised the destination, in
+	 *         milliseconds; 0 if the path is not learned
+	 */
+	public long getLastHeard()
+	{ return this.lastHeard; }
+
+	/**
+	 * Record that a path's gateway advertised the destination.
+	 * @param gatewayAddress gateway IP address of the path
+	 * @param iface router interface of the path
+	 * @param now current time, in milliseconds
+	 * @return true if the path was found
+	 */
+	boolean refreshPath(int gatewayAddress, Iface iface, long now)
+	{
+		for (RouteEntry path : this.getPaths())
+		{
+			if (path.gatewayAddress == gatewayAddress && path.iface == iface)
+			{
+				path.lastHeard = now;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Choose one of the equal-cost paths for a flow. The same hash always
+	 * picks the same path, so packets of a flow stay in order.
+	 * @param flowHash hash of the packet's flow
+	 * @return the chosen path; this entry if there is only one
+	 */
+	public RouteEntry select(int flowHash)
+	{
+		RouteEntry[] current = this.paths;
+		if (null == current)
+		{ return this; }
+		// Remix, so the choice is independent of a link aggregation group
+		// picking a member from the same hash further along
+		long h = FlowKey.mix64(flowHash) >>> 32;
+		return current[(int)((h * current.length) >>> 32)];
+	}
+
+	/**
+	 * Add an equal-cost path to the destination.
+	 * @param gatewayAddress gateway IP address of the path
+	 * @param iface router interface of the path
+	 * @return true if the path was added, false if it was already present
+	 */
+	boolean addPath(int gatewayAddress, Iface iface)
+	{
+		RouteEntry[] current = this.getPaths();
+		for (RouteEntry path : current)
+		{
+			if (path.gatewayAddress == gatewayAddress && path.iface == iface)
+			{ return false; }
+		}
+		if (null == this.paths)
+		{
+			// This entry's own gateway and interface may change, so the
+			// group holds a copy of it
+			current[0] = new RouteEntry(this.destinationAddress,
+					this.gatewayAddress, this.maskAddress, this.iface);
+			current[0].lastHeard = this.lastHeard;
+		}
+		RouteEntry[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = new RouteEntry(this.destinationAddress,
+				gatewayAddress, this.maskAddress, iface);
+		this.paths = updated;
+		return true;
+	}
+
+	/**
+	 * Remove an equal-cost path. If it was this entry's own path, the next
+	 * remaining path takes its place.
+	 * @param gatewayAddress gateway IP address of the path
+	 * @param iface router interface of the path
+	 * @return true if the path was removed, false if it was not present or
+	 *         was the only path
+	 */
+	boolean removePath(int gatewayAddress, Iface iface)
+	{
+		RouteEntry[] current = this.paths;
+		if (null == current)
+		{ return false; }
+		for (int i = 0; i < current.length; i++)
+		{
+			if (current[i].gatewayAddress != gatewayAddress
+					|| current[i].iface != iface)
+			{ continue; }
+			RouteEntry[] updated = new RouteEntry[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, i);
+			System.arraycopy(current, i + 1, updated, i, updated.length - i);
+			this.gatewayAddress = updated[0].gatewayAddress;
+			this.iface = updated[0].iface;
+			this.lastHeard = updated[0].lastHeard;
+			this.paths = (updated.length > 1) ? updated : null;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Drop every path except this entry's own.
+	 */
+	void clearPaths()
+	{ this.paths = null; }
 	
 	public String toString()
 	{
-		return String.format("%s \t%s \t%s \t%s",
-				IPv4.fromIPv4Address(this.destinationAddress),
-				IPv4.fromIPv4Address(this.gatewayAddress),
-				IPv4.fromIPv4Address(this.maskAddress),
-				this.iface.getName());
+		String result = "";
+		for (RouteEntry path : this.getPaths())
+		{
+			if (result.length() > 0)
+			{ result += "\n"; }
+			result += String.format("%s \t%s \t%s \t%s",
+				IPv4.fromIPv4Address(path.destinationAddress),
+				IPv4.fromIPv4Address(path.gatewayAddress),
+				IPv4.fromIPv4Address(path.maskAddress),
+				path.iface.getName());
+		}
+		return result;
 	}
 }
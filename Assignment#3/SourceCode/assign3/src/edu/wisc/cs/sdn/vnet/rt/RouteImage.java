@@ -0,0 +1,416 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A route table compiled to a binary image, so a router with millions of
+ * routes can start without parsing text. The image is memory-mapped and
+ * the route table is built from it in one pass (see
+ * {@link RouteTable#load(String, Router)}, which accepts either format).
+ *
+ * An image is big-endian: a header of MAGIC, VERSION, the number of
+ * interfaces and the number of routes; each interface name, as a 2-byte
+ * length and UTF-8 bytes; then one RECORD-byte record per route: the
+ * destination, the gateway, the prefix length, a pad byte and the index
+ * of the interface name. Records are sorted by destination and prefix
+ * length, so the equal-cost paths to a prefix are adjacent, in the order
+ * they appeared in the text.
+ *
+ * To compile a text route table:
+ *
+ *     java -cp bin edu.wisc.cs.sdn.vnet.rt.RouteImage routing_table image
+ */
+public class RouteImage
+{
+	private static final int MAGIC = 0x56525449; // "VRTI"
+	private static final int VERSION = 1;
+	private static final int HEADER = 16;
+	static final int RECORD = 12;
+
+	/** Routes in a text table are numbered in 26 bits while sorting */
+	private static final int MAX_ROUTES = 1 << 26;
+
+	private final String[] interfaces;
+	private final ByteBuffer records;
+	private final int count;
+
+	private RouteImage(String[] interfaces, ByteBuffer records, int count)
+	{
+		this.interfaces = interfaces;
+		this.records = records;
+		this.count = count;
+	}
+
+	/**
+	 * @return number of routes
+	 */
+	public int size()
+	{ return this.count; }
+
+	/**
+	 * @return names of the interfaces routes use, by index
+	 */
+	public String[] getInterfaces()
+	{ return this.interfaces.clone(); }
+
+	public int getDestinationAddress(int route)
+	{ return this.records.getInt(route * RECORD); }
+
+	public int getGatewayAddress(int route)
+	{ return this.records.getInt(route * RECORD + 4); }
+
+	public int getPrefixLength(int route)
+	{ return this.records.get(route * RECORD + 8) & 0xff; }
+
+	/**
+	 * @return index of the route's interface in getInterfaces()
+	 */
+	public int getInterface(int route)
+	{ return this.records.getShort(route * RECORD + 10) & 0xffff; }
+
+	/**
+	 * @return subnet mask of a prefix length
+	 */
+	static int mask(int prefixLength)
+	{ return (0 == prefixLength) ? 0 : -1 << (32 - prefixLength); }
+
+	/**
+	 * Check whether a file is a route image, rather than a text table.
+	 * @param filename name of the file
+	 * @return true if the file starts with the image magic number
+	 */
+	public static boolean isImage(String filename)
+	{
+		try (DataInputStream in = new DataInputStream(
+				Files.newInputStream(Paths.get(filename))))
+		{ return in.readInt() == MAGIC; }
+		catch (IOException e)
+		{ return false; }
+	}
+
+	/**
+	 * Map a route image into memory.
+	 * @param filename name of the image
+	 * @return the image
+	 * @throws IOException if the file cannot be read or is not a valid image
+	 */
+	public static RouteImage map(String filename) throws IOException
+	{
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.READ))
+		{
+			if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE)
+			{ throw new IOException("Invalid route image " + filename); }
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+		{ throw new IOException("Invalid route image " + filename); }
+		int interfaceCount = buffer.getInt();
+		int count = buffer.getInt();
+		if (interfaceCount < 0 || interfaceCount > 0xffff || count < 0)
+		{ throw new IOException("Invalid route image " + filename); }
+
+		String[] interfaces = new String[interfaceCount];
+		try
+		{
+			for (int i = 0; i < interfaceCount; i++)
+			{
+				byte[] name = new byte[buffer.getShort() & 0xffff];
+				buffer.get(name);
+				interfaces[i] = new String(name, StandardCharsets.UTF_8);
+			}
+		}
+		catch (RuntimeException e)
+		{ throw new IOException("Truncated route image " + filename); }
+		if (buffer.remaining() != (long)count * RECORD)
+		{ throw new IOException("Truncated route image " + filename); }
+		return new RouteImage(interfaces, buffer.slice(), count);
+	}
+
+	/**
+	 * Write the image to a file.
+	 * @param filename name of the file, which is replaced
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(String filename) throws IOException
+	{
+		int names = 0;
+		byte[][] encoded = new byte[this.interfaces.length][];
+		for (int i = 0; i < encoded.length; i++)
+		{
+			encoded[i] = this.interfaces[i].getBytes(StandardCharsets.UTF_8);
+			names += 2 + encoded[i].length;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER + names);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(this.interfaces.length);
+		header.putInt(this.count);
+		for (byte[] name : encoded)
+		{
+			header.putShort((short)name.length);
+			header.put(name);
+		}
+		header.flip();
+
+		ByteBuffer body = this.records.duplicate();
+		body.position(0).limit(this.count * RECORD);
+		try (FileChannel channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while (header.hasRemaining())
+			{ channel.write(header); }
+			while (body.hasRemaining())
+			{ channel.write(body); }
+		}
+	}
+
+	/**
+	 * Compile a text route table. Each line holds a destination, a
+	 * gateway, a subnet mask and an interface name, separated by blanks;
+	 * blank lines are skipped.
+	 * @param filename name of the text route table
+	 * @return the image
+	 * @throws IOException if the file cannot be read or has an invalid line
+	 */
+	public static RouteImage compile(String filename) throws IOException
+	{
+		Path path = Paths.get(filename);
+		int[] destinations = new int[1024];
+		int[] gateways = new int[1024];
+		byte[] prefixLengths = new byte[1024];
+		short[] ifaces = new short[1024];
+		String[] interfaces = new String[0];
+		int count = 0;
+
+		try (Tokenizer tokens = new Tokenizer(Files.newInputStream(path)))
+		{
+			while (tokens.nextLine())
+			{
+				if (count == MAX_ROUTES)
+				{ throw new IOException("Too many routes in " + filename); }
+				if (count == destinations.length)
+				{
+					destinations = Arrays.copyOf(destinations, count * 2);
+					gateways = Arrays.copyOf(gateways, count * 2);
+					prefixLengths = Arrays.copyOf(prefixLengths, count * 2);
+					ifaces = Arrays.copyOf(ifaces, count * 2);
+				}
+
+				int dstIp = tokens.address();
+				int gwIp = tokens.address();
+				int maskIp = tokens.address();
+				String name = tokens.name();
+				tokens.endLine();
+				if (0 == dstIp || 0 == maskIp)
+				{ throw tokens.invalid("cannot use 0.0.0.0 as destination or mask"); }
+				int prefixLength = Integer.bitCount(maskIp);
+				if (mask(prefixLength) != maskIp)
+				{ throw tokens.invalid("mask is not a prefix"); }
+
+				int iface = 0;
+				while (iface < interfaces.length && !interfaces[iface].equals(name))
+				{ iface++; }
+				if (iface == interfaces.length)
+				{
+					if (iface > 0xffff)
+					{ throw tokens.invalid("too many interfaces"); }
+					interfaces = Arrays.copyOf(interfaces, iface + 1);
+					interfaces[iface] = name;
+				}
+
+				destinations[count] = dstIp;
+				gateways[count] = gwIp;
+				prefixLengths[count] = (byte)prefixLength;
+				ifaces[count] = (short)iface;
+				count++;
+			}
+		}
+
+		// Sort by destination, then prefix length, then line; the sign bit
+		// is flipped so signed order is unsigned order
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			order[i] = ((((long)destinations[i] & 0xffffffffL) << 32)
+					| ((long)prefixLengths[i] << 26) | i) ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(order);
+
+		ByteBuffer records = ByteBuffer.allocate(count * RECORD);
+		for (long key : order)
+		{
+			int i = (int)(key & (MAX_ROUTES - 1));
+			records.putInt(destinations[i]);
+			records.putInt(gateways[i]);
+			records.put(prefixLengths[i]);
+			records.put((byte)0);
+			records.putShort(ifaces[i]);
+		}
+		return new RouteImage(interfaces, records, count);
+	}
+
+	/**
+	 * Splits a text route table into addresses and names without regular
+	 * expressions or intermediate strings.
+	 */
+	private static class Tokenizer implements AutoCloseable
+	{
+		private final InputStream in;
+		private final byte[] buffer = new byte[1 << 16];
+		private int position;
+		private int limit;
+		private int line;
+
+		Tokenizer(InputStream in)
+		{ this.in = in; }
+
+		/** Next byte, without consuming it; -1 at end of file */
+		private int peek() throws IOException
+		{
+			if (this.position == this.limit)
+			{
+				this.limit = this.in.read(this.buffer);
+				this.position = 0;
+				if (this.limit <= 0)
+				{
+					this.limit = 0;
+					return -1;
+				}
+			}
+			return this.buffer[this.position] & 0xff;
+		}
+
+		private void skipBlanks() throws IOException
+		{
+			int c;
+			while ((c = this.peek()) == ' ' || c == '\t')
+			{ this.position++; }
+		}
+
+		/**
+		 * Move to the next line that is not blank.
+		 * @return false at end of file
+		 */
+		boolean nextLine() throws IOException
+		{
+			while (true)
+			{
+				this.skipBlanks();
+				int c = this.peek();
+				if (c < 0)
+				{ return false; }
+				if (c != '\n' && c != '\r')
+				{
+					this.line++;
+					return true;
+				}
+				if ('\n' == c)
+				{ this.line++; }
+				this.position++;
+			}
+		}
+
+		/** Parse a dotted-quad IP address */
+		int address() throws IOException
+		{
+			this.skipBlanks();
+			int address = 0;
+			for (int octet = 0; octet < 4; octet++)
+			{
+				if (octet > 0)
+				{
+					if (this.peek() != '.')
+					{ throw this.invalid("bad IP address"); }
+					this.position++;
+				}
+				int value = 0;
+				int digits = 0;
+				int c;
+				while ((c = this.peek()) >= '0' && c <= '9')
+				{
+					value = value * 10 + (c - '0');
+					this.position++;
+					if (++digits > 3 || value > 255)
+					{ throw this.invalid("bad IP address"); }
+				}
+				if (0 == digits)
+				{ throw this.invalid("bad IP address"); }
+				address = (address << 8) | value;
+			}
+			return address;
+		}
+
+		/** Parse an interface name */
+		String name() throws IOException
+		{
+			this.skipBlanks();
+			StringBuilder name = new StringBuilder();
+			int c;
+			while (((c = this.peek()) >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+					|| (c >= '0' && c <= '9'))
+			{
+				name.append((char)c);
+				this.position++;
+			}
+			if (0 == name.length())
+			{ throw this.invalid("bad interface name"); }
+			return name.toString();
+		}
+
+		/** Check that nothing but blanks is left on the line */
+		void endLine() throws IOException
+		{
+			this.skipBlanks();
+			int c = this.peek();
+			if (c >= 0 && c != '\n' && c != '\r')
+			{ throw this.invalid("unexpected text"); }
+		}
+
+		IOException invalid(String reason)
+		{ return new IOException("Invalid entry in routing table file, line "
+				+ this.line + ": " + reason); }
+
+		public void close() throws IOException
+		{ this.in.close(); }
+	}
+
+	/**
+	 * Compile a text route table to an image file.
+	 * @param args the text route table and the image to write
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length != 2)
+		{
+			System.out.println("RouteImage routing_table image");
+			return;
+		}
+		try
+		{
+			long start = System.nanoTime();
+			RouteImage image = compile(args[0]);
+			image.write(args[1]);
+			System.out.println(String.format("Compiled %d routes in %d ms",
+					image.size(), (System.nanoTime() - start) / 1000000));
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
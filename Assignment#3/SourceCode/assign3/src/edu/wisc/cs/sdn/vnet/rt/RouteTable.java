@@ -1,33 +1,154 @@
 package edu.wisc.cs.sdn.vnet.rt;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import net.floodlightcontroller.packet.IPv4;
 
 import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.jfr.RouteChangeEvent;
 
 /**
- * Route table for a router.
+ * Route table for a router. A prefix may have several equal-cost paths,
+ * among which packets are spread by flow (see {@link RouteEntry#select}).
  * @author Aaron Gember-Jacobson
  */
 public class RouteTable 
 {
 	/** Entries in the route table */
 	private List<RouteEntry> entries; 
+
+	/** Forwarding table compressed from the entries; null while it is out
+	 * of date, or if compression is off */
+	private volatile CompressedFib fib;
+
+	/** Thread that compresses the entries after they change; null if
+	 * compression is off. Guarded by entries, as are the versions. */
+	private Thread compressor;
+
+	/** Number of changes made to the entries */
+	private long version;
+
+	/** Version the last compressed table was built from */
+	private long builtVersion;
 	
 	/**
 	 * Initialize an empty route table.
 	 */
 	public RouteTable()
-	{ this.entries = new LinkedList<RouteEntry>(); }
+	{ this.entries = new ArrayList<RouteEntry>(); }
 	
+	/**
+	 * Look up the next hop for a packet, in the compressed forwarding table
+	 * if it is up to date, otherwise in the entries.
+	 * @param ip destination IP address of the packet
+	 * @return an entry with the next hop, null if there is no route. Its
+	 *         gateway, interface and paths are those of the matching route,
+	 *         but from the compressed table its destination and mask may not
+	 *         be; use lookup() for the route itself.
+	 */
+	public RouteEntry lookupForwarding(int ip)
+	{
+		CompressedFib current = this.fib;
+		return (null == current) ? this.lookup(ip) : current.lookup(ip);
+	}
+
+	/**
+	 * Keep a compressed forwarding table for lookupForwarding(). It is
+	 * rebuilt on a thread of its own after the entries change; until it
+	 * is, lookups use the entries.
+	 * @param enabled true to compress, false to stop
+	 */
+	public void setCompression(boolean enabled)
+	{
+		synchronized(this.entries)
+		{
+			if (enabled == (this.compressor != null))
+			{ return; }
+			this.fib = null;
+			if (enabled)
+			{
+				this.builtVersion = this.version - 1;
+				this.compressor = new Thread(new Compressor(), "fib-compressor");
+				this.compressor.setDaemon(true);
+				this.compressor.start();
+			}
+			else
+			{
+				this.compressor = null;
+				this.entries.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return true if a compressed forwarding table is kept
+	 */
+	public boolean isCompressed()
+	{
+		synchronized(this.entries)
+		{ return this.compressor != null; }
+	}
+
+	/**
+	 * @return the compressed forwarding table; null if it is out of date,
+	 *         compression is off or a mask is not a prefix
+	 */
+	public CompressedFib getFib()
+	{ return this.fib; }
+
+	/** Note a change to the entries; call holding the entries' lock */
+	private void changed()
+	{
+		this.version++;
+		this.fib = null;
+		if (this.compressor != null)
+		{ this.entries.notifyAll(); }
+	}
+
+	/**
+	 * Rebuilds the compressed table from a copy of the entries, outside
+	 * the lock, and installs it unless the entries changed meanwhile, in
+	 * which case it starts again. A burst of changes, like the routes of
+	 * one RIP update, costs one more build, not one per change.
+	 */
+	private class Compressor implements Runnable
+	{
+		public void run()
+		{
+			Thread self = Thread.currentThread();
+			while (true)
+			{
+				List<RouteEntry> copy;
+				long building;
+				synchronized(entries)
+				{
+					while (compressor == self && builtVersion == version)
+					{
+						try { entries.wait(); }
+						catch (InterruptedException e) { return; }
+					}
+					if (compressor != self)
+					{ return; }
+					building = version;
+					copy = new ArrayList<RouteEntry>(entries);
+				}
+
+				CompressedFib compressed = CompressedFib.build(copy);
+				synchronized(entries)
+				{
+					if (compressor == self && version == building)
+					{
+						builtVersion = building;
+						fib = compressed;
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Lookup the route entry that matches a given IP address.
 	 * @param ip IP address
@@ -107,95 +228,143 @@ public class RouteTable
 	}
 
 	/**
-	 * Populate the route table from a file.
+	 * Populate the route table from a file, either a text route table or
+	 * an image compiled from one by {@link RouteImage}.
 	 * @param filename name of the file containing the static route table
 	 * @param router the route table is associated with
 	 * @return true if route table was successfully loaded, otherwise false
 	 */
 	public boolean load(String filename, Router router)
 	{
-		// Open the file
-		BufferedReader reader;
-		try 
+		RouteImage image;
+		try
 		{
-			FileReader fileReader = new FileReader(filename);
-			reader = new BufferedReader(fileReader);
+			if (RouteImage.isImage(filename))
+			{ image = RouteImage.map(filename); }
+			else
+			{ image = RouteImage.compile(filename); }
 		}
-		catch (FileNotFoundException e) 
+		catch (IOException e)
 		{
 			System.err.println(e.toString());
 			return false;
 		}
-		
-		while (true)
+		return this.load(image, router);
+	}
+
+	/**
+	 * Populate the route table from an image, in bulk. Routes to a prefix
+	 * already in the table are added to it as equal-cost paths. Each route
+	 * is recorded as an insert or add path event, but only when such
+	 * events are being recorded, so a large image loads as fast as ever.
+	 * @param image the routes
+	 * @param router the route table is associated with
+	 * @return true if route table was successfully loaded, otherwise false
+	 */
+	public boolean load(RouteImage image, Router router)
+	{
+		String[] names = image.getInterfaces();
+		Iface[] ifaces = new Iface[names.length];
+		for (int i = 0; i < names.length; i++)
 		{
-			// Read a route entry from the file
-			String line = null;
-			try 
-			{ line = reader.readLine(); }
-			catch (IOException e) 
-			{
-				System.err.println(e.toString());
-				try { reader.close(); } catch (IOException f) {};
-				return false;
-			}
-			
-			// Stop if we have reached the end of the file
-			if (null == line)
-			{ break; }
-			
-			// Parse fields for route entry
-			String ipPattern = "(\\d+\\.\\d+\\.\\d+\\.\\d+)";
-			String ifacePattern = "([a-zA-Z0-9]+)";
-			Pattern pattern = Pattern.compile(String.format(
-                        "%s\\s+%s\\s+%s\\s+%s", 
-                        ipPattern, ipPattern, ipPattern, ifacePattern));
-			Matcher matcher = pattern.matcher(line);
-			if (!matcher.matches() || matcher.groupCount() != 4)
+			ifaces[i] = router.getInterface(names[i]);
+			if (null == ifaces[i])
 			{
-				System.err.println("Invalid entry in routing table file");
-				try { reader.close(); } catch (IOException f) {};
+				System.err.println("Error loading route table, invalid interface "
+						+ names[i]);
 				return false;
 			}
+		}
 
-			int dstIp = IPv4.toIPv4Address(matcher.group(1));
-			if (0 == dstIp)
-			{
-				System.err.println("Error loading route table, cannot convert "
-						+ matcher.group(1) + " to valid IP");
-				try { reader.close(); } catch (IOException f) {};
-				return false;
-			}
-			
-			int gwIp = IPv4.toIPv4Address(matcher.group(2));
-			
-			int maskIp = IPv4.toIPv4Address(matcher.group(3));
-			if (0 == maskIp)
+		int count = image.size();
+		List<RouteEntry> loaded = new ArrayList<RouteEntry>(count);
+		// Which routes became paths of another entry, if events are recorded
+		boolean[] addedPath = new RouteChangeEvent().isEnabled()
+				? new boolean[count] : null;
+		synchronized(this.entries)
+		{
+			this.changed();
+
+			// Prefixes already in the table, which the image may add paths
+			// to, in the image's order so both can be walked together
+			RouteEntry[] existing = this.entries.toArray(new RouteEntry[0]);
+			Arrays.sort(existing, (x, y) -> Long.compare(order(x), order(y)));
+			int next = 0;
+
+			// Equal-cost paths to a prefix are adjacent in an image
+			RouteEntry previous = null;
+			for (int i = 0; i < count; i++)
 			{
-				System.err.println("Error loading route table, cannot convert "
-						+ matcher.group(3) + " to valid IP");
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				int dstIp = image.getDestinationAddress(i);
+				int prefixLength = image.getPrefixLength(i);
+				int gwIp = image.getGatewayAddress(i);
+				int iface = image.getInterface(i);
+				if (iface >= ifaces.length || prefixLength > 32)
+				{
+					System.err.println("Error loading route table, invalid route "
+							+ IPv4.fromIPv4Address(dstIp));
+					return false;
+				}
+				int maskIp = RouteImage.mask(prefixLength);
+
+				if (previous != null && previous.getDestinationAddress() == dstIp
+						&& previous.getMaskAddress() == maskIp)
+				{
+					previous.addPath(gwIp, ifaces[iface]);
+					if (addedPath != null)
+					{ addedPath[i] = true; }
+					continue;
+				}
+				long key = order(dstIp, prefixLength);
+				while (next < existing.length && order(existing[next]) < key)
+				{ next++; }
+				if (next < existing.length && order(existing[next]) == key
+						&& existing[next].getMaskAddress() == maskIp)
+				{
+					previous = existing[next];
+					previous.addPath(gwIp, ifaces[iface]);
+					if (addedPath != null)
+					{ addedPath[i] = true; }
+					continue;
+				}
+				previous = new RouteEntry(dstIp, gwIp, maskIp, ifaces[iface]);
+				loaded.add(previous);
 			}
-			
-			String ifaceName = matcher.group(4).trim();
-			Iface iface = router.getInterface(ifaceName);
-			if (null == iface)
+			this.entries.addAll(loaded);
+		}
+
+		if (addedPath != null)
+		{
+			for (int i = 0; i < count; i++)
 			{
-				System.err.println("Error loading route table, invalid interface "
-						+ matcher.group(4));
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				RouteChangeEvent.emit(addedPath[i] ? RouteChangeEvent.ADD_PATH
+						: RouteChangeEvent.INSERT, image.getDestinationAddress(i),
+						RouteImage.mask(image.getPrefixLength(i)),
+						image.getGatewayAddress(i),
+						ifaces[image.getInterface(i)].getName());
 			}
-			
-			// Add an entry to the route table
-			this.insert(dstIp, gwIp, maskIp, iface);
 		}
-	
-		// Close the file
-		try { reader.close(); } catch (IOException f) {};
 		return true;
 	}
+
+	/** Sort key of a route in an image: destination, then prefix length */
+	private static long order(int dstIp, int prefixLength)
+	{ return ((dstIp & 0xffffffffL) << 6) | prefixLength; }
+
+	private static long order(RouteEntry entry)
+	{
+		return order(entry.getDestinationAddress(),
+				Integer.bitCount(entry.getMaskAddress()));
+	}
+
+	/**
+	 * @return number of destinations in the route table
+	 */
+	public int size()
+	{
+		synchronized(this.entries)
+		{ return this.entries.size(); }
+	}
 	
 	/**
 	 * Add an entry to the route table.
@@ -211,7 +380,80 @@ public class RouteTable
         synchronized(this.entries)
         { 
             this.entries.add(entry);
+            this.changed();
         }
+        RouteChangeEvent.emit(RouteChangeEvent.INSERT, dstIp, maskIp, gwIp,
+                iface.getName());
+	}
+	
+	/**
+	 * Add an equal-cost path to the route table, creating an entry for the
+	 * destination if there is none.
+	 * @param dstIp destination IP
+	 * @param gwIp gateway IP of the path
+	 * @param maskIp subnet mask
+	 * @param iface router interface of the path
+	 * @return true if the path was added, false if it was already present
+	 */
+	public boolean addPath(int dstIp, int gwIp, int maskIp, Iface iface)
+	{
+		synchronized(this.entries)
+		{
+			RouteEntry entry = this.find(dstIp, maskIp);
+			if (null == entry)
+			{
+				this.insert(dstIp, gwIp, maskIp, iface);
+				return true;
+			}
+			if (!entry.addPath(gwIp, iface))
+			{ return false; }
+			this.changed();
+		}
+		RouteChangeEvent.emit(RouteChangeEvent.ADD_PATH, dstIp, maskIp, gwIp,
+				iface.getName());
+		return true;
+	}
+
+	/**
+	 * Remove one equal-cost path to a destination. The entry itself is
+	 * kept, so the last path can only be removed with remove().
+	 * @param dstIp destination IP of the entry
+	 * @param maskIp subnet mask of the entry
+	 * @param gwIp gateway IP of the path
+	 * @param iface router interface of the path
+	 * @return true if the path was found and removed, otherwise false
+	 */
+	public boolean removePath(int dstIp, int maskIp, int gwIp, Iface iface)
+	{
+		synchronized(this.entries)
+		{
+			RouteEntry entry = this.find(dstIp, maskIp);
+			if (null == entry || !entry.removePath(gwIp, iface))
+			{ return false; }
+			this.changed();
+		}
+		RouteChangeEvent.emit(RouteChangeEvent.REMOVE_PATH, dstIp, maskIp, gwIp,
+				iface.getName());
+		return true;
+	}
+	
+	/**
+	 * Record that a path's gateway advertised its destination, so the path
+	 * is kept when stale paths are aged out.
+	 * @param dstIp destination IP of the entry
+	 * @param maskIp subnet mask of the entry
+	 * @param gwIp gateway IP of the path
+	 * @param iface router interface of the path
+	 * @return true if the path was found, otherwise false
+	 */
+	public boolean refreshPath(int dstIp, int maskIp, int gwIp, Iface iface)
+	{
+		synchronized(this.entries)
+		{
+			RouteEntry entry = this.find(dstIp, maskIp);
+			return (entry != null)
+					&& entry.refreshPath(gwIp, iface, System.currentTimeMillis());
+		}
 	}
 	
 	/**
@@ -228,12 +470,15 @@ public class RouteTable
             if (null == entry)
             { return false; }
             this.entries.remove(entry);
+            this.changed();
         }
+        RouteChangeEvent.emit(RouteChangeEvent.REMOVE, dstIp, maskIp, 0, null);
         return true;
     }
 	
 	/**
-	 * Update an entry in the route table.
+	 * Update an entry in the route table. The new gateway becomes the only
+	 * path to the destination.
 	 * @param dstIP destination IP of the entry to update
      * @param maskIp subnet mask of the entry to update
 	 * @param gatewayAddress new gateway IP address for matching entry
@@ -248,9 +493,13 @@ public class RouteTable
             RouteEntry entry = this.find(dstIp, maskIp);
             if (null == entry)
             { return false; }
+            entry.clearPaths();
             entry.setGatewayAddress(gwIp);
             entry.setInterface(iface);
+            this.changed();
         }
+        RouteChangeEvent.emit(RouteChangeEvent.UPDATE, dstIp, maskIp, gwIp,
+                iface.getName());
         return true;
 	}
 
@@ -3,29 +3,33 @@ package edu.wisc.cs.sdn.vnet.rt;
 import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.DumpFile;
 import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.LinkAggregationGroup;
+import edu.wisc.cs.sdn.vnet.StageTracer;
+import edu.wisc.cs.sdn.vnet.jfr.*;
 import edu.wisc.cs.sdn.vnet.rt.*;
 
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.FlowKey;
 import net.floodlightcontroller.packet.MACAddress;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.ICMP;
-import net.floodlightcontroller.packet.Data;
 import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.RIPv2;
 import net.floodlightcontroller.packet.RIPv2Entry;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.nio.ByteBuffer;
 /**
  * @author Aaron Gember-Jacobson and Anubhavnidhi Abhashkumar
  */
 public class Router extends Device
 {	
-	/** Routing table for the router */
-	private RouteTable routeTable;
+	/** Routing table for the router; replaced whole when reloaded */
+	private volatile RouteTable routeTable;
 	
-	/** ARP cache for the router */
-	private ArpCache arpCache;
+	/** ARP cache for the router; replaced whole when reloaded */
+	private volatile ArpCache arpCache;
 
 	/** ARP Request Table */
 	private ARPRequestTable arpReqTable;
@@ -33,6 +37,50 @@ public class Router extends Device
 	/** Distance Vector Table */
 	private DistanceVectorTable distanceVectorTable;
 
+	/** Pre-encoded ARP and ICMP replies; maps interface names to templates */
+	private Map<String, ReplyTemplates> replyTemplates;
+
+	/** Rate limits for ICMP errors originated by the router */
+	private IcmpRateLimiter icmpRateLimiter;
+
+	/** Egress queues and their scheduler; null if packets are sent
+	 * directly */
+	private EgressScheduler egressScheduler;
+
+	/** Packet filter applied before route lookup; null if none. Replaced
+	 * as a whole, so a new rule set takes effect atomically. */
+	private volatile AclClassifier acl;
+
+	/** Connection tracking of packets through the router; null if flows
+	 * are not tracked */
+	private volatile ConnTrack connTrack;
+
+	/** Sampled flow metering and export; null if flows are not exported */
+	private volatile FlowMeter flowMeter;
+
+	/** Periodic snapshot of learned state; null if none is saved */
+	private RouterSnapshot snapshot;
+
+	/** Whether route tables keep a compressed forwarding table */
+	private volatile boolean fibCompression;
+
+	/** Stages traced through handlePacket */
+	static final int STAGE_PARSE = 0;
+	static final int STAGE_CHECKSUM = 1;
+	static final int STAGE_FILTER = 2;
+	static final int STAGE_TTL = 3;
+	static final int STAGE_ROUTE = 4;
+	static final int STAGE_ARP = 5;
+	static final int STAGE_SEND = 6;
+
+	/** Largest route table printed in full when it is loaded */
+	private static final int MAX_PRINTED_ROUTES = 1000;
+
+	/** Scratch keys for the ACL, connection tracking and flow metering,
+	 * which are used on several threads */
+	private static final ThreadLocal<FlowKey> flowKeys =
+			ThreadLocal.withInitial(FlowKey::new);
+
 	/**
 	 * Creates a router for a specific host.
 	 * @param host hostname for the router
@@ -47,6 +95,252 @@ public class Router extends Device
 		Thread t = new Thread(obj);
 		t.start();
 		this.distanceVectorTable = new DistanceVectorTable();
+		this.replyTemplates = new ConcurrentHashMap<String, ReplyTemplates>();
+		this.icmpRateLimiter = new IcmpRateLimiter(
+				IcmpRateLimiter.DEFAULT_GLOBAL_RATE,
+				IcmpRateLimiter.DEFAULT_DESTINATION_RATE);
+		this.stageTracer = new StageTracer("parse", "checksum", "filter",
+				"ttl", "route", "arp", "send");
+	}
+
+	/**
+	 * Set the rate limits for ICMP error messages (time exceeded and
+	 * destination unreachable). Echo replies are not limited.
+	 * @param globalRate errors per second for the whole router; 0 for no
+	 *        global limit
+	 * @param destinationRate errors per second to any one destination; 0
+	 *        for no per-destination limit
+	 */
+	public void setIcmpRateLimit(long globalRate, long destinationRate)
+	{ this.icmpRateLimiter = new IcmpRateLimiter(globalRate, destinationRate); }
+
+	/**
+	 * @return rate limits and counters for ICMP errors
+	 */
+	public IcmpRateLimiter getIcmpRateLimiter()
+	{ return this.icmpRateLimiter; }
+
+	/**
+	 * Replace the packet filter. Packets being handled finish with the
+	 * rule set they started with.
+	 * @param acl the compiled rules; null to remove the filter
+	 */
+	public void setAcl(AclClassifier acl)
+	{ this.acl = acl; }
+
+	/**
+	 * @return the packet filter; null if there is none
+	 */
+	public AclClassifier getAcl()
+	{ return this.acl; }
+
+	/**
+	 * Load a packet filter from a file and install it.
+	 * @param aclFile the name of the file containing the rules
+	 * @return true if the rules were loaded and installed, otherwise false;
+	 *         on failure the current filter is kept
+	 */
+	public boolean loadAcl(String aclFile)
+	{
+		AclClassifier loaded = AclClassifier.load(aclFile);
+		if (null == loaded)
+		{
+			System.err.println("Error loading ACL from file " + aclFile);
+			return false;
+		}
+		this.setAcl(loaded);
+		System.out.println("Loaded ACL");
+		System.out.println("-------------------------------------------------");
+		System.out.print(loaded.toString());
+		System.out.println("-------------------------------------------------");
+		return true;
+	}
+
+	/**
+	 * Track the connections of the packets the router handles.
+	 * @param capacity most flows tracked at once; 0 to stop tracking
+	 */
+	public void setConnTrack(int capacity)
+	{
+		this.connTrack = (capacity > 0) ? new ConnTrack(capacity) : null;
+		if (capacity > 0)
+		{ System.out.println("Connection tracking enabled: " + capacity + " flows"); }
+	}
+
+	/**
+	 * @return the connection tracking table; null if flows are not tracked
+	 */
+	public ConnTrack getConnTrack()
+	{ return this.connTrack; }
+
+	/**
+	 * Meter sampled packets by flow and export the flows as IPFIX; the
+	 * meter is started here, and any previous meter is stopped.
+	 * @param meter the flow meter; null to stop exporting flows
+	 */
+	public void setFlowMeter(FlowMeter meter)
+	{
+		if (meter != null)
+		{ meter.start(); }
+		FlowMeter previous = this.flowMeter;
+		this.flowMeter = meter;
+		if (previous != null)
+		{ previous.stop(); }
+		if (meter != null)
+		{ System.out.print("Flow export enabled: " + meter.getExporter()); }
+	}
+
+	/**
+	 * @return the flow meter; null if flows are not exported
+	 */
+	public FlowMeter getFlowMeter()
+	{ return this.flowMeter; }
+
+	/**
+	 * Forward by a compressed copy of the route table (see
+	 * {@link CompressedFib}), which is kept up to date as routes change.
+	 * RIP and the snapshot keep using the full table.
+	 * @param enabled true to compress, false to forward by the full table
+	 */
+	public void setFibCompression(boolean enabled)
+	{
+		this.fibCompression = enabled;
+		this.routeTable.setCompression(enabled);
+		if (enabled)
+		{ System.out.println("Forwarding table compression enabled"); }
+	}
+
+	/**
+	 * Save snapshots of the learned ARP entries and routes periodically,
+	 * and a last one when the router is destroyed; the snapshot is started
+	 * here, and any previous one is stopped.
+	 * @param snapshot the snapshot; null to stop saving snapshots
+	 */
+	public void setSnapshot(RouterSnapshot snapshot)
+	{
+		if (snapshot != null)
+		{ snapshot.start(); }
+		RouterSnapshot previous = this.snapshot;
+		this.snapshot = snapshot;
+		if (previous != null)
+		{ previous.stop(); }
+	}
+
+	/**
+	 * Queue packets for sending by traffic class, instead of sending them
+	 * directly, and start a thread to drain the queues.
+	 * @param weights weights of the expedited, best-effort and bulk classes
+	 * @param queueLimit most packets queued per class and interface
+	 * @param red true to drop early with RED, false for tail drop only
+	 */
+	public void setEgressQueuing(int[] weights, int queueLimit, boolean red)
+	{
+		EgressScheduler scheduler = new EgressScheduler(this, weights,
+				queueLimit, red);
+		scheduler.start();
+		if (this.egressScheduler != null)
+		{ this.egressScheduler.stop(); }
+		this.egressScheduler = scheduler;
+		System.out.println(String.format(
+				"Egress queuing enabled: weights %s, limit %d, %s drop",
+				Arrays.toString(weights), queueLimit, red ? "RED" : "tail"));
+	}
+
+	/**
+	 * @return egress queues and counters; null if queuing is not enabled
+	 */
+	public EgressScheduler getEgressScheduler()
+	{ return this.egressScheduler; }
+
+	/**
+	 * Report suppressed ICMP errors, ACL hits, tracked connections, flow
+	 * export and egress queue counters, then close the PCAP dump file.
+	 */
+	public void destroy()
+	{
+		if (this.icmpRateLimiter.getSuppressed() > 0)
+		{ System.out.print(this.icmpRateLimiter.toString()); }
+		if (this.acl != null)
+		{ System.out.print(this.acl.toString()); }
+		if (this.connTrack != null)
+		{ System.out.print(this.connTrack.toString()); }
+		if (this.flowMeter != null)
+		{
+			// Export the flows still cached
+			this.flowMeter.stop();
+			System.out.print(this.flowMeter.toString());
+		}
+		if (this.egressScheduler != null)
+		{
+			this.egressScheduler.stop();
+			System.out.print(this.egressScheduler.toString());
+		}
+		if (this.routeTable.getFib() != null)
+		{ System.out.print(this.routeTable.getFib().toString()); }
+		if (this.snapshot != null)
+		{
+			// Save the state learned since the last snapshot
+			this.snapshot.stop();
+			System.out.print(this.snapshot.toString());
+		}
+		super.destroy();
+	}
+
+	/**
+	 * Send a packet, through the egress queues if they are enabled.
+	 * @param etherPacket the packet
+	 * @param iface interface on which to send the packet
+	 * @return true if the packet was sent or queued, false if it was dropped
+	 */
+	public boolean sendPacket(Ethernet etherPacket, Iface iface)
+	{
+		EgressScheduler scheduler = this.egressScheduler;
+		if (null == scheduler)
+		{ return super.sendPacket(etherPacket, iface); }
+		return scheduler.enqueue(etherPacket, iface, this.egressClass(etherPacket));
+	}
+
+	/**
+	 * Send a packet taken off an egress queue.
+	 */
+	boolean transmit(Ethernet etherPacket, Iface iface)
+	{ return super.sendPacket(etherPacket, iface); }
+
+	/**
+	 * Classify a packet for egress queuing: ARP and IP packets the router
+	 * originates itself (RIP, ICMP) are control traffic, forwarded packets
+	 * are classified by DSCP.
+	 */
+	private int egressClass(Ethernet etherPacket)
+	{
+		if (etherPacket.getEtherType() == Ethernet.TYPE_ARP)
+		{ return EgressScheduler.CONTROL; }
+		if (etherPacket.getEtherType() != Ethernet.TYPE_IPv4)
+		{ return EgressScheduler.BEST_EFFORT; }
+		IPv4 ip = (IPv4)etherPacket.getPayload();
+		for (Iface iface : this.interfaces.values())
+		{
+			if (ip.getSourceAddress() == iface.getIpAddress())
+			{ return EgressScheduler.CONTROL; }
+		}
+		return EgressScheduler.classify(ip.getDiffServ());
+	}
+
+	/**
+	 * Get the reply templates for an interface, encoding them again if the
+	 * interface's addresses have changed since they were built.
+	 * @param iface the interface replies are sent from
+	 * @return the templates
+	 */
+	private ReplyTemplates getReplyTemplates(Iface iface)
+	{
+		ReplyTemplates templates = this.replyTemplates.get(iface.getName());
+		if (null == templates || !templates.matches(iface))
+		{
+			templates = new ReplyTemplates(iface);
+			this.replyTemplates.put(iface.getName(), templates);
+		}
+		return templates;
 	}
 	
 	/**
@@ -54,12 +348,83 @@ public class Router extends Device
 	 */
 	public RouteTable getRouteTable()
 	{ return this.routeTable; }
+
+	/**
+	 * @return ARP cache for the router
+	 */
+	public ArpCache getArpCache()
+	{ return this.arpCache; }
+
+	/**
+	 * @return distance vector table of the routes learned by RIP
+	 */
+	DistanceVectorTable getDistanceVectorTable()
+	{ return this.distanceVectorTable; }
+
+	/**
+	 * Restore a route learned by RIP before a restart. It times out like
+	 * any learned route unless a neighbour's update refreshes it.
+	 * @param dstIp destination IP
+	 * @param maskIp subnet mask
+	 * @param distance distance to the destination
+	 * @param gateways gateway IP of each equal-cost path
+	 * @param ifaces interface of each path
+	 * @return true if the route was restored, false if the router already
+	 *         has a route to the destination
+	 */
+	boolean restoreRoute(int dstIp, int maskIp, int distance, int[] gateways,
+			Iface[] ifaces)
+	{
+		DistanceVectorEntry dvEntry;
+		synchronized(this.distanceVectorTable) {
+			for(DistanceVectorEntry e : this.distanceVectorTable.DVTable) {
+				if(e.IPAddress == dstIp) {
+					return false;
+				}
+			}
+			dvEntry = new DistanceVectorEntry(dstIp, distance, 1);
+			this.distanceVectorTable.addDVTableEntry(dvEntry);
+			this.routeTable.insert(dstIp, gateways[0], maskIp, ifaces[0]);
+			for(int p = 1; p < gateways.length; p++) {
+				this.routeTable.addPath(dstIp, gateways[p], maskIp, ifaces[p]);
+			}
+			/* Each path ages out unless its gateway advertises it again */
+			for(int p = 0; p < gateways.length; p++) {
+				this.routeTable.refreshPath(dstIp, maskIp, gateways[p], ifaces[p]);
+			}
+		}
+		Thread TOThread = new Thread(new DVEntryTOThreadImpl(dvEntry));
+		TOThread.start();
+		return true;
+	}
+
+	/**
+	 * Check a stale ARP cache entry by resolving its address again, out the
+	 * interface it is routed through. The reply replaces the entry; if none
+	 * comes after the usual retries, the entry is evicted.
+	 * @param ip the address
+	 */
+	void probeArp(int ip)
+	{
+		RouteEntry rEntry = this.routeTable.lookupForwarding(ip);
+		if (null == rEntry)
+		{
+			this.arpCache.removeStale(ip);
+			return;
+		}
+		this.sendARPRequest(null, null, rEntry.getInterface(), ip);
+	}
 	
 	/** Init Router Table */
 	public void initRouterTable()
 	{
 		System.out.println("Initializing Route Table");
 		for(Map.Entry<String, Iface> entry: this.getInterfaces().entrySet()){
+			if(getLogicalInterface(entry.getValue()) != entry.getValue()) {
+				/* Non-primary link aggregation member - the group is
+				 * represented by its primary member */
+				continue;
+			}
 			int subnetNumber = entry.getValue().getIpAddress() & entry.getValue().getSubnetMask();
 			this.routeTable.insert(subnetNumber, 0, entry.getValue().getSubnetMask(), entry.getValue());
 			DistanceVectorEntry e = new DistanceVectorEntry(subnetNumber, 1, -1);
@@ -90,7 +455,10 @@ public class Router extends Device
 		
 		System.out.println("Loaded static route table");
 		System.out.println("-------------------------------------------------");
-		System.out.print(this.routeTable.toString());
+		if (this.routeTable.size() <= MAX_PRINTED_ROUTES)
+		{ System.out.print(this.routeTable.toString()); }
+		else
+		{ System.out.println(this.routeTable.size() + " destinations"); }
 		System.out.println("-------------------------------------------------");
 	}
 	
@@ -113,6 +481,55 @@ public class Router extends Device
 		System.out.println("----------------------------------");
 	}
 
+	/**
+	 * Replace the route table with one loaded from a file. The new table
+	 * is built aside and swapped in whole, so packets being forwarded use
+	 * either the old table or the new one and are never held up.
+	 * @param routeTableFile the name of the file containing the route table
+	 * @return true if the table was replaced; on failure the current table
+	 *         is kept
+	 */
+	public boolean reloadRouteTable(String routeTableFile)
+	{
+		RouteTable loaded = new RouteTable();
+		if (!loaded.load(routeTableFile, this))
+		{
+			System.err.println("Error reloading route table from file "
+					+ routeTableFile + "; keeping the current table");
+			return false;
+		}
+		loaded.setCompression(this.fibCompression);
+		RouteTable previous = this.routeTable;
+		this.routeTable = loaded;
+		previous.setCompression(false);
+		System.out.println("Reloaded static route table: " + loaded.size()
+				+ " destinations");
+		return true;
+	}
+
+	/**
+	 * Replace the ARP cache with one loaded from a file, keeping the
+	 * entries learned from ARP replies. Like the route table, the new cache
+	 * is built aside and swapped in whole.
+	 * @param arpCacheFile the name of the file containing the ARP cache
+	 * @return true if the cache was replaced; on failure the current cache
+	 *         is kept
+	 */
+	public boolean reloadArpCache(String arpCacheFile)
+	{
+		ArpCache loaded = new ArpCache();
+		if (!loaded.load(arpCacheFile))
+		{
+			System.err.println("Error reloading ARP cache from file "
+					+ arpCacheFile + "; keeping the current cache");
+			return false;
+		}
+		this.arpCache.replaceWith(loaded);
+		this.arpCache = loaded;
+		System.out.println("Reloaded static ARP cache");
+		return true;
+	}
+
 	/**
 	 * Handle an Ethernet packet received on a specific interface.
 	 * @param etherPacket the Ethernet packet that was received
@@ -120,6 +537,10 @@ public class Router extends Device
 	 */
 	public void handlePacket(Ethernet etherPacket, Iface inIface)
 	{
+		long start = stageTracer.start();
+		PacketForwardedEvent forwarded = new PacketForwardedEvent();
+		forwarded.begin();
+		PacketReceivedEvent.emit(inIface.getName(), etherPacket);
 		System.out.println("*** -> Received packet: " +
                 etherPacket.toString().replace("\n", "\n\t"));
 		
@@ -140,7 +561,7 @@ public class Router extends Device
 				/* Got ARP Reply */
 				IPv4 dummyPkt = new IPv4();
 				int arpReplyIPAddress = dummyPkt.toIPv4Address(arpPacket.getSenderProtocolAddress());
-				MACAddress destinationMAC = new MACAddress(arpPacket.getSenderHardwareAddress());
+				MACAddress destinationMAC = MACAddress.valueOf(arpPacket.getSenderHardwareAddress());
 
 				/* Ivalidate Entry in ARP Request Table : Get Sender protocol address from ARP header */
 				synchronized(arpReqTable) {
@@ -164,10 +585,14 @@ public class Router extends Device
 		}
 		else if(etherPacket.getEtherType() != 0x800) {
 			/* Not IP Packet - Dropping */
+			PacketDroppedEvent.emit(inIface.getName(), PacketDroppedEvent.NOT_IP);
 			return;
 		}
 		IPv4 pkt = (IPv4)etherPacket.getPayload();
 
+		/* Routes learned over a link aggregation group point at the group */
+		Iface logicalIn = getLogicalInterface(inIface);
+
 		int expectedRIPMulticastAddress = pkt.toIPv4Address("224.0.0.9");
 		/* Checking if the recived packet is RIP Request/Response */
 		if(pkt.getProtocol() == IPv4.PROTOCOL_UDP) {
@@ -186,15 +611,26 @@ public class Router extends Device
 						for(DistanceVectorEntry dvEntry : distanceVectorTable.DVTable) {
 							synchronized(dvEntry) {
 							if(dvEntry.IPAddress == ripEntry.getAddress()) {
-								/* Refresh DV Entry */
-								dvEntry.updateTime();
 								match = true;
 								if(dvEntry.distance > (ripEntry.getMetric() + 1)) {
+									/* Refresh DV Entry */
+									dvEntry.updateTime();
 									updated = true;
 									dvEntry.distance = ripEntry.getMetric() + 1;
-									routeTable.update(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), inIface);
+									routeTable.update(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
+									routeTable.refreshPath(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
+								} else if(dvEntry.distance == (ripEntry.getMetric() + 1) && dvEntry.valid != -1) {
+									/* Equal cost through another neighbour : add (or refresh)
+									 * its path */
+									dvEntry.updateTime();
+									routeTable.addPath(dvEntry.IPAddress, pkt.getSourceAddress(), ripEntry.getSubnetMask(), logicalIn);
+									routeTable.refreshPath(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
+								} else if(dvEntry.valid != -1) {
+									/* Worse cost : drop the neighbour's path if it had one */
+									routeTable.removePath(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
 								} else {
-									//System.out.println("Matching IP found but no update");
+									/* Directly connected */
+									dvEntry.updateTime();
 								}
 							}
 							}
@@ -206,10 +642,13 @@ public class Router extends Device
 							DVEntryTOThreadImpl TOThreadObj = new DVEntryTOThreadImpl(newDVEntry);
 							Thread TOThread = new Thread(TOThreadObj);
 							TOThread.start();
-							routeTable.insert(ripEntry.getAddress(), pkt.getSourceAddress(), ripEntry.getSubnetMask(), inIface);
+							routeTable.insert(ripEntry.getAddress(), pkt.getSourceAddress(), ripEntry.getSubnetMask(), logicalIn);
+							routeTable.refreshPath(ripEntry.getAddress(), ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
 						}
 					}
 					}
+					RipUpdateReceivedEvent.emit(inIface.getName(), pkt.getSourceAddress(),
+							ripPkt.getCommand(), ripPkt.getEntries().size(), updated);
 					if(updated == true) {
 						sendRIPPacket((byte)2);
 					}
@@ -236,13 +675,24 @@ public class Router extends Device
 								match = false;
 								for(DistanceVectorEntry dvEntry : distanceVectorTable.DVTable) {
 									if(dvEntry.IPAddress == ripEntry.getAddress()) {
-										dvEntry.updateTime();
 										match = true;
 										if(dvEntry.distance > (ripEntry.getMetric() + 1)) {
+											dvEntry.updateTime();
 											updated = true;
 											dvEntry.distance = ripEntry.getMetric() + 1;
-											routeTable.update(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), inIface);
+											routeTable.update(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
+											routeTable.refreshPath(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
+										} else if(dvEntry.distance == (ripEntry.getMetric() + 1) && dvEntry.valid != -1) {
+											/* Equal cost through another neighbour : add (or refresh)
+											 * its path */
+											dvEntry.updateTime();
+											routeTable.addPath(dvEntry.IPAddress, pkt.getSourceAddress(), ripEntry.getSubnetMask(), logicalIn);
+											routeTable.refreshPath(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
+										} else if(dvEntry.valid != -1) {
+											/* Worse cost : drop the neighbour's path if it had one */
+											routeTable.removePath(dvEntry.IPAddress, ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
 										} else {
+											dvEntry.updateTime();
 											System.out.println("Matching IP found but no update");
 										}
 									}
@@ -255,10 +705,13 @@ public class Router extends Device
 									DVEntryTOThreadImpl TOThreadObj = new DVEntryTOThreadImpl(newDVEntry);
 									Thread TOThread = new Thread(TOThreadObj);
 									TOThread.start();
-									routeTable.insert(ripEntry.getAddress(), pkt.getSourceAddress(), ripEntry.getSubnetMask(), inIface);
+									routeTable.insert(ripEntry.getAddress(), pkt.getSourceAddress(), ripEntry.getSubnetMask(), logicalIn);
+									routeTable.refreshPath(ripEntry.getAddress(), ripEntry.getSubnetMask(), pkt.getSourceAddress(), logicalIn);
 								}
 							}
 							}
+							RipUpdateReceivedEvent.emit(inIface.getName(), pkt.getSourceAddress(),
+									ripPkt.getCommand(), ripPkt.getEntries().size(), updated);
 							if(updated == true) {
 								sendRIPPacket((byte)2);
 							}
@@ -276,6 +729,8 @@ public class Router extends Device
 			/* Not a UDP */
 		}
 
+		long t = stageTracer.mark(STAGE_PARSE, start);
+
 		/* CHECK 2 : Checksum Validation */
 		short actualCheckSum = pkt.getChecksum();
 		pkt.resetChecksum();
@@ -283,14 +738,48 @@ public class Router extends Device
 		short currentChecksum = pkt.getChecksum();
 		if(actualCheckSum != currentChecksum) {
 			/* Checksum mismatch - Dropping */
+			PacketDroppedEvent.emit(inIface.getName(), PacketDroppedEvent.BAD_CHECKSUM);
+			return;
+		}
+		t = stageTracer.mark(STAGE_CHECKSUM, t);
+
+		/* ACL : filter before spending any more work on the packet */
+		AclClassifier currentAcl = this.acl;
+		ConnTrack currentConnTrack = this.connTrack;
+		FlowKey key = null;
+		if(currentAcl != null || currentConnTrack != null) {
+			key = flowKeys.get();
+			key.extract(etherPacket);
+		}
+		if(currentAcl != null && !currentAcl.permits(key)) {
+			/* Denied by ACL - Dropping */
+			PacketDroppedEvent.emit(inIface.getName(), PacketDroppedEvent.ACL_DENY);
 			return;
 		}
 
+		/* Connection tracking : account the packet to its flow; a full
+		 * table only means the flow goes untracked */
+		if(currentConnTrack != null) {
+			currentConnTrack.track(key, pkt.getTotalLength() & 0xffff);
+		}
+
+		/* Flow metering : count one packet in N against its flow */
+		FlowMeter currentMeter = this.flowMeter;
+		if(currentMeter != null && currentMeter.sample()) {
+			if(key == null) {
+				key = flowKeys.get();
+				key.extract(etherPacket);
+			}
+			currentMeter.meter(key, pkt.getTotalLength() & 0xffff);
+		}
+		t = stageTracer.mark(STAGE_FILTER, t);
+
 		/* CHECK 3 : TTL Validation */
 		byte currentTTL = pkt.getTtl();
 		currentTTL--;
 		if(currentTTL == 0) {
 			/* TTL 0 - ICMP TLE message to sender */
+			PacketDroppedEvent.emit(inIface.getName(), PacketDroppedEvent.TTL_EXCEEDED);
 			this.sendICMPPacket(pkt, inIface, (byte)11, (byte)0);
 			return;
 		}
@@ -318,25 +807,34 @@ public class Router extends Device
 			}
 		}
 
+		t = stageTracer.mark(STAGE_TTL, t);
+
 		/* Forwarding Packets */
 		/* STEP 1 : Route Table Look up */
-		RouteEntry rEntry = routeTable.lookup(pkt.getDestinationAddress());
+		RouteEntry rEntry = routeTable.lookupForwarding(pkt.getDestinationAddress());
 		if(rEntry == null) {
 			/* No matching route table entry */
 			/* Send ICMP Error Reply as Destination Net Unreachable */
+			PacketDroppedEvent.emit(inIface.getName(), PacketDroppedEvent.NO_ROUTE);
 			this.sendICMPPacket(pkt, inIface, (byte)3, (byte)0);
 			return;
 		}
+		if(rEntry.isMultipath()) {
+			/* Equal-cost paths : pick one by flow, keeping flows in order */
+			rEntry = rEntry.select(LinkAggregationGroup.flowHash(etherPacket));
+		}
+		t = stageTracer.mark(STAGE_ROUTE, t);
 
 		/* CHECK 5 : Check if incoming and outgoing interfaces are same */
-		if(inIface.getName().equals(rEntry.getInterface().getName())){
+		if(logicalIn.getName().equals(getLogicalInterface(rEntry.getInterface()).getName())){
 		/* Incoming Interface is same as outgoing interface - dropping */
+			PacketDroppedEvent.emit(inIface.getName(), PacketDroppedEvent.SAME_INTERFACE);
 			return;
 		}
 
 		/* Outgoing router Interface MAC address */
 		MACAddress sourceMac = rEntry.getInterface().getMacAddress();
-		etherPacket.setSourceMACAddress(sourceMac.toString());
+		etherPacket.setSourceMACAddress(sourceMac);
 
 		/* STEP 2 : Find the next hop IP Address */
 		int nextHopIPAddress = rEntry.getGatewayAddress();
@@ -357,64 +855,42 @@ public class Router extends Device
 		/* Next hop MAC addresses */
 		MACAddress destinationMac = ae.getMac();
 		/* STEP 3 : Update Ethernet Pakcet to send */
-		etherPacket.setDestinationMACAddress(destinationMac.toString());
+		etherPacket.setDestinationMACAddress(destinationMac);
+		t = stageTracer.mark(STAGE_ARP, t);
 		
 		/* Send Packet on the interface found from Route Table */
 		sendPacket(etherPacket, rEntry.getInterface());
+		stageTracer.end(STAGE_SEND, t, start);
+		forwarded.forwarded(inIface.getName(), rEntry.getInterface().getName(),
+				pkt.getDestinationAddress());
 
 		/********************************************************************/
 	}
 
 	/* Construct ICMP packet with given type and command values and send it */
 	public void sendICMPPacket(IPv4 pktIn, Iface inIface, byte type, byte code) {
-		Ethernet ether = new Ethernet();
-		IPv4 ip = new IPv4();
-		ICMP icmp = new ICMP();
-		Data data = new Data();
-
-		/* ICMP Header construction */
-		icmp.setIcmpType(type);
-		icmp.setIcmpCode(code);
-
-		/* ICMP Data construction */
-		int len = 4 /* 4 byte padding */ +
-			+ (pktIn.getHeaderLength() * 4) /* IP Header length*/ +
-			+ 8 /* 8 bytes of IP payload */;
-		byte[] icmpData = new byte[len];
-		/* Padding */
-		Arrays.fill(icmpData, 0, 4, (byte)0);
-		/* IP Header copying */
-		byte[] serializedIPPkt = pktIn.serialize();
-		int i, j, k;
-		for(i = 0, j = 4; i < (pktIn.getHeaderLength() * 4); i++, j++) {
-			icmpData[j] = serializedIPPkt[i];
-		}
-		/* 8 byte of IP playload */
-		k = i;
-		while(k < (i + 8)) {
-			icmpData[j] = serializedIPPkt[k];
-			j++;
-			k++;
-		}
-		data.setData(icmpData);
-
-		/* IPv4 header construction */
-		ip.setTtl((byte)64);
-		ip.setProtocol(IPv4.PROTOCOL_ICMP);
-		ip.setSourceAddress(inIface.getIpAddress());
-		ip.setDestinationAddress(pktIn.getSourceAddress());
-
-		ether.setPayload(ip);
-		ip.setPayload(icmp);
-		icmp.setPayload(data);
-
-		/* Ether packet constructed */
+		/* Rate limit before doing any work for the error */
+		if(!icmpRateLimiter.admit(pktIn.getSourceAddress())) {
+			return;
+		}
+
+		/* Quote the IP header and 8 bytes of payload as received; only
+		 * re-serialize if the datagram was not deserialized from a frame */
+		ByteBuffer datagram = null;
+		if(pktIn.getParent() instanceof Ethernet) {
+			datagram = ((Ethernet)pktIn.getParent()).getReceivedPayload();
+		}
+		if(datagram == null) {
+			datagram = ByteBuffer.wrap(pktIn.serialize());
+		}
+		Ethernet ether = getReplyTemplates(inIface).icmpError(
+				pktIn.getSourceAddress(), type, code, datagram,
+				pktIn.getHeaderLength() * 4);
+
 		/* Ethernet header construction */
-		ether.setEtherType(Ethernet.TYPE_IPv4);
-		ether.setSourceMACAddress(inIface.getMacAddress().toString());
 		MACAddress destMAC = findMACFromRTLookUp(pktIn.getSourceAddress());
 		if(destMAC == null) {
-			RouteEntry rEntry = routeTable.lookup(pktIn.getSourceAddress());
+			RouteEntry rEntry = routeTable.lookupForwarding(pktIn.getSourceAddress());
 			/* Find the next hop IP Address */
 			int nextHopIPAddress = rEntry.getGatewayAddress();
 			if(nextHopIPAddress == 0){
@@ -423,43 +899,29 @@ public class Router extends Device
 			this.sendARPRequest(ether, inIface, rEntry.getInterface(), nextHopIPAddress);
 			return;
 		}
-		ether.setDestinationMACAddress(destMAC.toString());
+		ether.setDestinationMACAddress(destMAC);
 
 		/* Send ICMP packet */
 		sendPacket(ether, inIface);
 	}
 
 	public void sendEchoReplyPacket(IPv4 pktIn, Iface inIface, byte type, byte code) {
-		Ethernet ether = new Ethernet();
-		IPv4 ip = new IPv4();
-		ICMP icmp = new ICMP();
-		Data data = new Data();
-
-		/* ICMP Header construction */
-		icmp.setIcmpType(type);
-		icmp.setIcmpCode(code);
-
-		/* ICMP Data construction */
+		/* Echo identifier, sequence number and data, as received */
 		ICMP inIcmpPkt = (ICMP)pktIn.getPayload();
-		byte[] inIcmpPktPayload = inIcmpPkt.getPayload().serialize();
-		data.setData(inIcmpPktPayload);
-
-		/* IPv4 header construction */
-		ip.setTtl((byte)64);
-		ip.setProtocol(IPv4.PROTOCOL_ICMP);
-		ip.setSourceAddress(pktIn.getDestinationAddress());
-		ip.setDestinationAddress(pktIn.getSourceAddress());
-
-		ether.setPayload(ip);
-		ip.setPayload(icmp);
-		icmp.setPayload(data);
+		ByteBuffer echo = pktIn.getReceivedPayload();
+		if(echo != null && echo.remaining() >= 4) {
+			echo.position(4);
+		}
+		else {
+			echo = ByteBuffer.wrap(inIcmpPkt.getPayload().serialize());
+		}
+		Ethernet ether = getReplyTemplates(inIface).echoReply(
+				pktIn.getDestinationAddress(), pktIn.getSourceAddress(), echo);
 
 		/* Ethernet header construction */
-		ether.setEtherType(Ethernet.TYPE_IPv4);
-		ether.setSourceMACAddress(inIface.getMacAddress().toString());
 		MACAddress destMAC = findMACFromRTLookUp(pktIn.getSourceAddress());
 		if(destMAC == null) {
-			RouteEntry rEntry = routeTable.lookup(pktIn.getSourceAddress());
+			RouteEntry rEntry = routeTable.lookupForwarding(pktIn.getSourceAddress());
 			/* Find the next hop IP Address */
 			int nextHopIPAddress = rEntry.getGatewayAddress();
 			if(nextHopIPAddress == 0){
@@ -468,7 +930,7 @@ public class Router extends Device
 			this.sendARPRequest(ether, inIface, inIface, nextHopIPAddress);
 			return;
 		}
-		ether.setDestinationMACAddress(destMAC.toString());
+		ether.setDestinationMACAddress(destMAC);
 
 		/* Send ICMP packet */
 		sendPacket(ether, inIface);
@@ -477,7 +939,7 @@ public class Router extends Device
 	/* Wrapper Function for IP lookup + ARP cache lookup */
 	public MACAddress findMACFromRTLookUp(int ip) {
 
-		RouteEntry rEntry = routeTable.lookup(ip);
+		RouteEntry rEntry = routeTable.lookupForwarding(ip);
 		if(rEntry == null) {
 			/* No matching route table entry */
 			return null;
@@ -499,27 +961,11 @@ public class Router extends Device
 
 	/* ARP Reply */
 	public void sendARPReply(Ethernet inEtherPkt, ARP inArpPkt, Iface inIface) {
-		Ethernet ether = new Ethernet();
-		ARP arpPkt = new ARP();
-
-		/* Construct Ethernet header */
-		ether.setEtherType(Ethernet.TYPE_ARP);
-		ether.setSourceMACAddress(inIface.getMacAddress().toString());
-		ether.setDestinationMACAddress(inEtherPkt.getSourceMACAddress());
-
-		/* ARP Header */
-		arpPkt.setHardwareType(ARP.HW_TYPE_ETHERNET);
-		arpPkt.setProtocolType(ARP.PROTO_TYPE_IP);
-		arpPkt.setHardwareAddressLength((byte)Ethernet.DATALAYER_ADDRESS_LENGTH);
-		arpPkt.setProtocolAddressLength((byte)4);
-		arpPkt.setOpCode(ARP.OP_REPLY);
-		arpPkt.setSenderHardwareAddress(inIface.getMacAddress().toBytes());
-		arpPkt.setSenderProtocolAddress(inIface.getIpAddress());
-		arpPkt.setTargetHardwareAddress(inArpPkt.getSenderHardwareAddress());
-		arpPkt.setTargetProtocolAddress(inArpPkt.getSenderProtocolAddress());
-
-		/* Set Ethernet Payload */
-		ether.setPayload(arpPkt);
+		Ethernet ether = getReplyTemplates(inIface).arpReply(
+				inEtherPkt.getSourceMACLong(),
+				inArpPkt.getSenderHardwareAddress(),
+				IPv4.toIPv4Address(inArpPkt.getSenderProtocolAddress()));
+
 		/* Send ARP Reply */
 		sendPacket(ether, inIface);
 	}
@@ -530,7 +976,9 @@ public class Router extends Device
 		synchronized(arpReqTable) {
 		for(ARPRequestEntry ARE : arpReqTable.ARPRequestTab) {
 			if(ARE.IPAddress == IP) {
-				ARE.addPacketQueue(etherPacket, outIface, inIface);
+				if(etherPacket != null) {
+					ARE.addPacketQueue(etherPacket, outIface, inIface);
+				}
 				return;
 			}
 		}
@@ -543,26 +991,11 @@ public class Router extends Device
 	}
 
 	public void sendARPRequestPacket(int IPAddress, Iface outIface, EthernetPktInfo p1) {
-		Ethernet ether = new Ethernet();
-		ARP arpPkt = new ARP();
-
-		ether.setEtherType(Ethernet.TYPE_ARP);
-		ether.setSourceMACAddress(p1.inIface.getMacAddress().toString());
-		ether.setDestinationMACAddress("FF:FF:FF:FF:FF:FF");
-
-		arpPkt.setHardwareType(ARP.HW_TYPE_ETHERNET);
-		arpPkt.setProtocolType(ARP.PROTO_TYPE_IP);
-		arpPkt.setHardwareAddressLength((byte)Ethernet.DATALAYER_ADDRESS_LENGTH);
-		arpPkt.setProtocolAddressLength((byte)4);
-		arpPkt.setOpCode(ARP.OP_REQUEST);
-		arpPkt.setSenderHardwareAddress(p1.inIface.getMacAddress().toBytes());
-		arpPkt.setSenderProtocolAddress(p1.inIface.getIpAddress());
-		byte val[] = new byte[6];
-		arpPkt.setTargetHardwareAddress(val);
-		arpPkt.setTargetProtocolAddress(IPAddress);
-
-		ether.setPayload(arpPkt);
+		/* A probe of a stale ARP cache entry has no queued packet */
+		Iface templateIface = (p1 != null) ? p1.inIface : outIface;
+		Ethernet ether = getReplyTemplates(templateIface).arpRequest(IPAddress);
 
+		ArpRequestEvent.emit(outIface.getName(), IPAddress);
 		sendPacket(ether, outIface);
 	}
 
@@ -584,6 +1017,10 @@ public class Router extends Device
 		udpPkt.setPayload(ripPkt);
 
 		for(Map.Entry<String, Iface> entry: this.getInterfaces().entrySet()){
+				if(getLogicalInterface(entry.getValue()) != entry.getValue()) {
+					/* One copy per link aggregation group */
+					continue;
+				}
 				/* IP Packet */
 				IPv4 ipPkt = new IPv4();
 				ipPkt.setProtocol(IPv4.PROTOCOL_UDP);
@@ -596,10 +1033,12 @@ public class Router extends Device
 				Ethernet ether = new Ethernet();
 				ether.setEtherType(Ethernet.TYPE_IPv4);
 				ether.setPayload(ipPkt);
-				ether.setSourceMACAddress(entry.getValue().getMacAddress().toString());
-				ether.setDestinationMACAddress("FF:FF:FF:FF:FF:FF");
+				ether.setSourceMACAddress(entry.getValue().getMacAddress());
+				ether.setDestinationMACAddress(MACAddress.BROADCAST);
 
 				/* Broadcast RIP to all interfaces */
+				RipUpdateSentEvent.emit(entry.getKey(), ipPkt.getDestinationAddress(),
+						command, ripPkt.getEntries().size());
 				sendPacket(ether, entry.getValue());
 		}
 	}
@@ -631,10 +1070,12 @@ public class Router extends Device
 		Ethernet ether = new Ethernet();
 		ether.setEtherType(Ethernet.TYPE_IPv4);
 		ether.setPayload(ipPkt);
-		ether.setSourceMACAddress(inIface.getMacAddress().toString());
-		ether.setDestinationMACAddress(sourceMACAddress.toString());
+		ether.setSourceMACAddress(inIface.getMacAddress());
+		ether.setDestinationMACAddress(sourceMACAddress);
 
 		/* Broadcast RIP to all interfaces */
+		RipUpdateSentEvent.emit(inIface.getName(), sourceIPAddress, command,
+				ripPkt.getEntries().size());
 		sendPacket(ether, inIface);
 	}
 
@@ -697,6 +1138,9 @@ public class Router extends Device
 								IPv4 myPkt = (IPv4)infoNode.pkt.getPayload();
 								sendICMPPacket(myPkt, infoNode.inIface, (byte)3, (byte)1);
 							}
+							/* A stale ARP cache entry which was not confirmed
+							 * is evicted */
+							arpCache.removeStale(entry.IPAddress);
 							iterator.remove();
 						}
 						/* Condition 2 : ARP reply received for the IP */
@@ -705,7 +1149,7 @@ public class Router extends Device
 							while(!entry.etherPktQ.isEmpty()) {
 								EthernetPktInfo infoNode = entry.etherPktQ.poll();
 								Ethernet ether = infoNode.pkt;
-								ether.setDestinationMACAddress(entry.destinationMAC.toString());
+								ether.setDestinationMACAddress(entry.destinationMAC);
 								sendPacket(ether, entry.outIface);
 							}
 							iterator.remove();
@@ -786,6 +1230,23 @@ public class Router extends Device
 					break;
 				}
 				}
+				expirePaths(now);
+			}
+		}
+
+		/* Remove equal-cost paths whose gateway stopped advertising the
+		 * destination; the entry itself times out once no path is heard */
+		private void expirePaths(long now) {
+			RouteEntry re = routeTable.lookup(this.entry.IPAddress);
+			if(re == null || re.getDestinationAddress() != this.entry.IPAddress
+					|| !re.isMultipath()) {
+				return;
+			}
+			for(RouteEntry path : re.getPaths()) {
+				if(path.getLastHeard() != 0 && (now - path.getLastHeard()) > 30000) {
+					routeTable.removePath(this.entry.IPAddress, re.getMaskAddress(),
+							path.getGatewayAddress(), path.getInterface());
+				}
 			}
 		}
 	}
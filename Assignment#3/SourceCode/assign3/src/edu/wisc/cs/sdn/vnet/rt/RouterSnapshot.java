@@ -0,0 +1,295 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.packet.MACAddress;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Periodic snapshot of the state a router learns at runtime: its ARP
+ * cache, and the routes it learned by RIP with their distances. After a
+ * restart the snapshot is restored, so traffic is forwarded at once
+ * instead of after an ARP exchange per next hop and a RIP update from each
+ * neighbour. Restored state is stale, and is revalidated:
+ * - each restored ARP entry is probed with ARP requests like any address
+ *   being resolved; the reply replaces it, and if none comes it is
+ *   evicted, so packets to a host that is gone get host unreachable;
+ * - each restored route expires like any learned route, unless a
+ *   neighbour's update refreshes it first.
+ *
+ * A snapshot is written to a temporary file and renamed over the last
+ * one, so a crash while saving leaves the previous snapshot. Snapshots
+ * older than MAX_AGE are not restored.
+ */
+public class RouterSnapshot implements Runnable
+{
+	/** Default seconds between snapshots */
+	public static final int DEFAULT_INTERVAL = 10;
+
+	private static final int MAGIC = 0x56525353; // "VRSS"
+	private static final int VERSION = 1;
+
+	/** Oldest snapshot restored, in milliseconds */
+	private static final long MAX_AGE = 180000;
+
+	private final Router router;
+	private final Path path;
+	private final long interval;
+
+	private long saved;
+	private long errors;
+
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * Create a snapshot; nothing is saved until it is started.
+	 * @param router the router whose state is saved
+	 * @param filename name of the snapshot file
+	 * @param interval seconds between snapshots
+	 */
+	public RouterSnapshot(Router router, String filename, int interval)
+	{
+		if (interval < 1)
+		{ throw new IllegalArgumentException("Invalid snapshot interval"); }
+		this.router = router;
+		this.path = Paths.get(filename);
+		this.interval = interval * 1000L;
+	}
+
+	/**
+	 * Save the router's state.
+	 * @return true if the snapshot was written
+	 */
+	public synchronized boolean save()
+	{
+		Path temporary = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(temporary))))
+			{ this.write(out); }
+			Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			this.saved++;
+			return true;
+		}
+		catch (IOException e)
+		{
+			if (0 == this.errors++)
+			{ System.err.println("Error saving snapshot: " + e); }
+			return false;
+		}
+	}
+
+	/**
+	 * Snapshot layout: MAGIC, VERSION, time saved; the interface names
+	 * routes use; the routes learned by RIP, each as destination, mask,
+	 * distance and paths (gateway and interface index); and the ARP cache,
+	 * each entry as IP address and MAC address.
+	 */
+	private void write(DataOutputStream out) throws IOException
+	{
+		List<Iface> ifaces = new ArrayList<Iface>(this.router.getInterfaces().values());
+		List<RouteEntry> routes = new ArrayList<RouteEntry>();
+		List<Integer> distances = new ArrayList<Integer>();
+		RouteTable routeTable = this.router.getRouteTable();
+		DistanceVectorTable dvTable = this.router.getDistanceVectorTable();
+		synchronized (dvTable)
+		{
+			for (DistanceVectorEntry dvEntry : dvTable.DVTable)
+			{
+				// Connected subnets are added again at startup, and timed
+				// out entries are about to be removed
+				if (dvEntry.valid != 1)
+				{ continue; }
+				RouteEntry route = routeTable.lookup(dvEntry.IPAddress);
+				if (route != null && route.getDestinationAddress() == dvEntry.IPAddress)
+				{
+					routes.add(route);
+					distances.add(dvEntry.distance);
+				}
+			}
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		out.writeShort(ifaces.size());
+		for (Iface iface : ifaces)
+		{ out.writeUTF(iface.getName()); }
+
+		out.writeInt(routes.size());
+		for (int i = 0; i < routes.size(); i++)
+		{
+			RouteEntry route = routes.get(i);
+			RouteEntry[] paths = route.getPaths();
+			out.writeInt(route.getDestinationAddress());
+			out.writeInt(route.getMaskAddress());
+			out.writeByte(distances.get(i));
+			out.writeByte(paths.length);
+			for (RouteEntry path : paths)
+			{
+				out.writeInt(path.getGatewayAddress());
+				out.writeShort(ifaces.indexOf(path.getInterface()));
+			}
+		}
+
+		List<ArpEntry> arpEntries = new ArrayList<ArpEntry>(
+				this.router.getArpCache().getEntries());
+		out.writeInt(arpEntries.size());
+		for (ArpEntry entry : arpEntries)
+		{
+			out.writeInt(entry.getIp());
+			out.write(entry.getMac().toBytes());
+		}
+	}
+
+	/**
+	 * Restore the router's state from the last snapshot, if there is one
+	 * recent enough. Call once the router's interfaces and static tables
+	 * are set up; entries already present are kept.
+	 * @param routes true to restore the routes learned by RIP, false to
+	 *        restore only the ARP cache
+	 * @return true if a snapshot was restored
+	 */
+	public boolean restore(boolean routes)
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(this.path))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			{ throw new IOException("not a router snapshot"); }
+			long age = System.currentTimeMillis() - in.readLong();
+			if (age > MAX_AGE)
+			{
+				System.out.println("Snapshot " + this.path + " is "
+						+ (age / 1000) + " seconds old; not restored");
+				return false;
+			}
+
+			Iface[] ifaces = new Iface[in.readUnsignedShort()];
+			for (int i = 0; i < ifaces.length; i++)
+			{ ifaces[i] = this.router.getInterface(in.readUTF()); }
+
+			int restoredRoutes = 0;
+			int count = in.readInt();
+			for (int r = 0; r < count; r++)
+			{
+				int dstIp = in.readInt();
+				int maskIp = in.readInt();
+				int distance = in.readUnsignedByte();
+				int[] gateways = new int[in.readUnsignedByte()];
+				Iface[] pathIfaces = new Iface[gateways.length];
+				boolean usable = gateways.length > 0;
+				for (int p = 0; p < gateways.length; p++)
+				{
+					gateways[p] = in.readInt();
+					int index = in.readShort();
+					pathIfaces[p] = (index >= 0 && index < ifaces.length)
+							? ifaces[index] : null;
+					// An interface the router no longer has
+					usable &= (pathIfaces[p] != null);
+				}
+				if (routes && usable && this.router.restoreRoute(dstIp, maskIp,
+						distance, gateways, pathIfaces))
+				{ restoredRoutes++; }
+			}
+
+			List<Integer> restoredArp = new ArrayList<Integer>();
+			ArpCache arpCache = this.router.getArpCache();
+			count = in.readInt();
+			byte[] mac = new byte[MACAddress.MAC_ADDRESS_LENGTH];
+			for (int a = 0; a < count; a++)
+			{
+				int ip = in.readInt();
+				in.readFully(mac);
+				if (arpCache.insertStale(MACAddress.valueOf(mac), ip))
+				{ restoredArp.add(ip); }
+			}
+
+			// Revalidate the ARP entries; routes revalidate themselves
+			for (int ip : restoredArp)
+			{ this.router.probeArp(ip); }
+
+			System.out.println(String.format(
+					"Restored %d ARP entries and %d routes from snapshot %s, "
+					+ "%d seconds old", restoredArp.size(), restoredRoutes,
+					this.path, age / 1000));
+			return true;
+		}
+		catch (NoSuchFileException e)
+		{ return false; }
+		catch (IOException e)
+		{
+			System.err.println("Error restoring snapshot " + this.path + ": " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Start saving snapshots periodically.
+	 */
+	public synchronized void start()
+	{
+		if (this.thread != null)
+		{ return; }
+		this.running = true;
+		this.thread = new Thread(this, "snapshot");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stop saving snapshots periodically, and save a last one.
+	 */
+	public void stop()
+	{
+		Thread t;
+		synchronized (this)
+		{
+			this.running = false;
+			t = this.thread;
+			this.thread = null;
+			this.notifyAll();
+		}
+		if (t != null)
+		{
+			try { t.join(1000); }
+			catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+		}
+		this.save();
+	}
+
+	public void run()
+	{
+		while (this.running)
+		{
+			synchronized (this)
+			{
+				try { this.wait(this.interval); }
+				catch (InterruptedException e) { return; }
+			}
+			if (this.running)
+			{ this.save(); }
+		}
+	}
+
+	public synchronized String toString()
+	{
+		return String.format("Snapshot to %s every %d s: %d saved, %d errors\n",
+				this.path, this.interval / 1000, this.saved, this.errors);
+	}
+}
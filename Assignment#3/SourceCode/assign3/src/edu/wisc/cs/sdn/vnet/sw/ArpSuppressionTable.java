@@ -0,0 +1,86 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+import java.lang.Thread;
+import java.util.*;
+
+/* IP -> MAC bindings snooped from ARP replies and gratuitous ARPs, used by
+ * the switch to answer ARP requests without flooding them */
+public class ArpSuppressionTable extends Thread {
+	/* Seconds a binding is kept after it was last seen */
+	static final int TIMEOUT = 60;
+
+	/* IP address -> binding */
+	Map<Integer, Binding> bindings;
+
+	ArpSuppressionTable(){
+		bindings = new HashMap<Integer, Binding>();
+		this.setDaemon(true);
+		/* Starts a thread for timeout */
+		this.start();
+	}
+
+	/* Add or refresh an IP -> MAC binding */
+	public void learn(int ip, MACAddress mac) {
+		synchronized(this.bindings) {
+			Binding b = bindings.get(ip);
+			if(b == null || !b.mac.equals(mac)) {
+				bindings.put(ip, new Binding(mac));
+			} else {
+				b.startTime = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/* Search for the MAC address bound to an IP address */
+	public MACAddress lookup(int ip) {
+		synchronized(this.bindings) {
+			Binding b = bindings.get(ip);
+			return (b == null) ? null : b.mac;
+		}
+	}
+
+	/* Thread which takes care of timeout of bindings */
+	public void run() {
+		try {
+			while(true) {
+				Thread.sleep(1000);
+				long now = System.currentTimeMillis();
+				synchronized(this.bindings) {
+				Iterator<Binding> itr = bindings.values().iterator();
+				while(itr.hasNext()) {
+					int diffTime = (int)((now - itr.next().startTime) / 1000);
+					if(diffTime > TIMEOUT)
+						itr.remove();
+				}
+				}
+			}
+		} catch (Exception e) {
+			System.out.println(e);
+		}
+	}
+
+	public String toString() {
+		synchronized(this.bindings) {
+			if(this.bindings.size() == 0)
+				return "Empty";
+
+			String result = "IP Address\tMAC Address\n";
+			for(Map.Entry<Integer, Binding> e: this.bindings.entrySet()) {
+				result += IPv4.fromIPv4Address(e.getKey()) + "\t" + e.getValue().mac + "\n";
+			}
+			return result;
+		}
+	}
+
+	static class Binding {
+		MACAddress mac;
+		long startTime;
+
+		Binding(MACAddress mac) {
+			this.mac = mac;
+			this.startTime = System.currentTimeMillis();
+		}
+	}
+}
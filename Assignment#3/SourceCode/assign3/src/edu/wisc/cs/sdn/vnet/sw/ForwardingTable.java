@@ -14,7 +14,7 @@ public class ForwardingTable extends Thread {
 		this.start();
 	}
 
-	public void learnForwarding(MACAddress input, Iface intf){
+	public void learnForwarding(long input, Iface intf){
 
 		synchronized(this.fTable) {
 		/* When the table is empty */
@@ -24,7 +24,7 @@ public class ForwardingTable extends Thread {
 		} else {
 			for(ForwardingTableRecord record: this.fTable){
 				/* When there is a matching record, reset the start time */
-				if(record.inputMAC.equals(input)){
+				if(record.inputMAC == input){
 					record.startTime = System.currentTimeMillis();
 					return;
 				}
@@ -36,10 +36,10 @@ public class ForwardingTable extends Thread {
 	}
 
 	/* Search Forwarding Table for a match of MAC address */
-	public Iface getIFaceForMAC(MACAddress inputMAC) {
+	public Iface getIFaceForMAC(long inputMAC) {
 		synchronized(this.fTable) {
 		for(ForwardingTableRecord r:fTable) {
-			if(r.inputMAC.equals(inputMAC)) {
+			if(r.inputMAC == inputMAC) {
 				return r.inIface;
 			}
 		}
@@ -64,7 +64,7 @@ public class ForwardingTable extends Thread {
 					int diffTime = (int)((now - r.startTime) / 1000);
 					/* Removes the Forwarding Table record on timeout */
 					if(diffTime > r.timeOut) {
-						System.out.println("Remove Entry : " + r.inputMAC + " -> Timeout happened");
+						System.out.println("Remove Entry : " + MACAddress.toString(r.inputMAC) + " -> Timeout happened");
 						itr.remove();
 					}
 				}
@@ -6,12 +6,12 @@ import net.floodlightcontroller.packet.MACAddress;
 
 class ForwardingTableRecord {
     
-	MACAddress inputMAC;
+	long inputMAC;
 	Iface inIface;
 	int timeOut;
 	long startTime;
 
-	ForwardingTableRecord(MACAddress inputMAC, Iface inIface){
+	ForwardingTableRecord(long inputMAC, Iface inIface){
 		this.inputMAC = inputMAC;
 		this.inIface = inIface;
 		this.timeOut = 15;
@@ -20,7 +20,7 @@ class ForwardingTableRecord {
 
 	public String toString() {
 		return String.format("%s\t%s\t%d\t%d",
-				this.inputMAC.toString(),
+				MACAddress.toString(this.inputMAC),
 				this.inIface.getName(),
 				this.timeOut, this.startTime);
 	}
@@ -0,0 +1,145 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import net.floodlightcontroller.packet.IPv4;
+import edu.wisc.cs.sdn.vnet.Iface;
+import java.lang.Thread;
+import java.util.*;
+
+/* IGMP snooping state : which ports want traffic for which multicast group,
+ * and which ports lead to multicast routers (queriers) */
+public class MulticastTable extends Thread {
+	/* Group membership interval from RFC 2236 (seconds) */
+	static final int MEMBERSHIP_TIMEOUT = 260;
+
+	/* Group address -> (member port -> last time a report was seen) */
+	Map<Integer, Map<Iface, Long>> groups;
+	/* Router port -> last time a query was seen */
+	Map<Iface, Long> routerPorts;
+
+	MulticastTable(){
+		groups = new HashMap<Integer, Map<Iface, Long>>();
+		routerPorts = new HashMap<Iface, Long>();
+		this.setDaemon(true);
+		/* Starts a thread for timeout */
+		this.start();
+	}
+
+	/* Add (or refresh) a port as a member of a group */
+	public void join(int group, Iface intf) {
+		synchronized(this.groups) {
+			Map<Iface, Long> members = groups.get(group);
+			if(members == null) {
+				members = new HashMap<Iface, Long>();
+				groups.put(group, members);
+			}
+			members.put(intf, System.currentTimeMillis());
+		}
+	}
+
+	/* Remove a port from a group */
+	public void leave(int group, Iface intf) {
+		synchronized(this.groups) {
+			Map<Iface, Long> members = groups.get(group);
+			if(members == null)
+				return;
+			members.remove(intf);
+			if(members.isEmpty())
+				groups.remove(group);
+		}
+	}
+
+	/* Mark a port as leading to a multicast router */
+	public void learnRouterPort(Iface intf) {
+		synchronized(this.groups) {
+			routerPorts.put(intf, System.currentTimeMillis());
+		}
+	}
+
+	/* Returns true if any port has reported membership in the group */
+	public boolean isKnownGroup(int group) {
+		synchronized(this.groups) {
+			return groups.containsKey(group);
+		}
+	}
+
+	/* Returns true if any router port has been learned */
+	public boolean hasRouterPorts() {
+		synchronized(this.groups) {
+			return !routerPorts.isEmpty();
+		}
+	}
+
+	/* Collect the egress ports for a group : its members plus all router
+	 * ports, except the port the packet came in on */
+	public Set<Iface> getPortsForGroup(int group, Iface inIface) {
+		Set<Iface> ports = new HashSet<Iface>();
+		synchronized(this.groups) {
+			Map<Iface, Long> members = groups.get(group);
+			if(members != null)
+				ports.addAll(members.keySet());
+			ports.addAll(routerPorts.keySet());
+		}
+		ports.remove(inIface);
+		return ports;
+	}
+
+	/* Collect the router ports, except the port the packet came in on */
+	public Set<Iface> getRouterPorts(Iface inIface) {
+		Set<Iface> ports = new HashSet<Iface>();
+		synchronized(this.groups) {
+			ports.addAll(routerPorts.keySet());
+		}
+		ports.remove(inIface);
+		return ports;
+	}
+
+	/* Thread which takes care of timeout of memberships and router ports */
+	public void run() {
+		try {
+			while(true) {
+				Thread.sleep(1000);
+				long now = System.currentTimeMillis();
+				synchronized(this.groups) {
+				Iterator<Map.Entry<Integer, Map<Iface, Long>>> gItr = groups.entrySet().iterator();
+				while(gItr.hasNext()) {
+					Map<Iface, Long> members = gItr.next().getValue();
+					expire(members, now);
+					if(members.isEmpty())
+						gItr.remove();
+				}
+				expire(routerPorts, now);
+				}
+			}
+		} catch (Exception e) {
+			System.out.println(e);
+		}
+	}
+
+	private static void expire(Map<Iface, Long> ports, long now) {
+		Iterator<Map.Entry<Iface, Long>> itr = ports.entrySet().iterator();
+		while(itr.hasNext()) {
+			int diffTime = (int)((now - itr.next().getValue()) / 1000);
+			if(diffTime > MEMBERSHIP_TIMEOUT)
+				itr.remove();
+		}
+	}
+
+	public String toString() {
+		synchronized(this.groups) {
+			if(this.groups.size() == 0 && this.routerPorts.size() == 0)
+				return "Empty";
+
+			String result = "Group\t\tPorts\n";
+			for(Map.Entry<Integer, Map<Iface, Long>> g: this.groups.entrySet()) {
+				result += IPv4.fromIPv4Address(g.getKey()) + "\t";
+				for(Iface intf: g.getValue().keySet())
+					result += intf.getName() + " ";
+				result += "\n";
+			}
+			result += "Router ports\t";
+			for(Iface intf: this.routerPorts.keySet())
+				result += intf.getName() + " ";
+			return result + "\n";
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+import java.util.*;
+
+/* Per-port storm control : broadcast, multicast and unknown unicast traffic
+ * arriving on a port is policed by token buckets (packets/s and bits/s).
+ * Known unicast traffic is never policed. */
+public class StormControl {
+	public static final int BROADCAST = 0;
+	public static final int MULTICAST = 1;
+	public static final int UNKNOWN_UNICAST = 2;
+	static final String[] CLASS_NAMES = {"broadcast", "multicast", "unknown-unicast"};
+
+	/* Limits; 0 disables that limit */
+	long maxPps;
+	long maxBps;
+
+	/* Ingress port -> per traffic class policer */
+	Map<Iface, PortPolicer> policers;
+
+	StormControl(long maxPps, long maxBps){
+		this.maxPps = maxPps;
+		this.maxBps = maxBps;
+		policers = new HashMap<Iface, PortPolicer>();
+	}
+
+	public boolean isEnabled() {
+		return maxPps > 0 || maxBps > 0;
+	}
+
+	public boolean needsLength() {
+		return maxBps > 0;
+	}
+
+	/* Returns true if a packet of the given class and length (bytes)
+	 * arriving on the port is within the limits; otherwise counts a drop */
+	public boolean admit(Iface inIface, int trafficClass, int length) {
+		PortPolicer p;
+		synchronized(this.policers) {
+			p = policers.get(inIface);
+			if(p == null) {
+				p = new PortPolicer();
+				policers.put(inIface, p);
+			}
+		}
+		return p.admit(trafficClass, length);
+	}
+
+	public long getDrops(Iface inIface, int trafficClass) {
+		synchronized(this.policers) {
+			PortPolicer p = policers.get(inIface);
+			return (p == null) ? 0 : p.drops[trafficClass];
+		}
+	}
+
+	public String toString() {
+		synchronized(this.policers) {
+			String result = String.format("Storm control pps=%d bps=%d\n", maxPps, maxBps);
+			result += "Port\tClass\t\tDrops\n";
+			for(Map.Entry<Iface, PortPolicer> e: policers.entrySet()) {
+				for(int c = 0; c < CLASS_NAMES.length; c++)
+					result += e.getKey().getName() + "\t" + CLASS_NAMES[c]
+						+ "\t" + e.getValue().drops[c] + "\n";
+			}
+			return result;
+		}
+	}
+
+	/* Token buckets for one ingress port; one packet bucket and one byte
+	 * bucket per traffic class, each allowing a one second burst */
+	class PortPolicer {
+		double[] packetTokens = new double[CLASS_NAMES.length];
+		double[] bitTokens = new double[CLASS_NAMES.length];
+		long[] lastRefill = new long[CLASS_NAMES.length];
+		long[] drops = new long[CLASS_NAMES.length];
+
+		PortPolicer() {
+			long now = System.nanoTime();
+			for(int c = 0; c < CLASS_NAMES.length; c++) {
+				packetTokens[c] = maxPps;
+				bitTokens[c] = maxBps;
+				lastRefill[c] = now;
+			}
+		}
+
+		synchronized boolean admit(int c, int length) {
+			long now = System.nanoTime();
+			double elapsed = (now - lastRefill[c]) / 1e9;
+			lastRefill[c] = now;
+			packetTokens[c] = Math.min(maxPps, packetTokens[c] + elapsed * maxPps);
+			bitTokens[c] = Math.min(maxBps, bitTokens[c] + elapsed * maxBps);
+
+			long bits = 8L * length;
+			if((maxPps > 0 && packetTokens[c] < 1)
+					|| (maxBps > 0 && bitTokens[c] < bits)) {
+				drops[c]++;
+				return false;
+			}
+			packetTokens[c] -= 1;
+			bitTokens[c] -= bits;
+			return true;
+		}
+	}
+}
@@ -1,10 +1,17 @@
 package edu.wisc.cs.sdn.vnet.sw;
 
+import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IGMP;
+import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.MACAddress;
 import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.DumpFile;
 import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.StageTracer;
+import edu.wisc.cs.sdn.vnet.jfr.PacketDroppedEvent;
+import edu.wisc.cs.sdn.vnet.jfr.PacketForwardedEvent;
+import edu.wisc.cs.sdn.vnet.jfr.PacketReceivedEvent;
 import java.util.*;
 
 /**
@@ -13,6 +20,16 @@ import java.util.*;
 public class Switch extends Device
 {
 	ForwardingTable ft;
+	MulticastTable mt;
+	StormControl sc;
+	ArpSuppressionTable at;
+
+	/** Stages traced through handlePacket */
+	static final int STAGE_PARSE = 0;
+	static final int STAGE_LEARN = 1;
+	static final int STAGE_LOOKUP = 2;
+	static final int STAGE_SEND = 3;
+
 	/**
 	 * Creates a router for a specific host.
 	 * @param host hostname for the router
@@ -21,6 +38,41 @@ public class Switch extends Device
 	{
 		super(host,logfile);
 		ft = new ForwardingTable();
+		mt = new MulticastTable();
+		sc = new StormControl(0, 0);
+		at = new ArpSuppressionTable();
+		stageTracer = new StageTracer("parse", "learn", "lookup", "send");
+	}
+
+	/**
+	 * Enable storm control for broadcast, multicast and unknown unicast
+	 * traffic received on each port.
+	 * @param maxPps packets per second allowed per port and traffic class;
+	 *        0 for no packet limit
+	 * @param maxBps bits per second allowed per port and traffic class;
+	 *        0 for no bit limit
+	 */
+	public void setStormControl(long maxPps, long maxBps)
+	{
+		sc = new StormControl(maxPps, maxBps);
+		System.out.println(String.format(
+				"Storm control enabled: %d pps, %d bps", maxPps, maxBps));
+	}
+
+	/**
+	 * @return storm control state and drop counters for the switch
+	 */
+	public StormControl getStormControl()
+	{ return this.sc; }
+
+	/**
+	 * Report storm control drops, then close the PCAP dump file.
+	 */
+	public void destroy()
+	{
+		if (sc.isEnabled())
+		{ System.out.print(sc.toString()); }
+		super.destroy();
 	}
 
 	/**
@@ -30,29 +82,233 @@ public class Switch extends Device
 	 */
 	public void handlePacket(Ethernet etherPacket, Iface inIface)
 	{
-		System.out.println("*** -> Received packet: " +
-                etherPacket.toString().replace("\n", "\n\t"));
-		
+		long start = stageTracer.start();
+		PacketForwardedEvent forwarded = new PacketForwardedEvent();
+		forwarded.begin();
+		PacketReceivedEvent.emit(inIface.getName(), etherPacket);
+
+		/* Only the Ethernet header is logged, so frames the switch does not
+		 * need to look into are never decoded past it */
+		System.out.println(String.format(
+				"*** -> Received packet: dl_src: %s dl_dst: %s dl_type: 0x%04x",
+				MACAddress.toString(etherPacket.getSourceMACLong()),
+				MACAddress.toString(etherPacket.getDestinationMACLong()),
+				etherPacket.getEtherType()));
+
 		/********************************************************************/
+		/* Interfaces bundled in a link aggregation group are learned and
+		 * flooded as one logical Interface */
+		Iface physIface = inIface;
+		inIface = getLogicalInterface(physIface);
+		long t = stageTracer.mark(STAGE_PARSE, start);
+
 		/* Learing MAC Address and its Interface */
-		ft.learnForwarding(etherPacket.getSourceMAC(), inIface);
+		ft.learnForwarding(etherPacket.getSourceMACLong(), inIface);
+
+		/* ARP suppression : snoop bindings and answer requests for known
+		 * IP addresses on the incoming Interface instead of flooding */
+		if(etherPacket.getEtherType() == Ethernet.TYPE_ARP
+				&& handleArp(etherPacket, inIface)) {
+			return;
+		}
+		t = stageTracer.mark(STAGE_LEARN, t);
+
+		/* Only unicast packets can have a learned outgoing Interface */
+		boolean flooded = etherPacket.isBroadcast() || etherPacket.isMulticast();
+		Iface outIface = flooded ? null
+				: ft.getIFaceForMAC(etherPacket.getDestinationMACLong());
+
+		/* Storm control : police traffic which would be flooded, known
+		 * unicast is always forwarded */
+		if(outIface == null && sc.isEnabled()
+				&& !admitFlooded(etherPacket, physIface)) {
+			/* Over the storm control limit - Dropping */
+			PacketDroppedEvent.emit(physIface.getName(), PacketDroppedEvent.STORM_CONTROL);
+			return;
+		}
+		t = stageTracer.mark(STAGE_LOOKUP, t);
+
+		/* IP Multicast is forwarded using the snooped group membership;
+		 * link-local groups (including RIP, which is sent to 224.0.0.9 with
+		 * a broadcast MAC) are flooded */
+		if(etherPacket.getEtherType() == Ethernet.TYPE_IPv4
+				&& (etherPacket.isMulticast() || etherPacket.isBroadcast())) {
+			IPv4 pkt = (IPv4)etherPacket.getPayload();
+			if(IPv4.isMulticastAddress(pkt.getDestinationAddress())) {
+				handleMulticast(etherPacket, pkt, inIface);
+				stageTracer.end(STAGE_SEND, t, start);
+				forwarded.forwarded(physIface.getName(), "flood",
+						pkt.getDestinationAddress());
+				return;
+			}
+		}
 
 		/* Forwarding packets to the correct Interface */
-		Iface outIface = ft.getIFaceForMAC(etherPacket.getDestinationMAC());
 		if(outIface == null) {
 			/* If no matching entry of MAC address in Forwarind Table,
 			 * broadcast the packet on every interface (Except Incomming
 			 * Interface) */
-			for(Map.Entry<String,Iface> entry: interfaces.entrySet()) {
-				if(entry.getKey().equals(inIface.getName())) {
-					/* Move to next entry */
+			flood(etherPacket, inIface);
+		} else {
+			sendPacket(etherPacket, outIface);
+		}
+		stageTracer.end(STAGE_SEND, t, start);
+		forwarded.forwarded(physIface.getName(),
+				(outIface == null) ? "flood" : outIface.getName(),
+				etherPacket.getDestinationMACLong());
+		/********************************************************************/
+	}
+
+	/* Snoop an ARP packet; returns true if the switch answered it */
+	private boolean handleArp(Ethernet etherPacket, Iface inIface) {
+		ARP arpPacket = (ARP)etherPacket.getPayload();
+		if(arpPacket.getProtocolType() != ARP.PROTO_TYPE_IP
+				|| arpPacket.getHardwareAddressLength() != Ethernet.DATALAYER_ADDRESS_LENGTH
+				|| arpPacket.getProtocolAddressLength() != 4) {
+			return false;
+		}
+		int senderIp = IPv4.toIPv4Address(arpPacket.getSenderProtocolAddress());
+		int targetIp = IPv4.toIPv4Address(arpPacket.getTargetProtocolAddress());
+
+		/* Learn from replies and gratuitous ARPs (an address probe has
+		 * sender IP 0 and binds nothing) */
+		if(senderIp != 0 && (arpPacket.getOpCode() == ARP.OP_REPLY
+				|| arpPacket.isGratuitous())) {
+			at.learn(senderIp, MACAddress.valueOf(arpPacket.getSenderHardwareAddress()));
+		}
+
+		if(arpPacket.getOpCode() != ARP.OP_REQUEST || arpPacket.isGratuitous()
+				|| senderIp == 0) {
+			return false;
+		}
+		MACAddress targetMac = at.lookup(targetIp);
+		if(targetMac == null) {
+			/* Unknown target - flood the request as usual */
+			return false;
+		}
+
+		/* Answer on behalf of the target */
+		ARP reply = new ARP();
+		reply.setHardwareType(ARP.HW_TYPE_ETHERNET);
+		reply.setProtocolType(ARP.PROTO_TYPE_IP);
+		reply.setHardwareAddressLength((byte)Ethernet.DATALAYER_ADDRESS_LENGTH);
+		reply.setProtocolAddressLength((byte)4);
+		reply.setOpCode(ARP.OP_REPLY);
+		reply.setSenderHardwareAddress(targetMac.toBytes());
+		reply.setSenderProtocolAddress(targetIp);
+		reply.setTargetHardwareAddress(arpPacket.getSenderHardwareAddress());
+		reply.setTargetProtocolAddress(senderIp);
+
+		Ethernet ether = new Ethernet();
+		ether.setEtherType(Ethernet.TYPE_ARP);
+		ether.setSourceMACAddress(targetMac);
+		ether.setDestinationMACAddress(etherPacket.getSourceMACLong());
+		ether.setPayload(reply);
+
+		sendPacket(ether, inIface);
+		return true;
+	}
+
+	/* Run a broadcast, multicast or unknown unicast packet through the
+	 * storm control policer of its ingress port */
+	private boolean admitFlooded(Ethernet etherPacket, Iface inIface) {
+		int trafficClass;
+		if(etherPacket.isBroadcast()) {
+			trafficClass = StormControl.BROADCAST;
+		} else if(etherPacket.isMulticast()) {
+			trafficClass = StormControl.MULTICAST;
+		} else {
+			trafficClass = StormControl.UNKNOWN_UNICAST;
+		}
+		/* Frame length is only needed when a bit rate limit is configured */
+		int length = sc.needsLength() ? etherPacket.encodedLength() : 0;
+		return sc.admit(inIface, trafficClass, length);
+	}
+
+	/* Forward an IP multicast packet only to ports which want it */
+	private void handleMulticast(Ethernet etherPacket, IPv4 pkt, Iface inIface) {
+		int group = pkt.getDestinationAddress();
+
+		if(pkt.getProtocol() == IPv4.PROTOCOL_IGMP) {
+			IGMP igmp = (IGMP)pkt.getPayload();
+			if(igmp.getIgmpType() == IGMP.TYPE_MEMBERSHIP_QUERY) {
+				/* Queries come from multicast routers; every host needs them */
+				mt.learnRouterPort(inIface);
+				flood(etherPacket, inIface);
+				return;
+			}
+			snoopIGMP(igmp, inIface);
+			if(igmp.isMembershipReport() || igmp.getIgmpType() == IGMP.TYPE_V2_LEAVE_GROUP) {
+				/* Reports and leaves only need to reach the routers */
+				if(mt.hasRouterPorts()) {
+					sendToPorts(etherPacket, mt.getRouterPorts(inIface));
 				} else {
-					sendPacket(etherPacket, entry.getValue());
+					flood(etherPacket, inIface);
 				}
+				return;
 			}
+		}
+
+		if(IPv4.isLinkLocalMulticastAddress(group)) {
+			/* Link-local groups (all-hosts, RIP, OSPF, ...) have no IGMP
+			 * reports, and a listener may never send to its group, so they
+			 * are always flooded (RFC 4541, section 2.1.2) */
+			flood(etherPacket, inIface);
+			return;
+		}
+
+		/* Only groups learned through IGMP are pruned */
+		Set<Iface> ports = mt.getPortsForGroup(group, inIface);
+		if(ports.isEmpty() && !mt.isKnownGroup(group) && !mt.hasRouterPorts()) {
+			/* Nothing snooped yet for this group - behave like a plain
+			 * learning switch */
+			flood(etherPacket, inIface);
 		} else {
+			sendToPorts(etherPacket, ports);
+		}
+	}
+
+	/* Update group membership from an IGMP report or leave */
+	private void snoopIGMP(IGMP igmp, Iface inIface) {
+		switch(igmp.getIgmpType()) {
+		case IGMP.TYPE_V1_MEMBERSHIP_REPORT:
+		case IGMP.TYPE_V2_MEMBERSHIP_REPORT:
+			mt.join(igmp.getGroupAddress(), inIface);
+			break;
+		case IGMP.TYPE_V2_LEAVE_GROUP:
+			mt.leave(igmp.getGroupAddress(), inIface);
+			break;
+		case IGMP.TYPE_V3_MEMBERSHIP_REPORT:
+			for(IGMP.GroupRecord record: igmp.getGroupRecords()) {
+				if(record.isLeave()) {
+					mt.leave(record.getGroupAddress(), inIface);
+				} else {
+					mt.join(record.getGroupAddress(), inIface);
+				}
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/* Send a packet on every interface except the incoming one; a link
+	 * aggregation group gets one copy, sent on its primary member */
+	private void flood(Ethernet etherPacket, Iface inIface) {
+		for(Map.Entry<String,Iface> entry: interfaces.entrySet()) {
+			if(entry.getKey().equals(inIface.getName())) {
+				/* Move to next entry */
+			} else if(getLogicalInterface(entry.getValue()) != entry.getValue()) {
+				/* Non-primary group member - covered by the primary */
+			} else {
+				sendPacket(etherPacket, entry.getValue());
+			}
+		}
+	}
+
+	private void sendToPorts(Ethernet etherPacket, Set<Iface> ports) {
+		for(Iface outIface: ports) {
 			sendPacket(etherPacket, outIface);
 		}
-		/********************************************************************/
 	}
 }
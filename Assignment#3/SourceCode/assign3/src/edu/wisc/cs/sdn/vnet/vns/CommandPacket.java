@@ -32,21 +32,19 @@ public class CommandPacket extends Command
 	
 	protected byte[] serialize()
 	{
-		byte[] packet = this.etherPacket.serialize();
-		int size = this.getSize() + packet.length;
+		// Size the command once and let the frame write itself into it,
+		// rather than copying a separately serialized frame
+		int size = this.getSize() + this.etherPacket.encodedLength();
 		this.mLen = size;
 		
 		byte[] data = new byte[size];
         ByteBuffer bb = ByteBuffer.wrap(data);
         
-        byte[] parentData = super.serialize();
-        
-        bb.put(parentData);
-        byte[] tmp = new byte[16];
-        System.arraycopy(this.mInterfaceName.getBytes(), 0, tmp, 0, 
-                this.mInterfaceName.length());
-        bb.put(tmp);
-        bb.put(packet);
+        super.serializeTo(bb);
+        byte[] name = this.mInterfaceName.getBytes();
+        bb.put(name, 0, Math.min(name.length, 16));
+        bb.position(super.getSize() + 16);
+        this.etherPacket.serializeTo(bb);
         
         return data;
 	}
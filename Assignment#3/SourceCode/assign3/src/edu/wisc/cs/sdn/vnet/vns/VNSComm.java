@@ -233,7 +233,7 @@ public class VNSComm
 					+ ", does not exist");
 			return false;
 		}
-		if (!iface.getMacAddress().equals(etherPacket.getSourceMAC()))
+		if (iface.getMacAddress().toLong() != etherPacket.getSourceMACLong())
 		{
 			System.err.println("** Error, source address does not match interface"); 
 			return false;
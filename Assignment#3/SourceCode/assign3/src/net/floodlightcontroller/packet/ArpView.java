@@ -0,0 +1,148 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable, zero-copy view of an Ethernet/IPv4 ARP packet (hardware
+ * address length 6, protocol address length 4). See {@link EthernetView}.
+ */
+public class ArpView {
+    public static final int LENGTH = 28;
+
+    protected ByteBuffer buffer;
+    protected int offset;
+
+    /**
+     * Point this view at an ARP packet.
+     * @param buffer the buffer holding the packet; must be big-endian
+     * @param offset index of the first byte of the ARP packet
+     * @return this view
+     */
+    public ArpView wrap(ByteBuffer buffer, int offset) {
+        if (buffer.order() != ByteOrder.BIG_ENDIAN)
+            throw new IllegalArgumentException("Buffer must be big-endian");
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @return the buffer this view reads from
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return index of the first byte of the packet in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return True if the packet has Ethernet/IPv4 address lengths, which
+     *         the other accessors assume
+     */
+    public boolean isEthernetIPv4() {
+        return buffer.get(offset + 4) == Ethernet.DATALAYER_ADDRESS_LENGTH
+                && buffer.get(offset + 5) == 4;
+    }
+
+    /**
+     * @return the hardwareType
+     */
+    public short getHardwareType() {
+        return buffer.getShort(offset);
+    }
+
+    /**
+     * @return the protocolType
+     */
+    public short getProtocolType() {
+        return buffer.getShort(offset + 2);
+    }
+
+    /**
+     * @return the opCode
+     */
+    public short getOpCode() {
+        return buffer.getShort(offset + 6);
+    }
+
+    /**
+     * @param opCode the opCode to set
+     */
+    public ArpView setOpCode(short opCode) {
+        buffer.putShort(offset + 6, opCode);
+        return this;
+    }
+
+    /**
+     * @return the senderHardwareAddress, in the lower 48 bits of a long
+     */
+    public long getSenderHardwareAddress() {
+        return EthernetView.getMAC(buffer, offset + 8);
+    }
+
+    /**
+     * @param mac the senderHardwareAddress to set
+     */
+    public ArpView setSenderHardwareAddress(long mac) {
+        EthernetView.putMAC(buffer, offset + 8, mac);
+        return this;
+    }
+
+    /**
+     * @return the senderProtocolAddress
+     */
+    public int getSenderProtocolAddress() {
+        return buffer.getInt(offset + 14);
+    }
+
+    /**
+     * @param address the senderProtocolAddress to set
+     */
+    public ArpView setSenderProtocolAddress(int address) {
+        buffer.putInt(offset + 14, address);
+        return this;
+    }
+
+    /**
+     * @return the targetHardwareAddress, in the lower 48 bits of a long
+     */
+    public long getTargetHardwareAddress() {
+        return EthernetView.getMAC(buffer, offset + 18);
+    }
+
+    /**
+     * @param mac the targetHardwareAddress to set
+     */
+    public ArpView setTargetHardwareAddress(long mac) {
+        EthernetView.putMAC(buffer, offset + 18, mac);
+        return this;
+    }
+
+    /**
+     * @return the targetProtocolAddress
+     */
+    public int getTargetProtocolAddress() {
+        return buffer.getInt(offset + 24);
+    }
+
+    /**
+     * @param address the targetProtocolAddress to set
+     */
+    public ArpView setTargetProtocolAddress(int address) {
+        buffer.putInt(offset + 24, address);
+        return this;
+    }
+
+    /**
+     * @return True if gratuitous ARP (SPA = TPA), false otherwise
+     */
+    public boolean isGratuitous() {
+        return getSenderProtocolAddress() == getTargetProtocolAddress();
+    }
+}
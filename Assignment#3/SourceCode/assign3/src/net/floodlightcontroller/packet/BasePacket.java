@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
 
 /**
 *
@@ -26,6 +28,19 @@ public abstract class BasePacket implements IPacket {
     protected IPacket parent;
     protected IPacket payload;
 
+    /**
+     * Payload bytes that have not been decoded yet, and the decoder for
+     * them. Layers defer decoding their payload until the first call to
+     * {@link #getPayload()}, so callers that only read outer headers never
+     * pay for parsing (or allocating) the inner ones. The bytes are kept
+     * after decoding (see {@link #getReceivedPayload()}) until the payload
+     * is replaced.
+     */
+    protected Supplier<? extends IPacket> pendingDecoder;
+    protected byte[] pendingData;
+    protected int pendingOffset;
+    protected int pendingLength;
+
     /**
      * @return the parent
      */
@@ -44,10 +59,12 @@ public abstract class BasePacket implements IPacket {
     }
 
     /**
-     * @return the payload
+     * @return the payload, decoding it first if decoding was deferred
      */
     @Override
     public IPacket getPayload() {
+        if (pendingDecoder != null)
+            decodePayload();
         return payload;
     }
 
@@ -56,10 +73,98 @@ public abstract class BasePacket implements IPacket {
      */
     @Override
     public IPacket setPayload(IPacket payload) {
+        this.pendingDecoder = null;
+        this.pendingData = null;
         this.payload = payload;
         return this;
     }
-    
+
+    /**
+     * @return true if the payload has been decoded (or was set directly)
+     */
+    public boolean isPayloadDecoded() {
+        return pendingDecoder == null;
+    }
+
+    /**
+     * Get the payload as it was received, for quoting it without
+     * re-serializing. Changes made to the decoded payload are not
+     * reflected, so callers that need those must use serialize().
+     * @return a read-only view of the received payload bytes, or null if
+     *         the payload was set directly rather than deserialized
+     */
+    public ByteBuffer getReceivedPayload() {
+        if (pendingData == null)
+            return null;
+        return ByteBuffer.wrap(pendingData, pendingOffset, pendingLength)
+                .slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Remember the payload bytes and their decoder instead of decoding them
+     * now. The bytes are not copied, so the caller must not reuse the array
+     * while the packet is in use.
+     * @param decoder creates the payload packet to deserialize into
+     * @param data the bytes holding the payload
+     * @param offset offset of the payload in data
+     * @param length length of the payload
+     */
+    protected void deferPayload(Supplier<? extends IPacket> decoder,
+            byte[] data, int offset, int length) {
+        this.payload = null;
+        this.pendingDecoder = decoder;
+        this.pendingData = data;
+        this.pendingOffset = offset;
+        this.pendingLength = length;
+    }
+
+    /**
+     * Decode the deferred payload bytes.
+     */
+    protected void decodePayload() {
+        IPacket packet = pendingDecoder.get();
+        pendingDecoder = null;
+        this.payload = packet.deserialize(pendingData, pendingOffset, pendingLength);
+        if (this.payload != null)
+            this.payload.setParent(this);
+    }
+
+    /**
+     * @return the number of bytes the payload serializes to; 0 if there is
+     *         no payload
+     */
+    protected int payloadLength() {
+        if (pendingDecoder != null)
+            return pendingLength;
+        return (payload == null) ? 0 : payload.encodedLength();
+    }
+
+    /**
+     * Writes the payload into bb for inclusion in this packet. A payload
+     * that was never decoded cannot have changed, so its bytes are copied
+     * as is.
+     * @param bb the buffer to write to, at its current position
+     */
+    protected void serializePayloadTo(ByteBuffer bb) {
+        if (pendingDecoder != null) {
+            bb.put(pendingData, pendingOffset, pendingLength);
+        } else if (payload != null) {
+            payload.setParent(this);
+            payload.serializeTo(bb);
+        }
+    }
+
+    /**
+     * Serializes this packet and all payloads into a single array sized by
+     * {@link #encodedLength()}.
+     */
+    @Override
+    public byte[] serialize() {
+        byte[] data = new byte[encodedLength()];
+        serializeTo(ByteBuffer.wrap(data));
+        return data;
+    }
+
     @Override
     public void resetChecksum() {
         if (this.parent != null)
@@ -73,6 +178,7 @@ public abstract class BasePacket implements IPacket {
     public int hashCode() {
         final int prime = 6733;
         int result = 1;
+        IPacket payload = getPayload();
         result = prime * result + ((payload == null) ? 0 : payload.hashCode());
         return result;
     }
@@ -89,10 +195,11 @@ public abstract class BasePacket implements IPacket {
         if (!(obj instanceof BasePacket))
             return false;
         BasePacket other = (BasePacket) obj;
+        IPacket payload = getPayload();
         if (payload == null) {
-            if (other.payload != null)
+            if (other.getPayload() != null)
                 return false;
-        } else if (!payload.equals(other.payload))
+        } else if (!payload.equals(other.getPayload()))
             return false;
         return true;
     }
@@ -0,0 +1,107 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Internet checksum (RFC 1071) shared by the IPv4, ICMP, IGMP, TCP and
+ * UDP layers.
+ *
+ * The one's complement sum is independent of the word size it is computed
+ * in, so {@link #sum} adds the data 64 bits at a time, as two 32-bit halves
+ * into a 64-bit accumulator, and folds the carries down to 16 bits only
+ * once at the end. A partial sum can be carried from one call to the next,
+ * e.g. starting from {@link #pseudoHeader}.
+ */
+public class Checksum {
+    private Checksum() {
+    }
+
+    /**
+     * Adds bytes to an unfolded one's complement sum.
+     * @param bb the buffer holding the data; must be big-endian
+     * @param offset index of the first byte; an odd length is padded with
+     *        a zero byte, so only the last call of a chain may be odd
+     * @param length number of bytes to add
+     * @param sum the sum so far (0 to start)
+     * @return the new unfolded sum
+     */
+    public static long sum(ByteBuffer bb, int offset, int length, long sum) {
+        int end = offset + length;
+        int i = offset;
+        // Each 64-bit word adds at most 2^33, so the accumulator cannot
+        // overflow for any buffer a ByteBuffer can hold
+        for (; i + 8 <= end; i += 8) {
+            long word = bb.getLong(i);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        if (i + 4 <= end) {
+            sum += bb.getInt(i) & 0xffffffffL;
+            i += 4;
+        }
+        if (i + 2 <= end) {
+            sum += bb.getShort(i) & 0xffff;
+            i += 2;
+        }
+        if (i < end) {
+            sum += (bb.get(i) & 0xff) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the unfolded sum of the TCP/UDP pseudo-header.
+     * @param sourceAddress the IPv4 source address
+     * @param destinationAddress the IPv4 destination address
+     * @param protocol the IPv4 protocol
+     * @param length the transport header plus payload length
+     * @return the unfolded sum
+     */
+    public static long pseudoHeader(int sourceAddress, int destinationAddress,
+            byte protocol, int length) {
+        return (sourceAddress & 0xffffffffL)
+                + (destinationAddress & 0xffffffffL)
+                + (protocol & 0xff) + (length & 0xffff);
+    }
+
+    /**
+     * Folds an unfolded sum to 16 bits and complements it.
+     * @param sum the unfolded sum
+     * @return the checksum to put on the wire
+     */
+    public static short fold(long sum) {
+        sum = (sum >>> 32) + (sum & 0xffffffffL);
+        sum = (sum >>> 16) + (sum & 0xffff);
+        sum = (sum >>> 16) + (sum & 0xffff);
+        sum = (sum >>> 16) + (sum & 0xffff);
+        return (short) (~sum & 0xffff);
+    }
+
+    /**
+     * Computes the checksum of a range of bytes.
+     * @param bb the buffer holding the data; must be big-endian
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return the checksum
+     */
+    public static short compute(ByteBuffer bb, int offset, int length) {
+        return fold(sum(bb, offset, length, 0));
+    }
+
+    /**
+     * Computes the checksum of a range of bytes covered by an IPv4
+     * pseudo-header.
+     * @param bb the buffer holding the data; must be big-endian
+     * @param offset index of the first byte of the transport header
+     * @param length number of bytes of header and payload
+     * @param ipv4 the enclosing packet, for the pseudo-header; null if none
+     * @return the checksum
+     */
+    public static short compute(ByteBuffer bb, int offset, int length,
+            IPv4 ipv4) {
+        long sum = 0;
+        if (ipv4 != null)
+            sum = pseudoHeader(ipv4.getSourceAddress(),
+                    ipv4.getDestinationAddress(), ipv4.getProtocol(), length);
+        return fold(sum(bb, offset, length, sum));
+    }
+}
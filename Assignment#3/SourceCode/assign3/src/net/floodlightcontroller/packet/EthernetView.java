@@ -0,0 +1,168 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable, zero-copy view of an Ethernet header. The view reads and
+ * writes the wire bytes of a (big-endian) buffer in place; wrapping a new
+ * packet does not allocate, so one instance can be reused for every frame.
+ * Payload layers are reached by wrapping the matching view (e.g.
+ * {@link IPv4View}) at {@link #getPayloadOffset()}.
+ */
+public class EthernetView {
+    public static final int HEADER_LENGTH = 14;
+    public static final int VLAN_HEADER_LENGTH = 18;
+
+    protected ByteBuffer buffer;
+    protected int offset;
+
+    /**
+     * Point this view at an Ethernet header.
+     * @param buffer the buffer holding the frame; must be big-endian
+     * @param offset index of the first byte of the frame in the buffer
+     * @return this view
+     */
+    public EthernetView wrap(ByteBuffer buffer, int offset) {
+        if (buffer.order() != ByteOrder.BIG_ENDIAN)
+            throw new IllegalArgumentException("Buffer must be big-endian");
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @return the buffer this view reads from
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return index of the first byte of the frame in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the destination MAC, in the lower 48 bits of a long
+     */
+    public long getDestinationMAC() {
+        return getMAC(buffer, offset);
+    }
+
+    /**
+     * @param mac the destination MAC to set, in the lower 48 bits of a long
+     */
+    public EthernetView setDestinationMAC(long mac) {
+        putMAC(buffer, offset, mac);
+        return this;
+    }
+
+    /**
+     * @return the source MAC, in the lower 48 bits of a long
+     */
+    public long getSourceMAC() {
+        return getMAC(buffer, offset + 6);
+    }
+
+    /**
+     * @param mac the source MAC to set, in the lower 48 bits of a long
+     */
+    public EthernetView setSourceMAC(long mac) {
+        putMAC(buffer, offset + 6, mac);
+        return this;
+    }
+
+    /**
+     * @return True if the frame is broadcast, false otherwise
+     */
+    public boolean isBroadcast() {
+        return getDestinationMAC() == 0xffffffffffffL;
+    }
+
+    /**
+     * @return True if the frame is multicast (but not broadcast), false
+     *         otherwise
+     */
+    public boolean isMulticast() {
+        return (buffer.get(offset) & 0x01) != 0 && !isBroadcast();
+    }
+
+    /**
+     * @return True if the frame carries an 802.1Q tag
+     */
+    public boolean isVlanTagged() {
+        return buffer.getShort(offset + 12) == (short) 0x8100;
+    }
+
+    /**
+     * @return the vlanID; {@link Ethernet#VLAN_UNTAGGED} if untagged
+     */
+    public short getVlanID() {
+        if (!isVlanTagged())
+            return Ethernet.VLAN_UNTAGGED;
+        return (short) (buffer.getShort(offset + 14) & 0x0fff);
+    }
+
+    /**
+     * @return the priorityCode; 0 if untagged
+     */
+    public byte getPriorityCode() {
+        if (!isVlanTagged())
+            return 0;
+        return (byte) ((buffer.getShort(offset + 14) >> 13) & 0x07);
+    }
+
+    /**
+     * @return the etherType of the payload (after any VLAN tag)
+     */
+    public short getEtherType() {
+        return buffer.getShort(offset + getHeaderLength() - 2);
+    }
+
+    /**
+     * @param etherType the etherType to set (after any VLAN tag)
+     */
+    public EthernetView setEtherType(short etherType) {
+        buffer.putShort(offset + getHeaderLength() - 2, etherType);
+        return this;
+    }
+
+    /**
+     * @return the header length in bytes, including any VLAN tag
+     */
+    public int getHeaderLength() {
+        return isVlanTagged() ? VLAN_HEADER_LENGTH : HEADER_LENGTH;
+    }
+
+    /**
+     * @return index of the first payload byte in the buffer
+     */
+    public int getPayloadOffset() {
+        return offset + getHeaderLength();
+    }
+
+    /**
+     * Reads a 6 byte MAC address into the lower 48 bits of a long.
+     * @param buffer a big-endian buffer
+     * @param index index of the first byte of the address
+     * @return the MAC address
+     */
+    public static long getMAC(ByteBuffer buffer, int index) {
+        return ((buffer.getShort(index) & 0xffffL) << 32)
+                | (buffer.getInt(index + 2) & 0xffffffffL);
+    }
+
+    /**
+     * Writes the lower 48 bits of a long as a 6 byte MAC address.
+     * @param buffer a big-endian buffer
+     * @param index index of the first byte of the address
+     * @param mac the MAC address
+     */
+    public static void putMAC(ByteBuffer buffer, int index, long mac) {
+        buffer.putShort(index, (short) (mac >>> 32));
+        buffer.putInt(index + 2, (int) mac);
+    }
+}
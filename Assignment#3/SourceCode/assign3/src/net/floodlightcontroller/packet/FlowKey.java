@@ -0,0 +1,291 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * The IPv4 5-tuple (source and destination address, protocol, source and
+ * destination port) of a packet, packed into two longs. Extraction reads
+ * the fields straight from the frame bytes, stepping over VLAN tags and IP
+ * options, and does not allocate, so one instance can be reused for every
+ * packet. Use it wherever a flow identity is needed: hashing packets onto
+ * links, paths or workers, or keying a flow cache.
+ *
+ * Ports are only read for unfragmented TCP and UDP packets; they are zero
+ * otherwise, so every fragment of a datagram maps to the same key. The TCP
+ * flags are read along with the ports, for connection tracking; they are
+ * not part of the key.
+ */
+public class FlowKey {
+    public static final short TYPE_VLAN = (short) 0x8100;
+    public static final short TYPE_QINQ = (short) 0x88a8;
+
+    /** Source address in the upper 32 bits, destination in the lower */
+    protected long addresses;
+    /** Protocol in bits 32-39, source port in 16-31, destination in 0-15 */
+    protected long ports;
+    /** TCP flags of the packet; zero if not TCP or fragmented */
+    protected short tcpFlags;
+
+    /**
+     * Extract the key from an Ethernet frame.
+     * @param frame the bytes holding the frame
+     * @param offset index of the first byte of the Ethernet header
+     * @param length length of the frame
+     * @return true if the frame carries IPv4; otherwise the key is cleared
+     */
+    public boolean extract(byte[] frame, int offset, int length) {
+        int end = offset + length;
+        int index = offset + 12;
+        if (index + 2 > end)
+            return clear();
+        short etherType = getShort(frame, index);
+        // Step over up to two (802.1Q or 802.1ad) tags
+        for (int tags = 0; tags < 2
+                && (etherType == TYPE_VLAN || etherType == TYPE_QINQ); tags++) {
+            index += 4;
+            if (index + 2 > end)
+                return clear();
+            etherType = getShort(frame, index);
+        }
+        if (etherType != Ethernet.TYPE_IPv4)
+            return clear();
+        index += 2;
+        return extractIPv4(frame, index, end - index);
+    }
+
+    /**
+     * Extract the key from an IPv4 packet.
+     * @param packet the bytes holding the packet
+     * @param offset index of the first byte of the IPv4 header
+     * @param length length of the packet
+     * @return true if the header is complete; otherwise the key is cleared
+     */
+    public boolean extractIPv4(byte[] packet, int offset, int length) {
+        if (length < 20 || (packet[offset] & 0xf0) != 0x40)
+            return clear();
+        int headerLength = (packet[offset] & 0xf) * 4;
+        if (headerLength < 20 || headerLength > length)
+            return clear();
+        byte protocol = packet[offset + 9];
+        this.addresses = ((long) getInt(packet, offset + 12) << 32)
+                | (getInt(packet, offset + 16) & 0xffffffffL);
+        this.ports = (protocol & 0xffL) << 32;
+        this.tcpFlags = 0;
+        // Ports are only present in the first fragment; skip them unless
+        // the packet is unfragmented (MF clear and offset zero)
+        boolean fragmented = (getShort(packet, offset + 6) & 0x3fff) != 0;
+        if (!fragmented && headerLength + 4 <= length)
+            this.ports |= transportPorts(protocol, packet, offset + headerLength);
+        if (!fragmented && headerLength + 14 <= length)
+            this.tcpFlags = tcpFlags(protocol, packet, offset + headerLength);
+        return true;
+    }
+
+    /**
+     * Extract the key from a packet object, reading raw bytes for layers
+     * that have not been decoded. No layer is decoded as a side effect.
+     * @param etherPacket the packet
+     * @return true if the packet carries IPv4; otherwise the key is cleared
+     */
+    public boolean extract(Ethernet etherPacket) {
+        if (etherPacket.getEtherType() != Ethernet.TYPE_IPv4)
+            return clear();
+        if (!etherPacket.isPayloadDecoded())
+            return extractIPv4(etherPacket.pendingData,
+                    etherPacket.pendingOffset, etherPacket.pendingLength);
+        if (!(etherPacket.payload instanceof IPv4))
+            return clear();
+
+        IPv4 ip = (IPv4) etherPacket.payload;
+        byte protocol = ip.getProtocol();
+        this.addresses = ((long) ip.getSourceAddress() << 32)
+                | (ip.getDestinationAddress() & 0xffffffffL);
+        this.ports = (protocol & 0xffL) << 32;
+        this.tcpFlags = 0;
+        if ((ip.getFlags() & IPv4.IPV4_FLAGS_MOREFRAG) != 0
+                || ip.getFragmentOffset() != 0)
+            return true;
+        if (!ip.isPayloadDecoded()) {
+            if (ip.pendingLength >= 4)
+                this.ports |= transportPorts(protocol, ip.pendingData,
+                        ip.pendingOffset);
+            if (ip.pendingLength >= 14)
+                this.tcpFlags = tcpFlags(protocol, ip.pendingData,
+                        ip.pendingOffset);
+        } else if (ip.payload instanceof TCP) {
+            TCP tcp = (TCP) ip.payload;
+            this.ports |= packPorts(tcp.getSourcePort(), tcp.getDestinationPort());
+            this.tcpFlags = (short) (tcp.getFlags() & 0xff);
+        } else if (ip.payload instanceof UDP) {
+            UDP udp = (UDP) ip.payload;
+            this.ports |= packPorts(udp.getSourcePort(), udp.getDestinationPort());
+        }
+        return true;
+    }
+
+    private static long transportPorts(byte protocol, byte[] data, int offset) {
+        if (protocol != IPv4.PROTOCOL_TCP && protocol != IPv4.PROTOCOL_UDP)
+            return 0;
+        return getInt(data, offset) & 0xffffffffL;
+    }
+
+    private static short tcpFlags(byte protocol, byte[] data, int offset) {
+        if (protocol != IPv4.PROTOCOL_TCP)
+            return 0;
+        return (short) (data[offset + 13] & 0xff);
+    }
+
+    private static long packPorts(short sourcePort, short destinationPort) {
+        return ((sourcePort & 0xffffL) << 16) | (destinationPort & 0xffffL);
+    }
+
+    private static short getShort(byte[] data, int index) {
+        return (short) (((data[index] & 0xff) << 8) | (data[index + 1] & 0xff));
+    }
+
+    private static int getInt(byte[] data, int index) {
+        return ((data[index] & 0xff) << 24) | ((data[index + 1] & 0xff) << 16)
+                | ((data[index + 2] & 0xff) << 8) | (data[index + 3] & 0xff);
+    }
+
+    /**
+     * Reset the key to all zeroes.
+     * @return false, for use as the result of a failed extraction
+     */
+    public boolean clear() {
+        this.addresses = 0;
+        this.ports = 0;
+        this.tcpFlags = 0;
+        return false;
+    }
+
+    /**
+     * @param other the key to copy
+     * @return this key
+     */
+    public FlowKey set(FlowKey other) {
+        this.addresses = other.addresses;
+        this.ports = other.ports;
+        this.tcpFlags = other.tcpFlags;
+        return this;
+    }
+
+    /**
+     * @return the source and destination address, packed
+     */
+    public long getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * @return the protocol and ports, packed
+     */
+    public long getPorts() {
+        return ports;
+    }
+
+    /**
+     * @return the sourceAddress
+     */
+    public int getSourceAddress() {
+        return (int) (addresses >>> 32);
+    }
+
+    /**
+     * @return the destinationAddress
+     */
+    public int getDestinationAddress() {
+        return (int) addresses;
+    }
+
+    /**
+     * @return the protocol
+     */
+    public byte getProtocol() {
+        return (byte) (ports >>> 32);
+    }
+
+    /**
+     * @return the sourcePort; zero if not TCP/UDP or fragmented
+     */
+    public short getSourcePort() {
+        return (short) (ports >>> 16);
+    }
+
+    /**
+     * @return the destinationPort; zero if not TCP/UDP or fragmented
+     */
+    public short getDestinationPort() {
+        return (short) ports;
+    }
+
+    /**
+     * @return the TCP flags (FIN to CWR, see {@link TcpView}); zero if not
+     *         TCP or fragmented
+     */
+    public short getTcpFlags() {
+        return tcpFlags;
+    }
+
+    /**
+     * @return a 64-bit hash of the key, with every input bit affecting
+     *         every output bit
+     */
+    public long hash64() {
+        return hash64(addresses, ports);
+    }
+
+    /**
+     * @return a 32-bit hash of the key; see {@link #hash64()}
+     */
+    public int hash() {
+        return (int) hash64();
+    }
+
+    /**
+     * Hash a packed key.
+     * @param addresses the packed addresses
+     * @param ports the packed protocol and ports
+     * @return the 64-bit hash
+     */
+    public static long hash64(long addresses, long ports) {
+        return mix64(addresses * 0x9e3779b97f4a7c15L
+                ^ Long.rotateLeft(ports * 0xc2b2ae3d27d4eb4fL, 31));
+    }
+
+    /**
+     * MurmurHash3 64-bit finalizer.
+     * @param h the value to mix
+     * @return the mixed value
+     */
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof FlowKey))
+            return false;
+        FlowKey other = (FlowKey) obj;
+        return addresses == other.addresses && ports == other.ports;
+    }
+
+    @Override
+    public String toString() {
+        return IPv4.fromIPv4Address(getSourceAddress()) + ":"
+                + (getSourcePort() & 0xffff) + " -> "
+                + IPv4.fromIPv4Address(getDestinationAddress()) + ":"
+                + (getDestinationPort() & 0xffff) + " proto "
+                + (getProtocol() & 0xff);
+    }
+}
@@ -0,0 +1,272 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implements the IGMP packet format (RFC 2236 / RFC 3376). Version 1 and 2
+ * messages carry a single group address; version 3 membership reports carry
+ * a list of group records.
+ */
+public class IGMP extends BasePacket {
+    public static final byte TYPE_MEMBERSHIP_QUERY = 0x11;
+    public static final byte TYPE_V1_MEMBERSHIP_REPORT = 0x12;
+    public static final byte TYPE_V2_MEMBERSHIP_REPORT = 0x16;
+    public static final byte TYPE_V2_LEAVE_GROUP = 0x17;
+    public static final byte TYPE_V3_MEMBERSHIP_REPORT = 0x22;
+
+    public static final byte RECORD_MODE_IS_INCLUDE = 1;
+    public static final byte RECORD_MODE_IS_EXCLUDE = 2;
+    public static final byte RECORD_CHANGE_TO_INCLUDE = 3;
+    public static final byte RECORD_CHANGE_TO_EXCLUDE = 4;
+    public static final byte RECORD_ALLOW_NEW_SOURCES = 5;
+    public static final byte RECORD_BLOCK_OLD_SOURCES = 6;
+
+    /**
+     * A single group record from an IGMPv3 membership report. Source lists
+     * are not kept, only whether the record carried any.
+     */
+    public static class GroupRecord {
+        protected byte recordType;
+        protected int groupAddress;
+        protected short numberOfSources;
+
+        public GroupRecord(byte recordType, int groupAddress,
+                short numberOfSources) {
+            this.recordType = recordType;
+            this.groupAddress = groupAddress;
+            this.numberOfSources = numberOfSources;
+        }
+
+        public byte getRecordType() {
+            return recordType;
+        }
+
+        public int getGroupAddress() {
+            return groupAddress;
+        }
+
+        public short getNumberOfSources() {
+            return numberOfSources;
+        }
+
+        /**
+         * @return true if this record means the sender no longer wants any
+         *         traffic for the group (an INCLUDE record with no sources)
+         */
+        public boolean isLeave() {
+            return (recordType == RECORD_MODE_IS_INCLUDE
+                    || recordType == RECORD_CHANGE_TO_INCLUDE)
+                    && numberOfSources == 0;
+        }
+    }
+
+    protected byte igmpType;
+    protected byte maxResponseTime;
+    protected short checksum;
+    protected int groupAddress;
+    protected List<GroupRecord> groupRecords;
+
+    public IGMP() {
+        super();
+        this.groupRecords = new ArrayList<GroupRecord>();
+    }
+
+    /**
+     * @return the igmpType
+     */
+    public byte getIgmpType() {
+        return igmpType;
+    }
+
+    /**
+     * @param igmpType the igmpType to set
+     */
+    public IGMP setIgmpType(byte igmpType) {
+        this.igmpType = igmpType;
+        return this;
+    }
+
+    /**
+     * @return the max response time, in tenths of a second
+     */
+    public byte getMaxResponseTime() {
+        return maxResponseTime;
+    }
+
+    /**
+     * @param maxResponseTime the max response time to set
+     */
+    public IGMP setMaxResponseTime(byte maxResponseTime) {
+        this.maxResponseTime = maxResponseTime;
+        return this;
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @param checksum the checksum to set
+     */
+    public IGMP setChecksum(short checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    @Override
+    public void resetChecksum() {
+        this.checksum = 0;
+        super.resetChecksum();
+    }
+
+    /**
+     * @return the group address of a v1/v2 message; 0 for general queries
+     *         and v3 reports
+     */
+    public int getGroupAddress() {
+        return groupAddress;
+    }
+
+    /**
+     * @param groupAddress the groupAddress to set
+     */
+    public IGMP setGroupAddress(int groupAddress) {
+        this.groupAddress = groupAddress;
+        return this;
+    }
+
+    /**
+     * @return the group records of a v3 membership report
+     */
+    public List<GroupRecord> getGroupRecords() {
+        return groupRecords;
+    }
+
+    /**
+     * @return true if this message is a membership report of any version
+     */
+    public boolean isMembershipReport() {
+        return igmpType == TYPE_V1_MEMBERSHIP_REPORT
+                || igmpType == TYPE_V2_MEMBERSHIP_REPORT
+                || igmpType == TYPE_V3_MEMBERSHIP_REPORT;
+    }
+
+    /** @return length of the 8-byte message, plus 8 bytes per v3 group record */
+    @Override
+    public int encodedLength() {
+        int length = 8;
+        if (igmpType == TYPE_V3_MEMBERSHIP_REPORT)
+            length += 8 * groupRecords.size();
+        return length;
+    }
+
+    /**
+     * Serializes the packet. Only v1/v2 style messages (and v3 reports
+     * without source lists) are written. Will compute and set the following
+     * fields if they are set to specific values at the time serialize is
+     * called:
+     *      -checksum : 0
+     */
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        int start = bb.position();
+        int length = encodedLength();
+
+        bb.put(this.igmpType);
+        bb.put(this.maxResponseTime);
+        bb.putShort(this.checksum);
+        if (igmpType == TYPE_V3_MEMBERSHIP_REPORT) {
+            bb.putShort((short) 0);
+            bb.putShort((short) groupRecords.size());
+            for (GroupRecord record : groupRecords) {
+                bb.put(record.recordType);
+                bb.put((byte) 0);
+                bb.putShort((short) 0);
+                bb.putInt(record.groupAddress);
+            }
+        } else {
+            bb.putInt(this.groupAddress);
+        }
+
+        if (this.parent != null && this.parent instanceof IPv4)
+            ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_IGMP);
+
+        // compute checksum if needed
+        if (this.checksum == 0) {
+            this.checksum = Checksum.compute(bb, start, length);
+            bb.putShort(start + 2, this.checksum);
+        }
+    }
+
+    @Override
+    public IPacket deserialize(byte[] data, int offset, int length) {
+        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+        this.igmpType = bb.get();
+        this.maxResponseTime = bb.get();
+        this.checksum = bb.getShort();
+        this.groupRecords = new ArrayList<GroupRecord>();
+
+        if (this.igmpType == TYPE_V3_MEMBERSHIP_REPORT) {
+            this.groupAddress = 0;
+            bb.getShort(); // reserved
+            int numberOfRecords = bb.getShort() & 0xffff;
+            for (int i = 0; i < numberOfRecords && bb.remaining() >= 8; i++) {
+                byte recordType = bb.get();
+                int auxDataLength = bb.get() & 0xff;
+                short numberOfSources = bb.getShort();
+                int group = bb.getInt();
+                this.groupRecords.add(new GroupRecord(recordType, group,
+                        numberOfSources));
+                int skip = 4 * ((numberOfSources & 0xffff) + auxDataLength);
+                if (skip > bb.remaining())
+                    break;
+                bb.position(bb.position() + skip);
+            }
+        } else if (bb.remaining() >= 4) {
+            this.groupAddress = bb.getInt();
+        }
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 3613;
+        int result = super.hashCode();
+        result = prime * result + igmpType;
+        result = prime * result + maxResponseTime;
+        result = prime * result + checksum;
+        result = prime * result + groupAddress;
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (!(obj instanceof IGMP))
+            return false;
+        IGMP other = (IGMP) obj;
+        if (igmpType != other.igmpType)
+            return false;
+        if (maxResponseTime != other.maxResponseTime)
+            return false;
+        if (checksum != other.checksum)
+            return false;
+        if (groupAddress != other.groupAddress)
+            return false;
+        return true;
+    }
+}
@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -60,6 +62,22 @@ public interface IPacket {
      */
     public byte[] serialize();
 
+    /**
+     * @return the number of bytes serializeTo will write for this packet
+     *         and its payloads
+     */
+    public int encodedLength();
+
+    /**
+     * Sets all payloads parent packet if applicable, then writes this
+     * packet and all payloads into bb starting at its current position,
+     * computing checksums in place. The position is advanced past the
+     * packet.
+     * @param bb a big-endian buffer with at least encodedLength() bytes
+     *        remaining
+     */
+    public void serializeTo(ByteBuffer bb);
+
     /**
      * Deserializes this packet layer and all possible payloads
      * @param data
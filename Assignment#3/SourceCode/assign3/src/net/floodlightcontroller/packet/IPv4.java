@@ -23,8 +23,7 @@ package net.floodlightcontroller.packet;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -32,15 +31,42 @@ import java.util.Map;
  */
 public class IPv4 extends BasePacket {
     public static final byte PROTOCOL_ICMP = 0x1;
+    public static final byte PROTOCOL_IGMP = 0x2;
     public static final byte PROTOCOL_TCP = 0x6;
     public static final byte PROTOCOL_UDP = 0x11;
-    public static Map<Byte, Class<? extends IPacket>> protocolClassMap;
+    public static final byte IPV4_FLAGS_MOREFRAG = 0x1;
+    public static final byte IPV4_FLAGS_DONTFRAG = 0x2;
+
+    /** Payload decoders indexed by protocol; null entries decode as Data */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Supplier<? extends IPacket>[] protocolDecoders =
+            new Supplier[1 << 8];
 
     static {
-        protocolClassMap = new HashMap<Byte, Class<? extends IPacket>>();
-        protocolClassMap.put(PROTOCOL_ICMP, ICMP.class);
-        protocolClassMap.put(PROTOCOL_TCP, TCP.class);
-        protocolClassMap.put(PROTOCOL_UDP, UDP.class);
+        registerProtocol(PROTOCOL_ICMP, ICMP::new);
+        registerProtocol(PROTOCOL_IGMP, IGMP::new);
+        registerProtocol(PROTOCOL_TCP, TCP::new);
+        registerProtocol(PROTOCOL_UDP, UDP::new);
+    }
+
+    /**
+     * Register the decoder used for payloads of a given protocol.
+     * @param protocol the IP protocol number
+     * @param decoder creates an empty packet to deserialize the payload into
+     */
+    public static void registerProtocol(byte protocol,
+            Supplier<? extends IPacket> decoder) {
+        protocolDecoders[protocol & 0xff] = decoder;
+    }
+
+    /**
+     * @param protocol the IP protocol number
+     * @return the decoder for payloads of the protocol; Data if none is
+     *         registered
+     */
+    public static Supplier<? extends IPacket> getProtocolDecoder(byte protocol) {
+        Supplier<? extends IPacket> decoder = protocolDecoders[protocol & 0xff];
+        return (decoder == null) ? Data::new : decoder;
     }
 
     protected byte version;
@@ -279,6 +305,13 @@ public class IPv4 extends BasePacket {
         return this;
     }
 
+    /** @return length of the header, options and payload */
+    @Override
+    public int encodedLength() {
+        int optionsLength = (this.options == null) ? 0 : this.options.length;
+        return 20 + optionsLength + payloadLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
@@ -286,24 +319,22 @@ public class IPv4 extends BasePacket {
      *      -headerLength : 0
      *      -totalLength : 0
      */
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        int start = bb.position();
         int optionsLength = 0;
         if (this.options != null)
             optionsLength = this.options.length / 4;
         this.headerLength = (byte) (5 + optionsLength);
 
-        this.totalLength = (short) (this.headerLength * 4 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.totalLength];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        // The payload goes first: transport layers set our protocol while
+        // serializing, and the header written below must reflect that
+        bb.position(start + this.headerLength * 4);
+        serializePayloadTo(bb);
+        int end = bb.position();
+        this.totalLength = (short) (end - start);
 
+        bb.position(start);
         bb.put((byte) (((this.version & 0xf) << 4) | (this.headerLength & 0xf)));
         bb.put(this.diffServ);
         bb.putShort(this.totalLength);
@@ -316,22 +347,13 @@ public class IPv4 extends BasePacket {
         bb.putInt(this.destinationAddress);
         if (this.options != null)
             bb.put(this.options);
-        if (payloadData != null)
-            bb.put(payloadData);
+        bb.position(end);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-            for (int i = 0; i < this.headerLength * 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(10, this.checksum);
+            this.checksum = Checksum.compute(bb, start, this.headerLength * 4);
+            bb.putShort(start + 10, this.checksum);
         }
-        return data;
     }
 
     @Override
@@ -360,19 +382,9 @@ public class IPv4 extends BasePacket {
             bb.get(this.options);
         }
 
-        IPacket payload;
-        if (IPv4.protocolClassMap.containsKey(this.protocol)) {
-            Class<? extends IPacket> clazz = IPv4.protocolClassMap.get(this.protocol);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for IPv4 packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        // The payload is decoded on first use
+        this.deferPayload(getProtocolDecoder(this.protocol), data,
+                bb.position(), bb.limit()-bb.position());
 
         if (this.totalLength != length)
             this.isTruncated = true;
@@ -382,6 +394,23 @@ public class IPv4 extends BasePacket {
         return this;
     }
 
+    /**
+     * @param ipAddress an IPv4 address as a 32 bit integer
+     * @return true if the address is in the multicast range 224.0.0.0/4
+     */
+    public static boolean isMulticastAddress(int ipAddress) {
+        return (ipAddress & 0xf0000000) == 0xe0000000;
+    }
+
+    /**
+     * @param ipAddress an IPv4 address as a 32 bit integer
+     * @return true if the address is in the link-local multicast range
+     *         224.0.0.0/24, which routers never forward
+     */
+    public static boolean isLinkLocalMulticastAddress(int ipAddress) {
+        return (ipAddress & 0xffffff00) == 0xe0000000;
+    }
+
     /**
      * Accepts an IPv4 address of the form xxx.xxx.xxx.xxx, ie 192.168.0.1 and
      * returns the corresponding 32 bit integer.
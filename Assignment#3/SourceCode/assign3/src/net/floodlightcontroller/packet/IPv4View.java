@@ -0,0 +1,230 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable, zero-copy view of an IPv4 header. See {@link EthernetView}.
+ */
+public class IPv4View {
+    protected ByteBuffer buffer;
+    protected int offset;
+
+    /**
+     * Point this view at an IPv4 header.
+     * @param buffer the buffer holding the packet; must be big-endian
+     * @param offset index of the first byte of the IPv4 header
+     * @return this view
+     */
+    public IPv4View wrap(ByteBuffer buffer, int offset) {
+        if (buffer.order() != ByteOrder.BIG_ENDIAN)
+            throw new IllegalArgumentException("Buffer must be big-endian");
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @return the buffer this view reads from
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return index of the first byte of the header in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the version
+     */
+    public byte getVersion() {
+        return (byte) ((buffer.get(offset) >> 4) & 0xf);
+    }
+
+    /**
+     * @return the headerLength, in 32-bit words
+     */
+    public byte getHeaderLength() {
+        return (byte) (buffer.get(offset) & 0xf);
+    }
+
+    /**
+     * @return the diffServ
+     */
+    public byte getDiffServ() {
+        return buffer.get(offset + 1);
+    }
+
+    /**
+     * @param diffServ the diffServ to set
+     */
+    public IPv4View setDiffServ(byte diffServ) {
+        buffer.put(offset + 1, diffServ);
+        return this;
+    }
+
+    /**
+     * @return the totalLength
+     */
+    public short getTotalLength() {
+        return buffer.getShort(offset + 2);
+    }
+
+    /**
+     * @return the identification
+     */
+    public short getIdentification() {
+        return buffer.getShort(offset + 4);
+    }
+
+    /**
+     * @param identification the identification to set
+     */
+    public IPv4View setIdentification(short identification) {
+        buffer.putShort(offset + 4, identification);
+        return this;
+    }
+
+    /**
+     * @return the flags
+     */
+    public byte getFlags() {
+        return (byte) ((buffer.getShort(offset + 6) >> 13) & 0x7);
+    }
+
+    /**
+     * @return the fragmentOffset
+     */
+    public short getFragmentOffset() {
+        return (short) (buffer.getShort(offset + 6) & 0x1fff);
+    }
+
+    /**
+     * @return the ttl
+     */
+    public byte getTtl() {
+        return buffer.get(offset + 8);
+    }
+
+    /**
+     * @param ttl the ttl to set
+     */
+    public IPv4View setTtl(byte ttl) {
+        buffer.put(offset + 8, ttl);
+        return this;
+    }
+
+    /**
+     * @return the protocol
+     */
+    public byte getProtocol() {
+        return buffer.get(offset + 9);
+    }
+
+    /**
+     * @param protocol the protocol to set
+     */
+    public IPv4View setProtocol(byte protocol) {
+        buffer.put(offset + 9, protocol);
+        return this;
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return buffer.getShort(offset + 10);
+    }
+
+    /**
+     * @param checksum the checksum to set
+     */
+    public IPv4View setChecksum(short checksum) {
+        buffer.putShort(offset + 10, checksum);
+        return this;
+    }
+
+    /**
+     * @return the sourceAddress
+     */
+    public int getSourceAddress() {
+        return buffer.getInt(offset + 12);
+    }
+
+    /**
+     * @param sourceAddress the sourceAddress to set
+     */
+    public IPv4View setSourceAddress(int sourceAddress) {
+        buffer.putInt(offset + 12, sourceAddress);
+        return this;
+    }
+
+    /**
+     * @return the destinationAddress
+     */
+    public int getDestinationAddress() {
+        return buffer.getInt(offset + 16);
+    }
+
+    /**
+     * @param destinationAddress the destinationAddress to set
+     */
+    public IPv4View setDestinationAddress(int destinationAddress) {
+        buffer.putInt(offset + 16, destinationAddress);
+        return this;
+    }
+
+    /**
+     * @return index of the first payload byte in the buffer
+     */
+    public int getPayloadOffset() {
+        return offset + getHeaderLength() * 4;
+    }
+
+    /**
+     * Computes the header checksum over the wire bytes, treating the
+     * checksum field as zero.
+     * @return the checksum the header should carry
+     */
+    public short computeChecksum() {
+        int headerLength = getHeaderLength() * 4;
+        long sum = Checksum.sum(buffer, offset, headerLength, 0);
+        // Take the checksum field back out of the sum
+        sum += ~getChecksum() & 0xffff;
+        return Checksum.fold(sum);
+    }
+
+    /**
+     * Recomputes the header checksum and writes it in place.
+     */
+    public IPv4View updateChecksum() {
+        return setChecksum(computeChecksum());
+    }
+
+    /**
+     * @return True if the header checksum carried in the packet is correct
+     */
+    public boolean isChecksumValid() {
+        return computeChecksum() == getChecksum();
+    }
+
+    /**
+     * Decrements the TTL and adjusts the checksum incrementally (RFC 1624)
+     * instead of recomputing it over the whole header.
+     * @return the new ttl
+     */
+    public byte decrementTtl() {
+        byte ttl = (byte) (getTtl() - 1);
+        setTtl(ttl);
+        // The TTL is the high byte of its 16-bit word, so the word shrank
+        // by 0x0100: HC' = ~(~HC + ~m + m') = ~(~HC + 0xfeff)
+        int sum = (~getChecksum() & 0xffff) + 0xfeff;
+        sum = (sum & 0xffff) + (sum >> 16);
+        setChecksum((short) (~sum & 0xffff));
+        return ttl;
+    }
+}
@@ -1,18 +1,74 @@
 package net.floodlightcontroller.packet;
 
-import java.util.Arrays;
-
 /**
  * The class representing MAC address.
  *
+ * The address is held in the lower 48 bits of a {@code long}, so instances
+ * are compared and hashed without touching an array. Well-known addresses
+ * (broadcast, and any address passed to {@link #intern(MACAddress)}, such
+ * as interface addresses) are cached and returned by the {@code valueOf}
+ * factories instead of allocating a new instance.
+ *
  * @author Sho Shimizu (sho.shimizu@gmail.com)
  */
 public class MACAddress {
     public static final int MAC_ADDRESS_LENGTH = 6;
-    private byte[] address = new byte[MAC_ADDRESS_LENGTH];
+    public static final long BROADCAST_VALUE = 0xffffffffffffL;
+    public static final MACAddress BROADCAST = new MACAddress(BROADCAST_VALUE);
+
+    /** Direct-mapped cache of interned instances; a slot holds one address */
+    private static final int CACHE_SIZE = 256;
+    private static final MACAddress[] cache = new MACAddress[CACHE_SIZE];
+
+    static {
+        intern(BROADCAST);
+    }
+
+    private final long address;
 
     public MACAddress(byte[] address) {
-        this.address = Arrays.copyOf(address, MAC_ADDRESS_LENGTH);
+        this(toLong(address, 0));
+    }
+
+    private MACAddress(long address) {
+        this.address = address & BROADCAST_VALUE;
+    }
+
+    /**
+     * Cache an instance so the {@code valueOf} factories return it for its
+     * address. Meant for addresses that appear on most packets, such as
+     * interface addresses.
+     * @param mac the instance to cache
+     * @return the cached instance for the address
+     */
+    public static MACAddress intern(MACAddress mac) {
+        cache[slot(mac.address)] = mac;
+        return mac;
+    }
+
+    private static int slot(long address) {
+        // Mix the NIC-specific low bytes, which vary most between hosts
+        long h = address ^ (address >>> 17) ^ (address >>> 31);
+        return (int) h & (CACHE_SIZE - 1);
+    }
+
+    private static long toLong(byte[] address, int offset) {
+        return ((address[offset] & 0xffL) << 40)
+                | ((address[offset + 1] & 0xffL) << 32)
+                | ((address[offset + 2] & 0xffL) << 24)
+                | ((address[offset + 3] & 0xffL) << 16)
+                | ((address[offset + 4] & 0xffL) << 8)
+                | (address[offset + 5] & 0xffL);
+    }
+
+    private static int hexDigit(String address, int index) {
+        int digit = Character.digit(address.charAt(index), 16);
+        if (digit < 0) {
+            throw new IllegalArgumentException(
+                    "Specified MAC Address must contain 12 hex digits" +
+                    " separated pairwise by :'s.");
+        }
+        return digit;
     }
 
     /**
@@ -22,20 +78,46 @@ public class MACAddress {
      * @throws IllegalArgumentException if the string cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(String address) {
-        String[] elements = address.split(":");
-        if (elements.length != MAC_ADDRESS_LENGTH) {
+        return valueOf(parseLong(address));
+    }
+
+    /**
+     * Parses a MAC address of the form 00:aa:11:bb:22:cc, case does not
+     * matter, without allocating.
+     * @param address the String representation of the MAC Address to be parsed.
+     * @return the address in the lower 48 bits of a {@code long}.
+     * @throws IllegalArgumentException if the string cannot be parsed as a MAC address.
+     */
+    public static long parseLong(String address) {
+        // Each element is one or two hex digits, as Integer.parseInt accepted
+        long value = 0;
+        int index = 0;
+        int length = address.length();
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            if (i > 0) {
+                if (index >= length || address.charAt(index) != ':') {
+                    throw new IllegalArgumentException(
+                            "Specified MAC Address must contain 12 hex digits" +
+                            " separated pairwise by :'s.");
+                }
+                index++;
+            }
+            if (index >= length) {
+                throw new IllegalArgumentException(
+                        "Specified MAC Address must contain 12 hex digits" +
+                        " separated pairwise by :'s.");
+            }
+            int element = hexDigit(address, index++);
+            if (index < length && address.charAt(index) != ':')
+                element = (element << 4) | hexDigit(address, index++);
+            value = (value << 8) | element;
+        }
+        if (index != length) {
             throw new IllegalArgumentException(
                     "Specified MAC Address must contain 12 hex digits" +
                     " separated pairwise by :'s.");
         }
-
-        byte[] addressInBytes = new byte[MAC_ADDRESS_LENGTH];
-        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
-            String element = elements[i];
-            addressInBytes[i] = (byte)Integer.parseInt(element, 16);
-        }
-
-        return new MACAddress(addressInBytes);
+        return value;
     }
 
     /**
@@ -49,7 +131,7 @@ public class MACAddress {
             throw new IllegalArgumentException("the length is not " + MAC_ADDRESS_LENGTH);
         }
 
-        return new MACAddress(address);
+        return valueOf(toLong(address, 0));
     }
 
     /**
@@ -60,16 +142,12 @@ public class MACAddress {
      * @throws IllegalArgumentException if the long value cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(long address) {
-        byte[] addressInBytes = new byte[] {
-                (byte)((address >> 40) & 0xff),
-                (byte)((address >> 32) & 0xff),
-                (byte)((address >> 24) & 0xff),
-                (byte)((address >> 16) & 0xff),
-                (byte)((address >> 8 ) & 0xff),
-                (byte)((address >> 0) & 0xff)
-        };
-
-        return new MACAddress(addressInBytes);
+        address &= BROADCAST_VALUE;
+        MACAddress cached = cache[slot(address)];
+        if (cached != null && cached.address == address) {
+            return cached;
+        }
+        return new MACAddress(address);
     }
 
     /**
@@ -77,7 +155,7 @@ public class MACAddress {
      * @return the length of the {@code MACAddress}.
      */
     public int length() {
-        return address.length;
+        return MAC_ADDRESS_LENGTH;
     }
 
     /**
@@ -85,7 +163,23 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code byte} array.
      */
     public byte[] toBytes() {
-        return Arrays.copyOf(address, address.length);
+        return toBytes(address);
+    }
+
+    /**
+     * Returns the lower 48 bits of a {@code long} as a MAC address {@code byte} array.
+     * @param address the address in the lower 48 bits of a {@code long}.
+     * @return the bytes of the address.
+     */
+    public static byte[] toBytes(long address) {
+        return new byte[] {
+                (byte)((address >> 40) & 0xff),
+                (byte)((address >> 32) & 0xff),
+                (byte)((address >> 24) & 0xff),
+                (byte)((address >> 16) & 0xff),
+                (byte)((address >> 8 ) & 0xff),
+                (byte)((address >> 0) & 0xff)
+        };
     }
 
     /**
@@ -93,12 +187,7 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code long}.
      */
     public long toLong() {
-        long mac = 0;
-        for (int i = 0; i < 6; i++) {
-            long t = (address[i] & 0xffL) << ((5 - i) * 8);
-            mac |= t;
-        }
-        return mac;
+        return address;
     }
 
     /**
@@ -106,11 +195,7 @@ public class MACAddress {
      * @return {@code true} if the MAC address is the broadcast address.
      */
     public boolean isBroadcast() {
-        for (byte b : address) {
-            if (b != -1) // checks if equal to 0xff
-                return false;
-        }
-        return true;
+        return address == BROADCAST_VALUE;
     }
 
     /**
@@ -118,10 +203,17 @@ public class MACAddress {
      * @return {@code true} if the MAC address is the multicast address.
      */
     public boolean isMulticast() {
-        if (isBroadcast()) {
-            return false;
-        }
-        return (address[0] & 0x01) != 0;
+        return isMulticast(address);
+    }
+
+    /**
+     * Returns {@code true} if the address is a multicast, but not the
+     * broadcast, address.
+     * @param address the address in the lower 48 bits of a {@code long}.
+     * @return {@code true} if the address is a multicast address.
+     */
+    public static boolean isMulticast(long address) {
+        return address != BROADCAST_VALUE && (address & 0x010000000000L) != 0;
     }
 
     @Override
@@ -135,23 +227,36 @@ public class MACAddress {
         }
 
         MACAddress other = (MACAddress)o;
-        return Arrays.equals(this.address, other.address);
+        return this.address == other.address;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(this.address);
+        return (int) (address ^ (address >>> 32));
     }
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        for (byte b: address) {
-            if (builder.length() > 0) {
-                builder.append(":");
+        return toString(address);
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Formats the lower 48 bits of a {@code long} as 00:AA:11:BB:22:CC.
+     * @param address the address in the lower 48 bits of a {@code long}.
+     * @return the formatted address.
+     */
+    public static String toString(long address) {
+        char[] chars = new char[3 * MAC_ADDRESS_LENGTH - 1];
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            int b = (int) (address >> ((5 - i) * 8)) & 0xff;
+            if (i > 0) {
+                chars[3 * i - 1] = ':';
             }
-            builder.append(String.format("%02X", b & 0xFF));
+            chars[3 * i] = HEX_DIGITS[b >> 4];
+            chars[3 * i + 1] = HEX_DIGITS[b & 0xf];
         }
-        return builder.toString();
+        return new String(chars);
     }
 }
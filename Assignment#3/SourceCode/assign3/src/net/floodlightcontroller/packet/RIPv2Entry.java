@@ -74,17 +74,19 @@ public class RIPv2Entry
 
 	public byte[] serialize() 
     {
-		int length = 2*2 + 4*4;
-		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+		byte[] data = new byte[2*2 + 4*4];
+		this.serializeTo(ByteBuffer.wrap(data));
+		return data;
+	}
 
+	public void serializeTo(ByteBuffer bb) 
+    {
 		bb.putShort(this.addressFamily);
 		bb.putShort(this.routeTag);
         bb.putInt(this.address);
         bb.putInt(this.subnetMask);
         bb.putInt(this.nextHopAddress);
         bb.putInt(this.metric);
-		return data;
 	}
 
 	public RIPv2Entry deserialize(byte[] data, int offset, int length) 
@@ -0,0 +1,141 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable, zero-copy view of a TCP header. See {@link EthernetView}.
+ */
+public class TcpView {
+    public static final short FLAG_FIN = 0x01;
+    public static final short FLAG_SYN = 0x02;
+    public static final short FLAG_RST = 0x04;
+    public static final short FLAG_PSH = 0x08;
+    public static final short FLAG_ACK = 0x10;
+    public static final short FLAG_URG = 0x20;
+
+    protected ByteBuffer buffer;
+    protected int offset;
+
+    /**
+     * Point this view at a TCP header.
+     * @param buffer the buffer holding the packet; must be big-endian
+     * @param offset index of the first byte of the TCP header
+     * @return this view
+     */
+    public TcpView wrap(ByteBuffer buffer, int offset) {
+        if (buffer.order() != ByteOrder.BIG_ENDIAN)
+            throw new IllegalArgumentException("Buffer must be big-endian");
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @return the buffer this view reads from
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return index of the first byte of the header in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the sourcePort
+     */
+    public short getSourcePort() {
+        return buffer.getShort(offset);
+    }
+
+    /**
+     * @param sourcePort the sourcePort to set
+     */
+    public TcpView setSourcePort(short sourcePort) {
+        buffer.putShort(offset, sourcePort);
+        return this;
+    }
+
+    /**
+     * @return the destinationPort
+     */
+    public short getDestinationPort() {
+        return buffer.getShort(offset + 2);
+    }
+
+    /**
+     * @param destinationPort the destinationPort to set
+     */
+    public TcpView setDestinationPort(short destinationPort) {
+        buffer.putShort(offset + 2, destinationPort);
+        return this;
+    }
+
+    /**
+     * @return the sequence number
+     */
+    public int getSequence() {
+        return buffer.getInt(offset + 4);
+    }
+
+    /**
+     * @return the acknowledgement number
+     */
+    public int getAcknowledge() {
+        return buffer.getInt(offset + 8);
+    }
+
+    /**
+     * @return the dataOffset, in 32-bit words
+     */
+    public byte getDataOffset() {
+        return (byte) ((buffer.get(offset + 12) >> 4) & 0xf);
+    }
+
+    /**
+     * @return the flags (FIN, SYN, RST, ...)
+     */
+    public short getFlags() {
+        return (short) (buffer.getShort(offset + 12) & 0x1ff);
+    }
+
+    /**
+     * @return the windowSize
+     */
+    public short getWindowSize() {
+        return buffer.getShort(offset + 14);
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return buffer.getShort(offset + 16);
+    }
+
+    /**
+     * @param checksum the checksum to set
+     */
+    public TcpView setChecksum(short checksum) {
+        buffer.putShort(offset + 16, checksum);
+        return this;
+    }
+
+    /**
+     * @return the urgentPointer
+     */
+    public short getUrgentPointer() {
+        return buffer.getShort(offset + 18);
+    }
+
+    /**
+     * @return index of the first payload byte in the buffer
+     */
+    public int getPayloadOffset() {
+        return offset + getDataOffset() * 4;
+    }
+}
@@ -18,22 +18,34 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
 public class UDP extends BasePacket {
-    public static Map<Short, Class<? extends IPacket>> decodeMap;
     public static short DHCP_SERVER_PORT = (short)67;
     public static short DHCP_CLIENT_PORT = (short)68;
     public static short RIP_PORT = (short)520;
 
+    /** Payload decoders indexed by port; null entries decode as Data */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Supplier<? extends IPacket>[] portDecoders =
+            new Supplier[1 << 16];
+
     static {
-        decodeMap = new HashMap<Short, Class<? extends IPacket>>();
-        UDP.decodeMap.put(RIP_PORT, RIPv2.class);
+        registerPort(RIP_PORT, RIPv2::new);
+    }
+
+    /**
+     * Register the decoder used for payloads sent to or from a given port.
+     * @param port the UDP port
+     * @param decoder creates an empty packet to deserialize the payload into
+     */
+    public static void registerPort(short port,
+            Supplier<? extends IPacket> decoder) {
+        portDecoders[port & 0xffff] = decoder;
     }
 
     protected short sourcePort;
@@ -99,65 +111,38 @@ public class UDP extends BasePacket {
         super.resetChecksum();
     }
 
+    /** @return length of the 8-byte header and payload */
+    @Override
+    public int encodedLength() {
+        return 8 + payloadLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-
-        this.length = (short) (8 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        int start = bb.position();
+        this.length = (short) encodedLength();
 
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
         bb.putShort(this.length);
         bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        serializePayloadTo(bb);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_UDP);
 
-        // compute checksum if needed
+        // compute checksum if needed, over the pseudo header, header and data
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            // compute pseudo header mac
-            if (this.parent != null && this.parent instanceof IPv4) {
-                IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += this.length & 0xffff;
-            }
-
-            for (int i = 0; i < this.length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (this.length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(6, this.checksum);
+            IPv4 ipv4 = (this.parent instanceof IPv4) ? (IPv4) this.parent : null;
+            this.checksum = Checksum.compute(bb, start, this.length & 0xffff, ipv4);
+            bb.putShort(start + 6, this.checksum);
         }
-        return data;
     }
 
     /* (non-Javadoc)
@@ -205,23 +190,13 @@ public class UDP extends BasePacket {
         this.length = bb.getShort();
         this.checksum = bb.getShort();
 
-        if (UDP.decodeMap.containsKey(this.destinationPort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.destinationPort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else if (UDP.decodeMap.containsKey(this.sourcePort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.sourcePort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else {
-            this.payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        Supplier<? extends IPacket> decoder = portDecoders[this.destinationPort & 0xffff];
+        if (decoder == null)
+            decoder = portDecoders[this.sourcePort & 0xffff];
+        if (decoder == null)
+            decoder = Data::new;
+        // The payload is decoded on first use
+        this.deferPayload(decoder, data, bb.position(), bb.limit()-bb.position());
         return this;
     }
 }
@@ -0,0 +1,101 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable, zero-copy view of a UDP header. See {@link EthernetView}.
+ */
+public class UdpView {
+    public static final int HEADER_LENGTH = 8;
+
+    protected ByteBuffer buffer;
+    protected int offset;
+
+    /**
+     * Point this view at a UDP header.
+     * @param buffer the buffer holding the packet; must be big-endian
+     * @param offset index of the first byte of the UDP header
+     * @return this view
+     */
+    public UdpView wrap(ByteBuffer buffer, int offset) {
+        if (buffer.order() != ByteOrder.BIG_ENDIAN)
+            throw new IllegalArgumentException("Buffer must be big-endian");
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @return the buffer this view reads from
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return index of the first byte of the header in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the sourcePort
+     */
+    public short getSourcePort() {
+        return buffer.getShort(offset);
+    }
+
+    /**
+     * @param sourcePort the sourcePort to set
+     */
+    public UdpView setSourcePort(short sourcePort) {
+        buffer.putShort(offset, sourcePort);
+        return this;
+    }
+
+    /**
+     * @return the destinationPort
+     */
+    public short getDestinationPort() {
+        return buffer.getShort(offset + 2);
+    }
+
+    /**
+     * @param destinationPort the destinationPort to set
+     */
+    public UdpView setDestinationPort(short destinationPort) {
+        buffer.putShort(offset + 2, destinationPort);
+        return this;
+    }
+
+    /**
+     * @return the length of header and payload
+     */
+    public short getLength() {
+        return buffer.getShort(offset + 4);
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return buffer.getShort(offset + 6);
+    }
+
+    /**
+     * @param checksum the checksum to set
+     */
+    public UdpView setChecksum(short checksum) {
+        buffer.putShort(offset + 6, checksum);
+        return this;
+    }
+
+    /**
+     * @return index of the first payload byte in the buffer
+     */
+    public int getPayloadOffset() {
+        return offset + HEADER_LENGTH;
+    }
+}